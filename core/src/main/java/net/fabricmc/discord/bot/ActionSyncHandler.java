@@ -17,7 +17,9 @@
 package net.fabricmc.discord.bot;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,15 +27,23 @@ import java.util.Objects;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import net.fabricmc.discord.bot.command.mod.ActionType;
 import net.fabricmc.discord.bot.command.mod.ActionUtil;
 import net.fabricmc.discord.bot.command.mod.ActionUtil.UserMessageAction;
 import net.fabricmc.discord.bot.command.mod.UserActionType;
 import net.fabricmc.discord.bot.database.query.ActionQueries;
 import net.fabricmc.discord.bot.database.query.ActionQueries.ActionEntry;
 import net.fabricmc.discord.bot.database.query.ActionQueries.ActiveActionEntry;
+import net.fabricmc.discord.bot.database.query.ActionQueries.DiscordUserActiveActionEntry;
 import net.fabricmc.discord.bot.database.query.ActionQueries.ExpiringActionEntry;
 import net.fabricmc.discord.io.GlobalEventHolder;
 import net.fabricmc.discord.io.GlobalEventHolder.MemberBanHandler;
@@ -62,6 +72,10 @@ public final class ActionSyncHandler implements MemberJoinHandler, MemberBanHand
 	private Server server;
 	private Future<?> expirationsUpdateFuture; // task for periodically scheduling expirations
 	private final Map<Integer, Future<?>> scheduledExpirations = new HashMap<>(); // tasks for every actual expiring action within the expiration window
+	// index of active user actions, separately locked to keep message checks from waiting on action processing
+	private final Object activeActionLock = new Object();
+	private final Long2ObjectMap<List<ActiveActionEntry>> discordUserActions = new Long2ObjectOpenHashMap<>(); // discord user id -> active actions, guarded by activeActionLock
+	private final Int2ObjectMap<LongList> actionDiscordUsers = new Int2ObjectOpenHashMap<>(); // action id -> indexed discord user ids, guarded by activeActionLock
 
 	ActionSyncHandler(DiscordBot bot) {
 		this.bot = bot;
@@ -76,6 +90,12 @@ public final class ActionSyncHandler implements MemberJoinHandler, MemberBanHand
 
 		this.server = server;
 
+		try {
+			loadActiveActions();
+		} catch (SQLException e) {
+			LOGGER.warn("Error loading active actions", e);
+		}
+
 		try {
 			long time = System.currentTimeMillis();
 			Collection<ActiveActionEntry> activeActions = ActionQueries.getActiveActions(bot.getDatabase());
@@ -128,6 +148,17 @@ public final class ActionSyncHandler implements MemberJoinHandler, MemberBanHand
 	}
 
 	public void onNewAction(ActionEntry entry) {
+		if (entry.type().getKind() == ActionType.Kind.USER && entry.type().hasDuration()) {
+			ActiveActionEntry activeEntry = new ActiveActionEntry(entry.id(), entry.type(), entry.data(), entry.targetId(), entry.expirationTime(), entry.reason());
+			LongList discordUserIds = bot.getUserHandler().getDiscordUserIds((int) entry.targetId());
+
+			synchronized (activeActionLock) {
+				for (long discordUserId : discordUserIds) {
+					indexAction(activeEntry, discordUserId);
+				}
+			}
+		}
+
 		if (entry.expirationTime() <= 0) return; // no expiration
 
 		long time = System.currentTimeMillis();
@@ -179,11 +210,67 @@ public final class ActionSyncHandler implements MemberJoinHandler, MemberBanHand
 	}
 
 	public synchronized void onActionSuspension(int actionId) {
+		unindexAction(actionId);
+
 		// cancel expiration, the suspension handling already reverted the action
 		Future<?> future = scheduledExpirations.remove(actionId);
 		if (future != null) future.cancel(false);
 	}
 
+	public void onActionExpiration(int actionId) {
+		unindexAction(actionId);
+	}
+
+	private void loadActiveActions() throws SQLException {
+		synchronized (activeActionLock) { // held while loading so concurrent updates apply on top of the loaded state
+			Collection<DiscordUserActiveActionEntry> entries = ActionQueries.getActiveDiscordUserActions(bot.getDatabase());
+
+			discordUserActions.clear();
+			actionDiscordUsers.clear();
+
+			for (DiscordUserActiveActionEntry entry : entries) {
+				indexAction(entry.action(), entry.discordUserId());
+			}
+		}
+	}
+
+	private void indexAction(ActiveActionEntry action, long discordUserId) {
+		assert Thread.holdsLock(activeActionLock);
+
+		LongList discordUserIds = actionDiscordUsers.get(action.id());
+
+		if (discordUserIds == null) {
+			discordUserIds = new LongArrayList(1);
+			actionDiscordUsers.put(action.id(), discordUserIds);
+		} else if (discordUserIds.contains(discordUserId)) {
+			return; // already indexed
+		}
+
+		discordUserIds.add(discordUserId);
+		discordUserActions.computeIfAbsent(discordUserId, ignore -> new ArrayList<>(1)).add(action);
+	}
+
+	private void unindexAction(int actionId) {
+		synchronized (activeActionLock) {
+			LongList discordUserIds = actionDiscordUsers.remove(actionId);
+			if (discordUserIds == null) return;
+
+			for (long discordUserId : discordUserIds) {
+				List<ActiveActionEntry> actions = discordUserActions.get(discordUserId);
+				actions.removeIf(action -> action.id() == actionId);
+				if (actions.isEmpty()) discordUserActions.remove(discordUserId);
+			}
+		}
+	}
+
+	private List<ActiveActionEntry> getActiveDiscordUserActions(long discordUserId) {
+		synchronized (activeActionLock) {
+			List<ActiveActionEntry> ret = discordUserActions.get(discordUserId);
+
+			return ret != null ? List.copyOf(ret) : Collections.emptyList();
+		}
+	}
+
 	void registerEarlyHandlers(GlobalEventHolder holder) {
 		holder.registerMemberJoin(this);
 		holder.registerMemberBan(this);
@@ -196,7 +283,7 @@ public final class ActionSyncHandler implements MemberJoinHandler, MemberBanHand
 
 		try {
 			synchronized (this) {
-				Collection<ActiveActionEntry> actions = ActionQueries.getActiveDiscordUserActions(bot.getDatabase(), member.getId());
+				Collection<ActiveActionEntry> actions = getActiveDiscordUserActions(member.getId());
 				long time = System.currentTimeMillis();
 
 				for (ActiveActionEntry action : actions) {
@@ -237,11 +324,11 @@ public final class ActionSyncHandler implements MemberJoinHandler, MemberBanHand
 		}
 	}
 
-	private void onMessage(CachedMessage message, Server server) {
+	private void onMessage(CachedMessage message, MessageAnalysis analysis, Server server) {
 		if (message.isDeleted()) return;
 
 		try {
-			Collection<ActiveActionEntry> actions = ActionQueries.getActiveDiscordUserActions(bot.getDatabase(), message.getAuthorDiscordId());
+			Collection<ActiveActionEntry> actions = getActiveDiscordUserActions(message.getAuthorDiscordId());
 			if (actions.isEmpty()) return;
 
 			long time = System.currentTimeMillis();
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpResponse;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import net.fabricmc.discord.bot.config.ConfigKey;
+import net.fabricmc.discord.bot.config.ValueSerializers;
+import net.fabricmc.discord.bot.util.HttpUtil;
+
+/**
+ * Disk backed attachment data cache, content addressed by SHA-256.
+ *
+ * <p>Downloads are streamed straight to a file, identical content is only stored once. The total size is bounded by
+ * the attachmentStore.maxSizeMiB config value, the least recently used files are evicted first. Files larger than
+ * that aren't stored at all, see {@link #canStore}.
+ */
+public final class AttachmentStore {
+	private static final ConfigKey<Integer> MAX_SIZE_MIB = new ConfigKey<>("attachmentStore.maxSizeMiB", ValueSerializers.rangedInt(0, Integer.MAX_VALUE));
+	private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+	private static final Logger LOGGER = LogManager.getLogger(AttachmentStore.class);
+
+	private final DiscordBot bot;
+	private final Path dir;
+	private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true); // hash -> size in access order, guarded by this
+	private long totalSize; // guarded by this
+
+	AttachmentStore(DiscordBot bot) {
+		this.bot = bot;
+		this.dir = bot.getDataDir().resolve("attachments");
+
+		bot.registerConfigEntry(MAX_SIZE_MIB, 1024);
+
+		try {
+			load();
+		} catch (IOException e) {
+			LOGGER.warn("Error loading attachment store", e);
+		}
+	}
+
+	private void load() throws IOException {
+		if (!Files.isDirectory(dir)) return;
+
+		record FileEntry(String hash, long size, FileTime lastAccess) { }
+		List<FileEntry> files = new ArrayList<>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path file : stream) {
+				String name = file.getFileName().toString();
+
+				if (HASH_PATTERN.matcher(name).matches()) {
+					BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+					files.add(new FileEntry(name, attributes.size(), attributes.lastModifiedTime()));
+				} else { // left over from an interrupted download
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+
+		files.sort(Comparator.comparing(FileEntry::lastAccess));
+
+		synchronized (this) {
+			for (FileEntry file : files) {
+				entries.put(file.hash(), file.size());
+				totalSize += file.size();
+			}
+		}
+	}
+
+	/**
+	 * @return whether data of the given size may be kept in the store, larger data should be streamed directly
+	 */
+	public boolean canStore(long size) {
+		return size <= (long) bot.getConfigEntry(MAX_SIZE_MIB) << 20;
+	}
+
+	/**
+	 * Download the data at the given url into the store.
+	 *
+	 * <p>Data exceeding {@link #canStore} gets hashed but not kept, {@link #open} returns null for it.
+	 *
+	 * @param expectedSize expected content size or -1 to skip the check
+	 * @return content hash or null if the remote data isn't available
+	 * @throws IOException if the content size doesn't match expectedSize, without reading more than expectedSize+1 bytes
+	 */
+	public @Nullable String download(String url, long expectedSize) throws IOException, InterruptedException, URISyntaxException {
+		HttpResponse<InputStream> response = HttpUtil.makeRequest(new URI(url));
+
+		if (response.statusCode() != 200) {
+			response.body().close();
+			return null;
+		}
+
+		Files.createDirectories(dir);
+		Path tmpFile = Files.createTempFile(dir, "download", ".tmp");
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[8192];
+			long size = 0;
+			int len;
+
+			try (InputStream is = checkSize(response.body(), expectedSize);
+					OutputStream os = Files.newOutputStream(tmpFile)) {
+				while ((len = is.read(buffer)) >= 0) {
+					digest.update(buffer, 0, len);
+					os.write(buffer, 0, len);
+					size += len;
+				}
+			}
+
+			String hash = toHex(digest.digest());
+
+			synchronized (this) {
+				if (entries.get(hash) == null && canStore(size)) {
+					Files.move(tmpFile, dir.resolve(hash), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					entries.put(hash, size);
+					totalSize += size;
+					evict();
+				}
+			}
+
+			return hash;
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} finally {
+			Files.deleteIfExists(tmpFile);
+		}
+	}
+
+	/**
+	 * Open a stream for previously downloaded data.
+	 *
+	 * @return data stream or null if the data isn't (or no longer) stored
+	 */
+	public @Nullable InputStream open(String hash) throws IOException {
+		Path file;
+
+		synchronized (this) {
+			if (entries.get(hash) == null) return null; // also marks the entry as recently used
+
+			file = dir.resolve(hash);
+		}
+
+		try {
+			InputStream ret = Files.newInputStream(file); // stays readable if the file gets evicted concurrently
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis())); // persist lru order
+
+			return ret;
+		} catch (NoSuchFileException e) {
+			synchronized (this) {
+				Long size = entries.remove(hash);
+				if (size != null) totalSize -= size;
+			}
+
+			return null;
+		}
+	}
+
+	public synchronized boolean contains(String hash) {
+		return entries.containsKey(hash);
+	}
+
+	/**
+	 * Wrap a stream to fail with an IOException as soon as its size turns out to differ from expectedSize.
+	 *
+	 * @param expectedSize expected content size or -1 to skip the check
+	 */
+	static InputStream checkSize(InputStream is, long expectedSize) {
+		if (expectedSize < 0) return is;
+
+		return new FilterInputStream(is) {
+			private long remaining = expectedSize;
+
+			@Override
+			public int read() throws IOException {
+				int ret = super.read();
+				update(ret < 0 ? -1 : 1);
+
+				return ret;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int ret = super.read(b, off, (int) Math.min(len, remaining + 1)); // stops after 1 excess byte
+				update(ret);
+
+				return ret;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long ret = super.skip(Math.min(n, remaining + 1));
+				remaining -= ret;
+				if (remaining < 0) throw new IOException("content exceeds recorded size %d".formatted(expectedSize));
+
+				return ret;
+			}
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+
+			private void update(int len) throws IOException {
+				if (len < 0) {
+					if (remaining > 0) throw new IOException("content size %d doesn't match recorded size %d".formatted(expectedSize - remaining, expectedSize));
+				} else {
+					remaining -= len;
+					if (remaining < 0) throw new IOException("content exceeds recorded size %d".formatted(expectedSize));
+				}
+			}
+		};
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder ret = new StringBuilder(bytes.length * 2);
+
+		for (byte b : bytes) {
+			ret.append(Character.forDigit((b >>> 4) & 0xf, 16));
+			ret.append(Character.forDigit(b & 0xf, 16));
+		}
+
+		return ret.toString();
+	}
+
+	private void evict() {
+		assert Thread.holdsLock(this);
+
+		long maxSize = (long) bot.getConfigEntry(MAX_SIZE_MIB) << 20;
+
+		for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator(); totalSize > maxSize && it.hasNext(); ) {
+			Map.Entry<String, Long> entry = it.next();
+			it.remove();
+			totalSize -= entry.getValue();
+
+			try {
+				Files.deleteIfExists(dir.resolve(entry.getKey()));
+			} catch (IOException e) {
+				LOGGER.warn("Error deleting attachment {}", entry.getKey(), e);
+			}
+		}
+	}
+}
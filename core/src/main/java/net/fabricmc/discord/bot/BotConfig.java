@@ -46,6 +46,8 @@ final class BotConfig {
 		}
 
 		final String databaseUrl = properties.getProperty("database-url");
+		// WAL mode is optional
+		final boolean databaseWal = Boolean.parseBoolean(properties.getProperty("database-wal", "false"));
 		final String guildId = properties.getProperty("guild-id");
 
 		if (guildId.isEmpty()) {
@@ -80,18 +82,20 @@ final class BotConfig {
 			disabledModules = Collections.emptyList();
 		}
 
-		return new BotConfig(token, databaseUrl, guildId, commandPrefix, disabledModules);
+		return new BotConfig(token, databaseUrl, databaseWal, guildId, commandPrefix, disabledModules);
 	}
 
 	private final String token;
 	private final String databaseUrl;
+	private final boolean databaseWal;
 	private final String guildId;
 	private final String commandPrefix;
 	private final Collection<String> disabledModules;
 
-	BotConfig(String token, String databaseUrl, String guildId, String commandPrefix, Collection<String> disabledModules) {
+	BotConfig(String token, String databaseUrl, boolean databaseWal, String guildId, String commandPrefix, Collection<String> disabledModules) {
 		this.token = token;
 		this.databaseUrl = databaseUrl;
+		this.databaseWal = databaseWal;
 		this.guildId = guildId;
 		this.commandPrefix = commandPrefix;
 		this.disabledModules = disabledModules;
@@ -105,6 +109,10 @@ final class BotConfig {
 		return this.databaseUrl;
 	}
 
+	boolean isDatabaseWal() {
+		return this.databaseWal;
+	}
+
 	String getGuildId() {
 		return this.guildId;
 	}
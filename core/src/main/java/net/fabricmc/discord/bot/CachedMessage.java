@@ -17,6 +17,7 @@
 package net.fabricmc.discord.bot;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.ToLongFunction;
 
@@ -33,6 +34,10 @@ import net.fabricmc.discord.io.User;
 
 public final class CachedMessage {
 	CachedMessage(Message message) {
+		this(message, null, null);
+	}
+
+	CachedMessage(Message message, @Nullable MessageContentStore contentStore, @Nullable AttachmentStore attachmentStore) {
 		this.id = message.getId();
 		this.type = message.getType();
 		this.channelId = message.getChannel().getId();
@@ -40,35 +45,96 @@ public final class CachedMessage {
 		User author = message.getAuthor();
 		this.authorId = message.isFromWebhook() ? -1 : author.getId();
 
-		this.content = message.getContent();
-		this.attachments = serializeAttachments(message.getAttachments());
+		MessageContentStore.ContentRef contentRef = MessageContentStore.store(contentStore, message.getContent());
+		this.content = contentRef.data();
+		this.contentOffset = contentRef.offset();
+		this.contentLength = contentRef.length();
+		this.attachments = serializeAttachments(message.getAttachments(), attachmentStore);
 		this.userMentions = serializeMentions(message.getMentionedUsers(), User::getId);
 		this.roleMentions = serializeMentions(message.getMentionedRoles(), Role::getId);
 		this.prev = null;
 		this.editTime = null;
 	}
 
-	CachedMessage(CachedMessage prev, String newContent, Instant editTime) {
-		this.id = prev.id;
-		this.type = prev.type;
-		this.channelId = prev.channelId;
-		this.authorId = prev.authorId;
-		this.content = newContent.equals(prev.content) ? prev.content : newContent;
-		this.attachments = prev.attachments;
-		this.userMentions = prev.userMentions;
-		this.roleMentions = prev.roleMentions;
+	CachedMessage(long id, Message.Type type, long channelId, long authorId, String content,
+			CachedMessageAttachment[] attachments, long[] userMentions, long[] roleMentions,
+			@Nullable MessageContentStore contentStore) {
+		this.id = id;
+		this.type = type;
+		this.channelId = channelId;
+		this.authorId = authorId;
+		MessageContentStore.ContentRef contentRef = MessageContentStore.store(contentStore, content);
+		this.content = contentRef.data();
+		this.contentOffset = contentRef.offset();
+		this.contentLength = contentRef.length();
+		this.attachments = attachments.length > 0 ? attachments : emptyAttachments;
+		this.userMentions = userMentions.length > 0 ? userMentions : emptyMentions;
+		this.roleMentions = roleMentions.length > 0 ? roleMentions : emptyMentions;
+		this.prev = null;
+		this.editTime = null;
+	}
+
+	private CachedMessage(CachedMessage version, CachedMessage prev, Object content, int contentOffset, int contentLength, Instant editTime) {
+		this.id = version.id;
+		this.type = version.type;
+		this.channelId = version.channelId;
+		this.authorId = version.authorId;
+		this.content = content;
+		this.contentOffset = contentOffset;
+		this.contentLength = contentLength;
+		this.attachments = version.attachments;
+		this.userMentions = version.userMentions;
+		this.roleMentions = version.roleMentions;
 		this.prev = prev;
 		this.editTime = editTime;
 	}
 
-	private static CachedMessageAttachment[] serializeAttachments(List<? extends MessageAttachment> list) {
+	/**
+	 * Create a new version with the given content, bounding the edit history.
+	 *
+	 * <p>The original and the new version are always retained. The intermediate versions get stored as deltas against
+	 * the new version and are dropped oldest first to stay within maxVersions and, as far as possible, maxHistorySize
+	 * (in chars, covering all but the new version).
+	 */
+	CachedMessage edit(String newContent, Instant editTime, @Nullable MessageContentStore contentStore, int maxVersions, int maxHistorySize) {
+		List<CachedMessage> versions = new ArrayList<>(); // newest first
+
+		for (CachedMessage m = this; m != null; m = m.prev) {
+			versions.add(m);
+		}
+
+		MessageContentStore.ContentRef contentRef = MessageContentStore.store(contentStore, newContent);
+		CachedMessage original = versions.get(versions.size() - 1);
+		int historySize = original.getContent().length();
+		int intermediateLimit = Math.max(maxVersions - 2, 0);
+		List<ContentDelta> deltas = new ArrayList<>(); // newest first
+
+		for (int i = 0; i < versions.size() - 1 && deltas.size() < intermediateLimit; i++) {
+			ContentDelta delta = ContentDelta.create(versions.get(i).getContent(), newContent, contentRef);
+			historySize += delta.middle().length();
+			if (historySize > maxHistorySize) break;
+
+			deltas.add(delta);
+		}
+
+		CachedMessage prev = original;
+
+		for (int i = deltas.size() - 1; i >= 0; i--) {
+			CachedMessage version = versions.get(i);
+			prev = new CachedMessage(version, prev, deltas.get(i), 0, 0, version.editTime);
+		}
+
+		return new CachedMessage(this, prev, contentRef.data(), contentRef.offset(), contentRef.length(), editTime);
+	}
+
+	private static CachedMessageAttachment[] serializeAttachments(List<? extends MessageAttachment> list, @Nullable AttachmentStore store) {
 		int size = list.size();
 		if (size == 0) return emptyAttachments;
 
 		CachedMessageAttachment[] ret = new CachedMessageAttachment[size];
 
 		for (int i = 0; i < size; i++) {
-			ret[i] = new CachedMessageAttachment(list.get(i));
+			ret[i] = new CachedMessageAttachment(list.get(i), store);
 		}
 
 		return ret;
@@ -112,7 +178,11 @@ public final class CachedMessage {
 	}
 
 	public String getContent() {
-		return content;
+		if (content instanceof ContentDelta delta) {
+			return delta.apply();
+		} else {
+			return MessageContentStore.load(content, contentOffset, contentLength);
+		}
 	}
 
 	public CachedMessageAttachment[] getAttachments() {
@@ -161,6 +231,38 @@ public final class CachedMessage {
 		return Long.compareUnsigned(id >>> 22, o.id >>> 22);
 	}
 
+	/**
+	 * Content expressed as the middle part replacing everything but a common prefix and suffix of a base content.
+	 */
+	private record ContentDelta(Object base, int baseOffset, int baseLength, int prefixLength, int suffixLength, String middle) {
+		static ContentDelta create(String content, String baseContent, MessageContentStore.ContentRef base) {
+			int maxLen = Math.min(content.length(), baseContent.length());
+			int prefixLength = 0;
+
+			while (prefixLength < maxLen && content.charAt(prefixLength) == baseContent.charAt(prefixLength)) {
+				prefixLength++;
+			}
+
+			int suffixLength = 0;
+
+			while (suffixLength < maxLen - prefixLength
+					&& content.charAt(content.length() - 1 - suffixLength) == baseContent.charAt(baseContent.length() - 1 - suffixLength)) {
+				suffixLength++;
+			}
+
+			return new ContentDelta(base.data(), base.offset(), base.length(), prefixLength, suffixLength,
+					content.substring(prefixLength, content.length() - suffixLength));
+		}
+
+		String apply() {
+			String baseContent = MessageContentStore.load(base, baseOffset, baseLength);
+
+			return baseContent.substring(0, prefixLength)
+					.concat(middle)
+					.concat(baseContent.substring(baseContent.length() - suffixLength));
+		}
+	}
+
 	private static final CachedMessageAttachment[] emptyAttachments = new CachedMessageAttachment[0];
 	private static final long[] emptyMentions = new long[0];
 
@@ -168,7 +270,9 @@ public final class CachedMessage {
 	private final Message.Type type;
 	private final long channelId;
 	private final long authorId;
-	private final String content;
+	private final Object content; // String, content store slab or ContentDelta, decoded on access
+	private final int contentOffset;
+	private final int contentLength;
 	private final CachedMessageAttachment[] attachments;
 	private final long[] userMentions;
 	private final long[] roleMentions;
@@ -28,11 +28,16 @@ import net.fabricmc.discord.bot.util.HttpUtil;
 import net.fabricmc.discord.io.MessageAttachment;
 
 public final class CachedMessageAttachment {
-	CachedMessageAttachment(MessageAttachment attachment) {
-		this.id = attachment.getId();
-		this.url = attachment.getUrl().toString();
-		this.fileName = attachment.getFileName();
-		this.size = attachment.getSize();
+	CachedMessageAttachment(MessageAttachment attachment, @Nullable AttachmentStore store) {
+		this(attachment.getId(), attachment.getUrl().toString(), attachment.getFileName(), attachment.getSize(), store);
+	}
+
+	CachedMessageAttachment(long id, String url, String fileName, int size, @Nullable AttachmentStore store) {
+		this.id = id;
+		this.url = url;
+		this.fileName = fileName;
+		this.size = size;
+		this.store = store;
 	}
 
 	public long getId() {
@@ -52,12 +57,36 @@ public final class CachedMessageAttachment {
 	}
 
 	public boolean hasDataCached() {
-		return data != null;
+		String hash = dataHash;
+
+		return hash != null && store.contains(hash);
 	}
 
-	public @Nullable byte[] getData(boolean cache) throws IOException, InterruptedException, URISyntaxException {
-		byte[] ret = data;
-		if (ret != null) return ret;
+	/**
+	 * Open the attachment data, downloading it if it isn't in the attachment store yet.
+	 *
+	 * <p>Reading fails with an IOException once the data turns out to differ from the recorded size.
+	 *
+	 * @param cache whether to keep downloaded data in the attachment store
+	 * @return data stream or null if the data isn't available anymore
+	 */
+	public @Nullable InputStream openData(boolean cache) throws IOException, InterruptedException, URISyntaxException {
+		String hash = dataHash;
+
+		if (hash != null) {
+			InputStream ret = store.open(hash);
+			if (ret != null) return ret;
+		}
+
+		if (cache && store != null && store.canStore(size)) {
+			hash = store.download(url, size);
+			if (hash == null) return null;
+
+			dataHash = hash;
+			InputStream ret = store.open(hash);
+			if (ret != null) return ret;
+			// evicted right away, fall back to a direct download
+		}
 
 		HttpResponse<InputStream> response = HttpUtil.makeRequest(new URI(url));
 
@@ -66,32 +95,21 @@ public final class CachedMessageAttachment {
 			return null;
 		}
 
-		try (InputStream is = response.body()) {
-			ret = new byte[size];
-			int offset = 0;
-			int len;
-
-			while ((len = is.read(ret, offset, ret.length - offset)) >= 0) {
-				offset += len;
-
-				if (offset == ret.length) {
-					int test = is.read();
-					if (test != -1) throw new IOException("content size exceeds recorded size");
-					break;
-				}
-			}
-
-			if (offset < ret.length) throw new IOException("content size below recorded size");
+		return AttachmentStore.checkSize(response.body(), size);
+	}
 
-			if (cache) data = ret;
+	@Nullable String getDataHash() {
+		return dataHash;
+	}
 
-			return ret;
-		}
+	void setDataHash(String hash) {
+		dataHash = hash;
 	}
 
 	private final long id;
 	private final String url;
 	private final String fileName;
 	private final int size;
-	private volatile byte[] data;
+	private final @Nullable AttachmentStore store;
+	private volatile String dataHash; // key into store once downloaded
 }
@@ -67,6 +67,7 @@ import net.fabricmc.discord.io.Discord;
 import net.fabricmc.discord.io.DiscordBuilder;
 import net.fabricmc.discord.io.DiscordBuilder.Intent;
 import net.fabricmc.discord.io.GlobalEventHolder;
+import net.fabricmc.discord.io.Message;
 import net.fabricmc.discord.io.Server;
 import net.fabricmc.discord.io.User;
 
@@ -87,14 +88,17 @@ public final class DiscordBot {
 	private volatile Map<ConfigKey<?>, Object> configValues;
 	private final BotConfig config;
 	private final long serverId;
+	private final Path dataDir;
 	private final Database database;
 	private final ActiveHandler activeHandler;
 	private final ActivityHandler activityHandler;
 	private final UserHandler userHandler;
 	private final LogHandler logHandler;
+	private final AttachmentStore attachmentStore;
 	private final MessageIndex messageIndex;
 	private final ActionSyncHandler actionSyncHandler;
 	private final FilterHandler filterHandler;
+	private final MessageAnalysis.Cache messageAnalysisCache = new MessageAnalysis.Cache();
 	/**
 	 * A list of all enabled modules.
 	 */
@@ -105,15 +109,16 @@ public final class DiscordBot {
 
 	private DiscordBot(String[] args) throws IOException {
 		final Path configDir = Paths.get("bot.properties").toAbsolutePath();
-		final Path dataDir = Paths.get("data").toAbsolutePath();
 
 		this.config = this.loadConfig(configDir);
 		this.serverId = Long.parseUnsignedLong(config.getGuildId());
-		this.database = new Database(config.getDatabaseUrl());
+		this.dataDir = Paths.get("data").toAbsolutePath();
+		this.database = new Database(config.getDatabaseUrl(), config.isDatabaseWal());
 		this.activeHandler = new ActiveHandler(this);
 		this.activityHandler = new ActivityHandler(this);
 		this.userHandler = new UserHandler(this);
 		this.logHandler = new LogHandler(this);
+		this.attachmentStore = new AttachmentStore(this);
 		this.messageIndex = new MessageIndex(this);
 		this.actionSyncHandler = new ActionSyncHandler(this);
 		this.filterHandler = new FilterHandler(this);
@@ -145,6 +150,10 @@ public final class DiscordBot {
 		return serverId;
 	}
 
+	public Path getDataDir() {
+		return dataDir;
+	}
+
 	public Database getDatabase() {
 		return database;
 	}
@@ -161,6 +170,10 @@ public final class DiscordBot {
 		return logHandler;
 	}
 
+	public AttachmentStore getAttachmentStore() {
+		return attachmentStore;
+	}
+
 	public MessageIndex getMessageIndex() {
 		return messageIndex;
 	}
@@ -173,6 +186,13 @@ public final class DiscordBot {
 		return filterHandler;
 	}
 
+	/**
+	 * Get the shared analysis for a received message, computed at most once per message version.
+	 */
+	public MessageAnalysis getMessageAnalysis(Message message) {
+		return messageAnalysisCache.get(message);
+	}
+
 	public @Nullable Module getModule(String name) {
 		for (Module module : modules) {
 			if (module.getName().equals(name)) return module;
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.Nullable;
+
+import net.fabricmc.discord.bot.filter.FilterType;
+import net.fabricmc.discord.bot.util.DiscordUtil;
+import net.fabricmc.discord.io.Message;
+import net.fabricmc.discord.io.MessageAttachment;
+
+/**
+ * Facts derived from a received message, shared by all its consumers.
+ *
+ * <p>Every property is computed on first use and then cached. Instances are obtained through
+ * {@link DiscordBot#getMessageAnalysis}, which returns the same instance for all handlers processing the same message
+ * version.
+ */
+public final class MessageAnalysis {
+	private static final Pattern URL_PATTERN = Pattern.compile("https?://[^\\s<>\"'`|]+", Pattern.CASE_INSENSITIVE);
+	private static final String[] OBFUSCATED_DOTS = { "[.]", "(.)", "{.}" };
+
+	private final @Nullable Message message;
+	private final @Nullable CachedMessage cachedMessage;
+	private final String content;
+	// lazily computed, the values are immutable so racing computations are harmless
+	private volatile String lcContent;
+	private volatile String lcDeobfuscatedContent;
+	private volatile List<String> urls;
+	private volatile Set<String> hosts;
+	private volatile List<String> inviteCodes;
+	private volatile AttachmentInfo attachmentInfo;
+	private volatile Message referencedMessage;
+	private volatile boolean referencedMessageResolved;
+
+	MessageAnalysis(Message message) {
+		this.message = message;
+		this.cachedMessage = null;
+		this.content = message.getContent();
+	}
+
+	private MessageAnalysis(CachedMessage message) {
+		this.message = null;
+		this.cachedMessage = message;
+		this.content = message.getContent();
+	}
+
+	/**
+	 * Create an uncached analysis for a message from the message index, e.g. to replay it through filters.
+	 *
+	 * <p>Such an analysis doesn't know about @everyone mentions or referenced messages.
+	 */
+	public static MessageAnalysis of(CachedMessage message) {
+		return new MessageAnalysis(message);
+	}
+
+	/**
+	 * @return analyzed message or null if the analysis is for a cached message
+	 */
+	public @Nullable Message getMessage() {
+		return message;
+	}
+
+	public String getContent() {
+		return content;
+	}
+
+	public String getLowerCaseContent() {
+		String ret = lcContent;
+
+		if (ret == null) {
+			lcContent = ret = content.toLowerCase(Locale.ENGLISH);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * @return http(s) urls in the content, in order of appearance
+	 */
+	public List<String> getUrls() {
+		List<String> ret = urls;
+
+		if (ret == null) {
+			ret = new ArrayList<>();
+			Matcher matcher = URL_PATTERN.matcher(content);
+
+			while (matcher.find()) {
+				ret.add(matcher.group());
+			}
+
+			urls = ret = Collections.unmodifiableList(ret);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * @return lower case content with obfuscated dots like "example[.]com" replaced by plain dots
+	 */
+	public String getDeobfuscatedLowerCaseContent() {
+		String ret = lcDeobfuscatedContent;
+
+		if (ret == null) {
+			ret = getLowerCaseContent();
+
+			for (String seq : OBFUSCATED_DOTS) {
+				if (ret.contains(seq)) ret = ret.replace(seq, ".");
+			}
+
+			lcDeobfuscatedContent = ret;
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Get the potential host names in the content, both within urls and bare, in order of appearance.
+	 *
+	 * <p>Hosts are maximal runs of characters that may appear in a host name containing at least one dot, taken from
+	 * {@link #getDeobfuscatedLowerCaseContent}. User info, port and path are separated from them by characters outside
+	 * that set.
+	 */
+	public Set<String> getHosts() {
+		Set<String> ret = hosts;
+
+		if (ret == null) {
+			ret = new LinkedHashSet<>();
+			String s = getDeobfuscatedLowerCaseContent();
+			int len = s.length();
+			int pos = 0;
+
+			while (pos < len) {
+				if (!isHostChar(s.charAt(pos))) {
+					pos++;
+					continue;
+				}
+
+				int end = pos + 1;
+				boolean hasDot = s.charAt(pos) == '.';
+
+				while (end < len && isHostChar(s.charAt(end))) {
+					if (s.charAt(end) == '.') hasDot = true;
+					end++;
+				}
+
+				if (hasDot) ret.add(s.substring(pos, end));
+				pos = end;
+			}
+
+			hosts = ret = Collections.unmodifiableSet(ret);
+		}
+
+		return ret;
+	}
+
+	private static boolean isHostChar(char c) {
+		return c == '.' || FilterType.isPotentialDomainContinuation(c);
+	}
+
+	/**
+	 * @return codes of all Discord invites in the content
+	 */
+	public List<String> getInviteCodes() {
+		List<String> ret = inviteCodes;
+
+		if (ret == null) {
+			ret = new ArrayList<>();
+			Matcher matcher = DiscordUtil.INVITE_PATTERN.matcher(content);
+
+			while (matcher.find()) {
+				ret.add(matcher.group(1));
+			}
+
+			inviteCodes = ret = Collections.unmodifiableList(ret);
+		}
+
+		return ret;
+	}
+
+	public int getUserMentionCount() {
+		return message != null ? message.getMentionedUsers().size() : cachedMessage.getUserMentions().length;
+	}
+
+	public int getRoleMentionCount() {
+		return message != null ? message.getMentionedRoles().size() : cachedMessage.getRoleMentions().length;
+	}
+
+	public boolean hasEveryoneMention() {
+		return message != null && message.hasEveryoneMentions();
+	}
+
+	public AttachmentInfo getAttachmentInfo() {
+		AttachmentInfo ret = attachmentInfo;
+
+		if (ret == null) {
+			List<String> fileNames = new ArrayList<>();
+			long totalSize = 0;
+
+			if (message != null) {
+				for (MessageAttachment attachment : message.getAttachments()) {
+					fileNames.add(attachment.getFileName());
+					totalSize += attachment.getSize();
+				}
+			} else {
+				for (CachedMessageAttachment attachment : cachedMessage.getAttachments()) {
+					fileNames.add(attachment.getFileName());
+					totalSize += attachment.getSize();
+				}
+			}
+
+			attachmentInfo = ret = new AttachmentInfo(fileNames.size(), totalSize, Collections.unmodifiableList(fileNames));
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Get the message this message replies to, fetching it at most once.
+	 *
+	 * @return referenced message or null if there is none or the analysis is for a cached message
+	 */
+	public @Nullable Message getReferencedMessage() {
+		if (message == null) return null;
+
+		if (!referencedMessageResolved) {
+			synchronized (this) {
+				if (!referencedMessageResolved) {
+					referencedMessage = message.getReferencedMessage();
+					referencedMessageResolved = true;
+				}
+			}
+		}
+
+		return referencedMessage;
+	}
+
+	public record AttachmentInfo(int count, long totalSize, List<String> fileNames) { }
+
+	/**
+	 * Bounded cache of the analyses for the most recently received message versions.
+	 */
+	static final class Cache {
+		private static final int CAPACITY = 256;
+
+		@SuppressWarnings("serial")
+		private final Map<Long, MessageAnalysis> entries = new LinkedHashMap<>(CAPACITY * 2, 0.75f, true) { // guarded by this
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, MessageAnalysis> eldest) {
+				return size() > CAPACITY;
+			}
+		};
+
+		synchronized MessageAnalysis get(Message message) {
+			MessageAnalysis ret = entries.get(message.getId());
+
+			if (ret == null || !ret.content.equals(message.getContent())) { // new message or new version
+				ret = new MessageAnalysis(message);
+				entries.put(message.getId(), ret);
+			}
+
+			return ret;
+		}
+	}
+}
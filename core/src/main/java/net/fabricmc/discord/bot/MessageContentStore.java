@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.jetbrains.annotations.Nullable;
+
+import net.fabricmc.discord.bot.MessageIndex.ContentStorageStats;
+
+/**
+ * Compact storage for cached message content.
+ *
+ * <p>Content is stored UTF-8 encoded in shared byte slabs instead of individual String objects. A slab is freed by the
+ * GC once no message refers to it anymore, which happens roughly in allocation order since the channel caches evict
+ * their oldest messages first. Full slabs that haven't been read for a while can optionally be compressed, they get
+ * inflated again on demand.
+ */
+final class MessageContentStore {
+	private static final int SLAB_SIZE = 64 * 1024;
+	private static final int MAX_SHARED_LENGTH = SLAB_SIZE / 8; // longer content gets a dedicated slab
+	private static final long COMPRESS_IDLE_MS = 15 * 60 * 1000;
+
+	private final List<WeakReference<Slab>> slabs = new ArrayList<>(); // guarded by this
+	private Slab currentSlab; // guarded by this
+
+	/**
+	 * Obtain the storage representation for some content, either a plain String or a slab region.
+	 */
+	static ContentRef store(@Nullable MessageContentStore store, String content) {
+		if (store == null || content.isEmpty()) {
+			return new ContentRef(content, 0, 0);
+		} else {
+			return store.store(content);
+		}
+	}
+
+	static String load(Object data, int offset, int length) {
+		if (data instanceof String str) {
+			return str;
+		} else {
+			return ((Slab) data).read(offset, length);
+		}
+	}
+
+	private ContentRef store(String content) {
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		int len = bytes.length;
+
+		synchronized (this) {
+			if (len > MAX_SHARED_LENGTH) {
+				Slab slab = new Slab(bytes, len);
+				slabs.add(new WeakReference<>(slab));
+
+				return new ContentRef(slab, 0, len);
+			}
+
+			Slab slab = currentSlab;
+
+			if (slab == null || slab.used + len > SLAB_SIZE) {
+				if (slab != null) slab.seal();
+
+				slab = currentSlab = new Slab(new byte[SLAB_SIZE], 0);
+				slabs.add(new WeakReference<>(slab));
+			}
+
+			int offset = slab.used;
+			System.arraycopy(bytes, 0, slab.data, offset, len); // readers only access regions published after this
+			slab.used += len;
+
+			return new ContentRef(slab, offset, len);
+		}
+	}
+
+	/**
+	 * Compress full slabs that weren't read recently.
+	 */
+	void compressIdle() {
+		compressIdle(COMPRESS_IDLE_MS);
+	}
+
+	/**
+	 * Compress full slabs that weren't read for at least minIdleMs.
+	 */
+	void compressIdle(long minIdleMs) {
+		long time = System.currentTimeMillis();
+		List<Slab> candidates = new ArrayList<>();
+
+		synchronized (this) {
+			for (Iterator<WeakReference<Slab>> it = slabs.iterator(); it.hasNext(); ) {
+				Slab slab = it.next().get();
+
+				if (slab == null) {
+					it.remove();
+				} else if (slab != currentSlab && slab.compressed == null && time - slab.lastAccess >= minIdleMs) {
+					candidates.add(slab);
+				}
+			}
+		}
+
+		for (Slab slab : candidates) {
+			slab.compress();
+		}
+	}
+
+	synchronized ContentStorageStats getStats() {
+		int count = 0;
+		int compressedCount = 0;
+		long bytes = 0;
+
+		for (WeakReference<Slab> ref : slabs) {
+			Slab slab = ref.get();
+			if (slab == null) continue;
+
+			count++;
+			bytes += slab.getResidentBytes();
+			if (slab.compressed != null) compressedCount++;
+		}
+
+		return new ContentStorageStats(count, compressedCount, bytes);
+	}
+
+	record ContentRef(Object data, int offset, int length) { }
+
+	private static final class Slab {
+		private volatile byte[] data; // null while compressed
+		private volatile byte[] compressed;
+		private volatile SoftReference<byte[]> inflated;
+		private int used; // guarded by the store
+		private volatile long lastAccess = System.currentTimeMillis();
+
+		Slab(byte[] data, int used) {
+			this.data = data;
+			this.used = used;
+		}
+
+		String read(int offset, int length) {
+			lastAccess = System.currentTimeMillis();
+			byte[] data = this.data;
+			if (data == null) data = inflate();
+
+			return new String(data, offset, length, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Drop the unused tail once the slab stops receiving content.
+		 */
+		void seal() {
+			if (SLAB_SIZE - used >= SLAB_SIZE / 8) {
+				data = Arrays.copyOf(data, used);
+			}
+		}
+
+		synchronized void compress() {
+			byte[] data = this.data;
+			if (data == null) return;
+
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			ByteArrayOutputStream os = new ByteArrayOutputStream(data.length / 2);
+			byte[] buffer = new byte[8192];
+
+			try {
+				deflater.setInput(data);
+				deflater.finish();
+
+				while (!deflater.finished()) {
+					int len = deflater.deflate(buffer);
+					os.write(buffer, 0, len);
+				}
+			} finally {
+				deflater.end();
+			}
+
+			if (os.size() > data.length - data.length / 8) { // not worth it, try again after another idle period
+				lastAccess = System.currentTimeMillis();
+				return;
+			}
+
+			compressed = os.toByteArray();
+			this.data = null;
+		}
+
+		private synchronized byte[] inflate() {
+			byte[] ret = data;
+			if (ret != null) return ret;
+
+			SoftReference<byte[]> ref = inflated;
+			if (ref != null && (ret = ref.get()) != null) return ret;
+
+			Inflater inflater = new Inflater();
+
+			try {
+				inflater.setInput(compressed);
+				ret = new byte[used];
+				int offset = 0;
+
+				while (offset < ret.length && !inflater.finished()) {
+					offset += inflater.inflate(ret, offset, ret.length - offset);
+				}
+			} catch (DataFormatException e) {
+				throw new IllegalStateException(e);
+			} finally {
+				inflater.end();
+			}
+
+			inflated = new SoftReference<>(ret);
+
+			return ret;
+		}
+
+		synchronized long getResidentBytes() {
+			byte[] data = this.data;
+			if (data != null) return data.length;
+
+			long ret = compressed.length;
+			SoftReference<byte[]> ref = inflated;
+			byte[] inflatedData = ref != null ? ref.get() : null;
+			if (inflatedData != null) ret += inflatedData.length;
+
+			return ret;
+		}
+	}
+}
@@ -16,32 +16,42 @@
 
 package net.fabricmc.discord.bot;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import it.unimi.dsi.fastutil.longs.Long2IntMap;
-import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 
+import net.fabricmc.discord.bot.config.ConfigKey;
+import net.fabricmc.discord.bot.config.ValueSerializers;
 import net.fabricmc.discord.bot.util.DiscordUtil;
 import net.fabricmc.discord.io.Channel;
 import net.fabricmc.discord.io.DiscordException;
@@ -59,7 +69,26 @@ import net.fabricmc.discord.io.Server;
 public final class MessageIndex implements ChannelCreateHandler, ChannelDeleteHandler, ChannelPermissionChangeHandler,
 MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 	private static final int INIT_LIMIT = 1000;
-	private static final int MESSAGE_LIMIT = 10000;
+	private static final int MESSAGE_LIMIT = 10000; // per channel
+	private static final int MIN_CAPACITY = 16; // per channel
+	private static final int GLOBAL_MESSAGE_LIMIT = 500_000;
+	private static final long ACTIVITY_HALF_LIFE_MS = 6 * 3600 * 1000;
+	private static final long REBALANCE_INTERVAL_MS = 60 * 1000;
+	private static final long SNAPSHOT_INTERVAL_MIN = 10;
+	private static final String SNAPSHOT_FILE_NAME = "messageIndex.bin";
+	private static final int WARMUP_CONCURRENCY = 4; // parallel history fetches, keeps well below the global rate limit
+	private static final int WARMUP_MAX_ATTEMPTS = 3;
+	private static final long WARMUP_RETRY_DELAY_SEC = 5;
+	private static final long PRIORITY_LIVE = Long.MAX_VALUE; // channels created or unlocked at runtime
+	private static final long CONTENT_COMPRESS_INTERVAL_MIN = 5;
+
+	private static final ConfigKey<Boolean> COMPACT_CONTENT = new ConfigKey<>("messageIndex.compactContent", ValueSerializers.BOOLEAN);
+	private static final ConfigKey<Boolean> COMPRESS_CONTENT = new ConfigKey<>("messageIndex.compressContent", ValueSerializers.BOOLEAN);
+	private static final ConfigKey<Boolean> SEARCH_INDEX = new ConfigKey<>("messageIndex.searchIndex", ValueSerializers.BOOLEAN);
+	private static final ConfigKey<Integer> MAX_EDIT_VERSIONS = new ConfigKey<>("messageIndex.maxEditVersions", ValueSerializers.rangedInt(2, 1000));
+	private static final ConfigKey<Integer> MAX_EDIT_HISTORY_SIZE = new ConfigKey<>("messageIndex.maxEditHistorySize", ValueSerializers.rangedInt(0, 1 << 20));
+	private static final CachedMessage[] EMPTY_MESSAGES = new CachedMessage[0];
+	private static final long[] EMPTY_IDS = new long[0];
 
 	private static final String[] DISCORD_DOMAINS = { "discord.com", "discordapp.com" };
 	private static final Pattern MESSAGE_LINK_PATTERN = Pattern.compile(String.format("https://(?:%s)/channels/(@me|\\d+)/(\\d+)/(\\d+)",
@@ -71,14 +100,44 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 	private final List<MessageCreateHandler> createHandlers = new CopyOnWriteArrayList<>();
 	private final List<MessageDeleteHandler> deleteHandlers = new CopyOnWriteArrayList<>();
 	private final Map<Channel, ChannelMessageCache> channelCaches = new ConcurrentHashMap<>();
-	private final Long2ObjectMap<CachedMessage> globalIndex = new Long2ObjectOpenHashMap<>();
-	private volatile float initProgressPct;
+	// readers don't lock, writers only lock the affected channel cache (and briefly authorIndex)
+	private final Map<Long, CachedMessage> globalIndex = new ConcurrentHashMap<>();
+	private final Long2ObjectMap<LongSet> authorIndex = new Long2ObjectOpenHashMap<>(); // author id -> message ids, guarded by itself
+	private final AtomicInteger allocatedSlots = new AtomicInteger(); // sum of all channel cache capacities
+	private final AtomicLong lastRebalance = new AtomicLong();
+	private volatile boolean initialized; // snapshots are only written for a fully initialized index
+	private final PriorityBlockingQueue<WarmupTask> warmupQueue = new PriorityBlockingQueue<>();
+	private final AtomicInteger warmupWorkers = new AtomicInteger();
+	private final AtomicInteger warmupGeneration = new AtomicInteger(); // incremented on reset to discard stale tasks
+	private final AtomicInteger warmupTotal = new AtomicInteger();
+	private final AtomicInteger warmupFinished = new AtomicInteger();
+	private volatile @Nullable MessageContentStore contentStore; // null to store content as plain Strings
+	private volatile @Nullable MessageSearchIndex searchIndex; // null if disabled, search falls back to a full scan
+	private final Path snapshotFile;
+	private final Object snapshotLock = new Object();
+	private long lastSnapshotTime; // guarded by snapshotLock
 
 	public MessageIndex(DiscordBot bot) {
 		this.bot = bot;
+		this.snapshotFile = bot.getDataDir().resolve(SNAPSHOT_FILE_NAME);
+
+		bot.registerConfigEntry(COMPACT_CONTENT, false);
+		bot.registerConfigEntry(COMPRESS_CONTENT, false);
+		bot.registerConfigEntry(SEARCH_INDEX, true);
+		bot.registerConfigEntry(MAX_EDIT_VERSIONS, 10);
+		bot.registerConfigEntry(MAX_EDIT_HISTORY_SIZE, 16384); // chars
 
 		bot.getActiveHandler().registerReadyHandler(this::init);
 		bot.getActiveHandler().registerGoneHandler(this::reset);
+
+		bot.getScheduledExecutor().scheduleWithFixedDelay(this::saveSnapshot, SNAPSHOT_INTERVAL_MIN, SNAPSHOT_INTERVAL_MIN, TimeUnit.MINUTES);
+		bot.getScheduledExecutor().scheduleWithFixedDelay(this::compressContent, CONTENT_COMPRESS_INTERVAL_MIN, CONTENT_COMPRESS_INTERVAL_MIN, TimeUnit.MINUTES);
+		Runtime.getRuntime().addShutdownHook(new Thread("message index snapshot") {
+			@Override
+			public void run() {
+				saveSnapshot();
+			}
+		});
 	}
 
 	public void registerCreateHandler(MessageCreateHandler handler) {
@@ -90,9 +149,7 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 	}
 
 	public @Nullable CachedMessage get(long id) {
-		synchronized (globalIndex) {
-			return globalIndex.get(id);
-		}
+		return globalIndex.get(id);
 	}
 
 	public @Nullable CachedMessage get(Message message) {
@@ -102,12 +159,9 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 	}
 
 	public @Nullable CachedMessage get(Channel channel, long id) {
-		ChannelMessageCache cache = channelCaches.get(channel);
-		if (cache == null) return null;
+		CachedMessage ret = globalIndex.get(id);
 
-		synchronized (cache) {
-			return cache.get(id);
-		}
+		return ret != null && ret.getChannelId() == channel.getId() ? ret : null;
 	}
 
 	public Collection<CachedMessage> getAll(Channel channel, boolean includeDeleted) {
@@ -124,60 +178,91 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 
 	public Collection<CachedMessage> getAllByAuthor(long authorId, boolean includeDeleted) {
 		List<CachedMessage> ret = new ArrayList<>();
-
-		synchronized (globalIndex) {
-			for (CachedMessage message : globalIndex.values()) {
-				if (message.getAuthorDiscordId() == authorId && (includeDeleted || !message.isDeleted())) {
-					ret.add(message);
-				}
-			}
-		}
+		collectByAuthor(authorId, -1, includeDeleted, ret);
 
 		return ret;
 	}
 
 	public Collection<CachedMessage> getAllByAuthor(long authorId, Channel channel, boolean includeDeleted) {
-		List<CachedMessage> ret = new ArrayList<>();
-
-		accept(channel, msg -> {
-			if (msg.getAuthorDiscordId() == authorId) {
-				ret.add(msg);
-			}
+		Objects.requireNonNull(channel, "null channel");
 
-			return true;
-		}, includeDeleted);
+		List<CachedMessage> ret = new ArrayList<>();
+		collectByAuthor(authorId, channel.getId(), includeDeleted, ret);
 
 		return ret;
 	}
 
 	public Collection<CachedMessage> getAllByAuthors(LongSet authorDiscordIds, boolean includeDeleted) {
+		if (authorDiscordIds.isEmpty()) return Collections.emptyList();
+
 		List<CachedMessage> ret = new ArrayList<>();
 
-		synchronized (globalIndex) {
-			for (CachedMessage message : globalIndex.values()) {
-				if (authorDiscordIds.contains(message.getAuthorDiscordId()) && (includeDeleted || !message.isDeleted())) {
-					ret.add(message);
-				}
-			}
+		for (LongIterator it = authorDiscordIds.iterator(); it.hasNext(); ) {
+			collectByAuthor(it.nextLong(), -1, includeDeleted, ret);
 		}
 
 		return ret;
 	}
 
 	public Collection<CachedMessage> getAllByAuthors(LongSet authorDiscordIds, Channel channel, boolean includeDeleted) {
+		Objects.requireNonNull(channel, "null channel");
 		if (authorDiscordIds.isEmpty()) return Collections.emptyList();
 
 		List<CachedMessage> ret = new ArrayList<>();
+		long channelId = channel.getId();
 
-		accept(channel, msg -> {
-			if (authorDiscordIds.contains(msg.getAuthorDiscordId())) {
-				ret.add(msg);
+		for (LongIterator it = authorDiscordIds.iterator(); it.hasNext(); ) {
+			collectByAuthor(it.nextLong(), channelId, includeDeleted, ret);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Collect all messages by the given author into out, optionally restricted to a channel (channelId -1 for all).
+	 */
+	private void collectByAuthor(long authorId, long channelId, boolean includeDeleted, List<CachedMessage> out) {
+		long[] ids;
+
+		synchronized (authorIndex) {
+			LongSet set = authorIndex.get(authorId);
+			if (set == null) return;
+
+			ids = set.toLongArray();
+		}
+
+		for (long id : ids) {
+			CachedMessage message = globalIndex.get(id);
+
+			if (message != null
+					&& (channelId == -1 || message.getChannelId() == channelId)
+					&& (includeDeleted || !message.isDeleted())) {
+				out.add(message);
 			}
+		}
+	}
 
-			return true;
-		}, includeDeleted);
+	private void addToAuthorIndex(CachedMessage message) {
+		synchronized (authorIndex) {
+			LongSet ids = authorIndex.get(message.getAuthorDiscordId());
 
-		return ret;
+			if (ids == null) {
+				ids = new LongOpenHashSet();
+				authorIndex.put(message.getAuthorDiscordId(), ids);
+			}
+
+			ids.add(message.getId());
+		}
+	}
+
+	private void removeFromAuthorIndex(CachedMessage message) {
+		synchronized (authorIndex) {
+			LongSet ids = authorIndex.get(message.getAuthorDiscordId());
+			if (ids == null) return;
+
+			ids.remove(message.getId());
+			if (ids.isEmpty()) authorIndex.remove(message.getAuthorDiscordId());
+		}
 	}
 
 	public @Nullable CachedMessage get(String desc, @Nullable Server server) throws DiscordException {
@@ -211,12 +296,69 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 		return null;
 	}
 
+	/**
+	 * Find cached messages containing all whitespace separated terms (case insensitive) in any of their versions.
+	 *
+	 * <p>Terms are matched as substrings, the search index narrows down the candidates if any term has at least 3 chars.
+	 *
+	 * @return matching messages, newest first
+	 */
+	public List<CachedMessage> search(String query, boolean includeDeleted, int limit) {
+		List<String> terms = new ArrayList<>();
+
+		for (String term : query.toLowerCase(Locale.ROOT).split("\\s+")) {
+			if (!term.isEmpty()) terms.add(term);
+		}
+
+		if (terms.isEmpty()) return Collections.emptyList();
+
+		LongSet grams = new LongOpenHashSet();
+
+		for (String term : terms) {
+			MessageSearchIndex.grams(term, grams);
+		}
+
+		MessageSearchIndex searchIndex = this.searchIndex;
+
+		if (searchIndex == null || grams.isEmpty()) {
+			return getRecent(message -> matchesSearch(message, terms), limit, includeDeleted);
+		}
+
+		List<CachedMessage> ret = new ArrayList<>();
+
+		for (LongIterator it = searchIndex.find(grams).iterator(); it.hasNext(); ) {
+			CachedMessage message = globalIndex.get(it.nextLong());
+
+			if (message != null
+					&& (includeDeleted || !message.isDeleted())
+					&& matchesSearch(message, terms)) {
+				ret.add(message);
+			}
+		}
+
+		ret.sort(Comparator.comparingLong(CachedMessage::getId).reversed());
+
+		return ret.size() > limit ? ret.subList(0, limit) : ret;
+	}
+
+	private static boolean matchesSearch(CachedMessage message, List<String> terms) {
+		versionLoop: for (CachedMessage m = message; m != null; m = m.prev) {
+			String content = m.getContent().toLowerCase(Locale.ROOT);
+
+			for (String term : terms) {
+				if (!content.contains(term)) continue versionLoop;
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+
 	public void accept(Visitor visitor, boolean includeDeleted) {
-		synchronized (globalIndex) {
-			for (CachedMessage message : globalIndex.values()) {
-				if (includeDeleted || !message.isDeleted()) {
-					if (!visitor.visit(message)) break;
-				}
+		for (CachedMessage message : globalIndex.values()) { // weakly consistent, doesn't block writers
+			if (includeDeleted || !message.isDeleted()) {
+				if (!visitor.visit(message)) break;
 			}
 		}
 	}
@@ -227,8 +369,86 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 		ChannelMessageCache cache = channelCaches.get(channel);
 		if (cache == null) return;
 
-		synchronized (cache) {
-			cache.accept(visitor, includeDeleted);
+		cache.accept(visitor, includeDeleted);
+	}
+
+	/**
+	 * Visit the messages of all channels newest first.
+	 *
+	 * <p>The channels are merged lazily by fetching small batches from each channel cache, no lock is held while the
+	 * visitor runs. Like {@link #accept(Visitor, boolean)} this is weakly consistent: messages added or evicted
+	 * concurrently may or may not be visited.
+	 */
+	public void acceptNewestFirst(Visitor visitor, boolean includeDeleted) {
+		PriorityQueue<MergeCursor> queue = new PriorityQueue<>();
+
+		for (ChannelMessageCache cache : channelCaches.values()) {
+			MergeCursor cursor = new MergeCursor(cache);
+			if (cursor.advance()) queue.add(cursor);
+		}
+
+		MergeCursor cursor;
+
+		while ((cursor = queue.poll()) != null) {
+			CachedMessage message = cursor.current;
+
+			if (includeDeleted || !message.isDeleted()) {
+				if (!visitor.visit(message)) return;
+			}
+
+			if (cursor.advance()) queue.add(cursor);
+		}
+	}
+
+	/**
+	 * Get the most recent messages across all channels accepted by the filter.
+	 *
+	 * @return up to limit messages, newest first
+	 */
+	public List<CachedMessage> getRecent(Visitor filter, int limit, boolean includeDeleted) {
+		List<CachedMessage> ret = new ArrayList<>(Math.min(limit, 100));
+		if (limit <= 0) return ret;
+
+		acceptNewestFirst(message -> {
+			if (filter.visit(message)) ret.add(message);
+
+			return ret.size() < limit;
+		}, includeDeleted);
+
+		return ret;
+	}
+
+	private static final class MergeCursor implements Comparable<MergeCursor> {
+		private static final int BATCH_SIZE = 64;
+
+		final ChannelMessageCache cache;
+		CachedMessage[] batch = EMPTY_MESSAGES; // newest first
+		int index;
+		CachedMessage current;
+
+		MergeCursor(ChannelMessageCache cache) {
+			this.cache = cache;
+		}
+
+		boolean advance() {
+			if (index >= batch.length) {
+				batch = current == null ? cache.getNewest(-1, BATCH_SIZE) : cache.getNewest(current.getId(), BATCH_SIZE);
+				index = 0;
+
+				if (batch.length == 0) {
+					current = null;
+					return false;
+				}
+			}
+
+			current = batch[index++];
+
+			return true;
+		}
+
+		@Override
+		public int compareTo(MergeCursor o) {
+			return Long.compareUnsigned(o.current.getId(), current.getId()); // newest first
 		}
 	}
 
@@ -240,9 +460,7 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 		ChannelMessageCache cache = channelCaches.get(channel);
 		if (cache == null) return 0;
 
-		synchronized (cache) {
-			return cache.size();
-		}
+		return cache.size();
 	}
 
 	void registerEarlyHandlers(GlobalEventHolder holder) {
@@ -255,43 +473,172 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 	}
 
 	private void init(Server server, long lastActiveTime) {
-		initProgressPct = 0;
+		contentStore = bot.getConfigEntry(COMPACT_CONTENT) ? new MessageContentStore() : null;
+		MessageSearchIndex searchIndex = bot.getConfigEntry(SEARCH_INDEX) ? new MessageSearchIndex() : null;
+		this.searchIndex = searchIndex;
+
+		if (searchIndex != null) { // messages received before ready, any cache changes after this see the new index
+			for (ChannelMessageCache cache : channelCaches.values()) {
+				cache.addTo(searchIndex);
+			}
+		}
 
 		bot.getExecutor().execute(() -> {
 			try {
+				MessageIndexStore.Snapshot snapshot = loadSnapshot();
+				// messages newer than this may be missing from the snapshot
+				long syncStartId = snapshot != null ? DiscordUtil.getMinEntityId(Math.min(snapshot.time(), lastActiveTime)) : 0;
+				int generation = warmupGeneration.get();
 				LongList invalidChannels = new LongArrayList();
-				List<? extends Channel> channels = DiscordUtil.getTextChannels(server);
-				int finished = 0;
+				List<WarmupTask> tasks = new ArrayList<>();
 
-				for (Channel channel : channels) {
+				for (Channel channel : DiscordUtil.getTextChannels(server)) {
 					if (isValidChannel(channel)) {
-						initChannel(channel);
+						CachedMessage[] stored = snapshot != null ? snapshot.channels().get(channel.getId()) : null;
+						// prefer the most recently active channels, as far as known from the snapshot or messages received since
+						long priority = stored != null && stored.length > 0 ? stored[stored.length - 1].getId() : 0;
+						ChannelMessageCache cache = channelCaches.get(channel);
+						if (cache != null) priority = Math.max(priority, cache.getNewestId());
+
+						tasks.add(new WarmupTask(channel, stored, syncStartId, priority, 0, generation));
 					} else {
 						invalidChannels.add(channel.getId());
 					}
-
-					finished++;
-					initProgressPct = 100f * finished / channels.size();
 				}
 
 				if (!invalidChannels.isEmpty()) LOGGER.info("Skipping inaccessible channels {}", invalidChannels);
-				LOGGER.info("Message index initialized");
+
+				if (tasks.isEmpty()) {
+					onInitComplete();
+				} else {
+					warmupTotal.addAndGet(tasks.size());
+					warmupQueue.addAll(tasks);
+					startWarmupWorkers();
+				}
+
+				LOGGER.info("Message index warm-up started for {} channels{}", tasks.size(), snapshot != null ? " from snapshot" : "");
 			} catch (Throwable t) {
 				LOGGER.warn("Error initializing message index", t);
 			}
 		});
 	}
 
+	private void onInitComplete() {
+		if (initialized) return;
+
+		initialized = true;
+		LOGGER.info("Message index initialized");
+	}
+
 	public float getInitProgressPct() {
-		return initProgressPct;
+		int total = warmupTotal.get();
+		if (total == 0) return initialized ? 100 : 0;
+
+		return 100f * warmupFinished.get() / total;
+	}
+
+	/**
+	 * Queue a channel for asynchronous history retrieval.
+	 */
+	private void scheduleWarmup(Channel channel, long priority) {
+		warmupTotal.incrementAndGet();
+		warmupQueue.add(new WarmupTask(channel, null, 0, priority, 0, warmupGeneration.get()));
+		startWarmupWorkers();
+	}
+
+	private void startWarmupWorkers() {
+		for (;;) {
+			int workers = warmupWorkers.get();
+			if (workers >= WARMUP_CONCURRENCY || warmupQueue.isEmpty()) return;
+
+			if (warmupWorkers.compareAndSet(workers, workers + 1)) {
+				bot.getExecutor().execute(this::runWarmupWorker);
+			}
+		}
+	}
+
+	private void runWarmupWorker() {
+		try {
+			WarmupTask task;
+
+			while ((task = warmupQueue.poll()) != null) {
+				runWarmup(task);
+			}
+		} finally {
+			warmupWorkers.decrementAndGet();
+		}
+
+		startWarmupWorkers(); // a task may have been queued after the last poll
+	}
+
+	private void runWarmup(WarmupTask task) {
+		if (task.generation != warmupGeneration.get()) return;
+
+		try {
+			if (task.stored != null) {
+				initChannel(task.channel, task.stored, task.syncStartId);
+			} else {
+				initChannel(task.channel);
+			}
+		} catch (Throwable t) {
+			if (task.attempt + 1 < WARMUP_MAX_ATTEMPTS) {
+				long delay = WARMUP_RETRY_DELAY_SEC << task.attempt;
+				LOGGER.warn("Error initializing channel {}, retrying in {} s: {}", task.channel.getId(), delay, t.toString());
+
+				bot.getScheduledExecutor().schedule(() -> {
+					warmupQueue.add(task.retry());
+					startWarmupWorkers();
+				}, delay, TimeUnit.SECONDS);
+
+				return;
+			}
+
+			LOGGER.warn("Error initializing channel {}", task.channel.getId(), t);
+		}
+
+		if (task.generation == warmupGeneration.get()
+				&& warmupFinished.incrementAndGet() == warmupTotal.get()) {
+			onInitComplete();
+		}
+	}
+
+	private record WarmupTask(Channel channel, @Nullable CachedMessage[] stored, long syncStartId, long priority, int attempt, int generation) implements Comparable<WarmupTask> {
+		WarmupTask retry() {
+			return new WarmupTask(channel, stored, syncStartId, priority, attempt + 1, generation);
+		}
+
+		@Override
+		public int compareTo(WarmupTask o) {
+			return Long.compare(o.priority, priority); // highest priority first
+		}
 	}
 
 	private void reset(Server server) {
-		synchronized (globalIndex) {
-			globalIndex.clear();
+		if (initialized) {
+			// capture the messages before clearing them, but compress and write on the executor like the periodic save
+			long time = System.currentTimeMillis();
+			Long2ObjectMap<CachedMessage[]> channels = collectSnapshot();
+			bot.getScheduledExecutor().execute(() -> writeSnapshot(time, channels));
+		}
+
+		initialized = false;
+
+		warmupGeneration.incrementAndGet();
+		warmupQueue.clear();
+		warmupTotal.set(0);
+		warmupFinished.set(0);
+		searchIndex = null; // dropped as a whole instead of removing every message
+
+		for (ChannelMessageCache cache : channelCaches.values()) {
+			cache.clear();
 		}
 
 		channelCaches.clear();
+		globalIndex.clear();
+
+		synchronized (authorIndex) {
+			authorIndex.clear();
+		}
 	}
 
 	private boolean isValidChannel(Channel channel) {
@@ -303,9 +650,74 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 	private void initChannel(Channel channel) {
 		ChannelMessageCache cache = channelCaches.computeIfAbsent(channel, ignore -> new ChannelMessageCache());
 
-		synchronized (cache) {
-			for (Message message : channel.getMessages(Math.min(INIT_LIMIT, MESSAGE_LIMIT))) {
-				cache.add(new CachedMessage(message));
+		for (Message message : channel.getMessages(Math.min(INIT_LIMIT, MESSAGE_LIMIT))) {
+			cache.add(new CachedMessage(message, contentStore, bot.getAttachmentStore()));
+		}
+	}
+
+	/**
+	 * Initialize a channel from snapshot messages, only fetching what was posted after the snapshot.
+	 *
+	 * <p>Deletions and edits that happened while offline are not reflected for the stored messages.
+	 */
+	private void initChannel(Channel channel, CachedMessage[] stored, long syncStartId) {
+		ChannelMessageCache cache = channelCaches.computeIfAbsent(channel, ignore -> new ChannelMessageCache());
+		long afterId = syncStartId;
+
+		for (CachedMessage message : stored) {
+			cache.add(message);
+			if (Long.compareUnsigned(message.getId(), afterId) > 0) afterId = message.getId();
+		}
+
+		int limit = Math.min(INIT_LIMIT, MESSAGE_LIMIT);
+		List<? extends Message> messages = channel.getMessagesBetween(afterId, Long.MAX_VALUE, limit);
+
+		if (messages.size() >= limit) { // gap too large to fill, fetch the most recent messages instead
+			messages = channel.getMessages(limit);
+		}
+
+		for (Message message : messages) {
+			cache.add(new CachedMessage(message, contentStore, bot.getAttachmentStore()));
+		}
+	}
+
+	private MessageIndexStore.@Nullable Snapshot loadSnapshot() {
+		try {
+			return MessageIndexStore.read(snapshotFile, contentStore, bot.getAttachmentStore(),
+					bot.getConfigEntry(MAX_EDIT_VERSIONS), bot.getConfigEntry(MAX_EDIT_HISTORY_SIZE));
+		} catch (IOException e) {
+			LOGGER.warn("Error reading message index snapshot", e);
+			return null;
+		}
+	}
+
+	private void saveSnapshot() {
+		if (!initialized) return;
+
+		writeSnapshot(System.currentTimeMillis(), collectSnapshot());
+	}
+
+	private Long2ObjectMap<CachedMessage[]> collectSnapshot() {
+		Long2ObjectMap<CachedMessage[]> ret = new Long2ObjectOpenHashMap<>(channelCaches.size());
+
+		for (Map.Entry<Channel, ChannelMessageCache> entry : channelCaches.entrySet()) {
+			CachedMessage[] messages = entry.getValue().snapshot();
+			Collections.reverse(Arrays.asList(messages)); // oldest first
+			ret.put(entry.getKey().getId(), messages);
+		}
+
+		return ret;
+	}
+
+	private void writeSnapshot(long time, Long2ObjectMap<CachedMessage[]> channels) {
+		synchronized (snapshotLock) {
+			if (time < lastSnapshotTime) return; // a newer snapshot was written in the meantime
+			lastSnapshotTime = time;
+
+			try {
+				MessageIndexStore.write(snapshotFile, time, channels);
+			} catch (Throwable t) {
+				LOGGER.warn("Error writing message index snapshot", t);
 			}
 		}
 	}
@@ -315,7 +727,7 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 		if (channel.getServer() == null || channel.getServer().getId() != bot.getServerId()) return;
 
 		if (isValidChannel(channel)) {
-			initChannel(channel);
+			scheduleWarmup(channel, PRIORITY_LIVE);
 		}
 	}
 
@@ -337,7 +749,7 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 		if (!channel.getType().text) return;
 
 		if (isValidChannel(channel)) {
-			initChannel(channel);
+			scheduleWarmup(channel, PRIORITY_LIVE);
 		} else {
 			ChannelMessageCache prev = channelCaches.remove(channel);
 
@@ -359,18 +771,18 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 
 		if (cache == null) {
 			LOGGER.warn("Received message {} on unknown channel {} ({} {})", message.getId(), channel.getId(), channel.getType().name(), channel.getName());
-			cache = new ChannelMessageCache();
-			channelCaches.put(channel, cache);
+			cache = channelCaches.computeIfAbsent(channel, ignore -> new ChannelMessageCache());
 		}
 
-		CachedMessage msg = new CachedMessage(message);
+		CachedMessage msg = new CachedMessage(message, contentStore, bot.getAttachmentStore());
+		cache.add(msg);
 
-		synchronized (cache) {
-			cache.add(msg);
-		}
+		if (!createHandlers.isEmpty()) {
+			MessageAnalysis analysis = bot.getMessageAnalysis(message);
 
-		for (MessageCreateHandler handler : createHandlers) {
-			handler.onMessageCreated(msg, server);
+			for (MessageCreateHandler handler : createHandlers) {
+				handler.onMessageCreated(msg, analysis, server);
+			}
 		}
 	}
 
@@ -379,11 +791,7 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 		ChannelMessageCache cache = channelCaches.get(message.getChannel());
 		if (cache == null) return;
 
-		Instant time = Instant.now();
-
-		synchronized (cache) {
-			cache.update(message.getId(), message.getContent(), time);
-		}
+		cache.update(message.getId(), message.getContent(), Instant.now());
 	}
 
 	@Override
@@ -391,14 +799,7 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 		Server server = channel.getServer();
 		if (server == null) return;
 
-		ChannelMessageCache cache = channelCaches.get(channel);
-		if (cache == null) return;
-
-		CachedMessage msg;
-
-		synchronized (cache) {
-			msg = cache.get(messageId);
-		}
+		CachedMessage msg = get(channel, messageId);
 
 		if (msg == null) {
 			/*Message message = event.getMessage().orElse(null);
@@ -415,157 +816,379 @@ MessageCreateHandler, MessageDeleteHandler, MessageEditHandler {
 		}
 	}
 
+	/**
+	 * Ring buffer of a channel's messages ordered by id (=creation time), oldest first.
+	 *
+	 * <p>The capacity starts small and grows with the channel's traffic as long as the global slot budget allows it,
+	 * {@link MessageIndex#rebalance} shrinks the least active channels when the budget runs out.
+	 *
+	 * <p>Mutations synchronize on the cache, reads copy the messages out first or go through the lock-free global index.
+	 */
 	private final class ChannelMessageCache {
-		final CachedMessage[] messages = new CachedMessage[MESSAGE_LIMIT];
-		private int writeIdx;
-		final Long2IntMap index = new Long2IntOpenHashMap();
+		private CachedMessage[] messages = EMPTY_MESSAGES;
+		private long[] ids = EMPTY_IDS; // parallel to messages, keeps the binary search within one primitive array
+		private int head; // slot of the oldest message
+		private volatile int size;
+		// exponentially decaying message count, evaluated at activityTime (ms)
+		private double activity;
+		private long activityTime;
+
+		synchronized boolean add(CachedMessage message) {
+			long key = message.getId();
+			int pos = find(key);
+			if (pos >= 0) return false; // already present
+
+			pos = -pos - 1;
+
+			if (size == messages.length && !grow()) {
+				if (pos == 0) return false; // older than everything in a full buffer
+
+				removeOldest();
+				pos--;
+			}
+
+			if (pos >= size >>> 1) { // closer to the newest end, move newer messages up
+				for (int i = size; i > pos; i--) {
+					int dst = slot(i);
+					int src = slot(i - 1);
+					messages[dst] = messages[src];
+					ids[dst] = ids[src];
+				}
+			} else { // closer to the oldest end, move older messages down
+				head = head == 0 ? messages.length - 1 : head - 1;
+
+				for (int i = 0; i < pos; i++) {
+					int dst = slot(i);
+					int src = slot(i + 1);
+					messages[dst] = messages[src];
+					ids[dst] = ids[src];
+				}
+			}
+
+			int slot = slot(pos);
+			messages[slot] = message;
+			ids[slot] = key;
+			size++;
 
-		public ChannelMessageCache() {
-			index.defaultReturnValue(-1);
+			globalIndex.put(key, message);
+			addToAuthorIndex(message);
+			MessageSearchIndex searchIndex = MessageIndex.this.searchIndex;
+			if (searchIndex != null) searchIndex.add(message);
+			recordActivity(DiscordUtil.getCreationTime(key).toEpochMilli());
+
+			return true;
 		}
 
-		CachedMessage get(long id) {
-			int pos = index.get(id);
-			if (pos < 0) return null;
+		synchronized boolean update(long id, String newContent, Instant editTime) {
+			int pos = find(id);
+			if (pos < 0) return false;
+
+			int slot = slot(pos);
+			CachedMessage prev = messages[slot];
+
+			if (prev.getContent().equals(newContent)) {
+				return false;
+			}
+
+			CachedMessage updated = prev.edit(newContent, editTime, contentStore, bot.getConfigEntry(MAX_EDIT_VERSIONS), bot.getConfigEntry(MAX_EDIT_HISTORY_SIZE));
+			messages[slot] = updated;
+			globalIndex.put(id, updated);
+			MessageSearchIndex searchIndex = MessageIndex.this.searchIndex;
+			if (searchIndex != null) searchIndex.replace(prev, updated);
 
-			return messages[pos];
+			return true;
 		}
 
-		boolean add(CachedMessage message) {
-			long key = message.getId();
-			CachedMessage prev = messages[dec(writeIdx)];
-			CachedMessage replaced;
+		/**
+		 * Remove all messages and release the allocated slots.
+		 */
+		synchronized void clear() {
+			MessageSearchIndex searchIndex = MessageIndex.this.searchIndex;
+
+			for (int i = 0; i < size; i++) {
+				CachedMessage message = messages[slot(i)];
+				globalIndex.remove(message.getId());
+				removeFromAuthorIndex(message);
+				if (searchIndex != null) searchIndex.remove(message);
+			}
 
-			if (prev != null && prev.compareCreationTime(message) > 0) { // last message is more recent
-				prev = messages[writeIdx];
+			releaseSlots(messages.length);
+			messages = EMPTY_MESSAGES;
+			ids = EMPTY_IDS;
+			head = 0;
+			size = 0;
+		}
 
-				if (prev != null && prev.compareCreationTime(message) >= 0 // first message is more recent or same age
-						|| index.containsKey(key)) {
-					return false;
-				}
+		/**
+		 * Reduce the capacity to at most the given value, evicting the oldest messages as needed.
+		 *
+		 * @return number of released slots
+		 */
+		synchronized int shrink(int capacity) {
+			capacity = Math.max(capacity, MIN_CAPACITY);
+			int oldCapacity = messages.length;
+			if (oldCapacity <= capacity) return 0;
+
+			while (size > capacity) {
+				removeOldest();
+			}
 
-				// find insertion index (after most recent msg that isn't newer)
+			setCapacity(capacity);
+			releaseSlots(oldCapacity - capacity);
 
-				int start = prev != null ? 0 : messages.length - writeIdx; // prev == null means that the buffer never looped and writeIdx is the message count
-				int end = messages.length;
+			return oldCapacity - capacity;
+		}
 
-				while (start < end) {
-					int pos = (start + end) / 2;
-					CachedMessage m = messages[(pos + writeIdx) % messages.length];
+		/**
+		 * @return id of the newest cached message or 0 if empty
+		 */
+		synchronized long getNewestId() {
+			return size > 0 ? ids[slot(size - 1)] : 0;
+		}
 
-					if (m == null || m.compareCreationTime(message) <= 0) {
-						start = pos + 1;
-					} else {
-						end = pos;
-					}
-				}
+		/**
+		 * @param beforeId exclusive upper id bound, -1 (unsigned max) for none
+		 * @return up to max messages older than beforeId, newest first
+		 */
+		synchronized CachedMessage[] getNewest(long beforeId, int max) {
+			int end = beforeId == -1 ? size : find(beforeId);
+			if (end < 0) end = -end - 1;
 
-				int insertIdx = (end + writeIdx) % messages.length;
-				assert insertIdx != writeIdx;
-				replaced = messages[writeIdx];
+			CachedMessage[] ret = new CachedMessage[Math.min(max, end)];
 
-				if (insertIdx < writeIdx) {
-					System.arraycopy(messages, insertIdx, messages, insertIdx + 1, writeIdx - insertIdx);
-				} else {
-					System.arraycopy(messages, 0, messages, 1, writeIdx);
-					messages[0] = messages[messages.length - 1];
-					System.arraycopy(messages, insertIdx, messages, insertIdx + 1, messages.length - insertIdx - 1);
-				}
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = messages[slot(end - 1 - i)];
+			}
 
-				messages[insertIdx] = message;
-				index.put(key, insertIdx);
-			} else {
-				if (index.putIfAbsent(key, writeIdx) >= 0) return false;
-				replaced = messages[writeIdx];
-				messages[writeIdx] = message;
+			return ret;
+		}
+
+		/**
+		 * @return all cached messages, newest first
+		 */
+		synchronized CachedMessage[] snapshot() {
+			CachedMessage[] ret = new CachedMessage[size];
+
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = messages[slot(ret.length - 1 - i)];
 			}
 
-			synchronized (globalIndex) {
-				if (replaced != null) {
-					long replacedKey = replaced.getId();
-					index.remove(replacedKey);
-					globalIndex.remove(replacedKey);
+			return ret;
+		}
+
+		/**
+		 * Add all messages to a search index, under the lock so no concurrent change can be missed.
+		 */
+		synchronized void addTo(MessageSearchIndex searchIndex) {
+			for (int i = 0; i < size; i++) {
+				searchIndex.add(messages[slot(i)]);
+			}
+		}
+
+		void accept(Visitor visitor, boolean includeDeleted) {
+			for (CachedMessage message : snapshot()) { // visit outside the lock to not stall writers
+				if (includeDeleted || !message.isDeleted()) {
+					if (!visitor.visit(message)) break;
 				}
+			}
+		}
 
-				globalIndex.put(key, message);
+		int size() {
+			return size;
+		}
+
+		synchronized int capacity() {
+			return messages.length;
+		}
+
+		synchronized double getActivity(long time) {
+			return activity * decay(time - activityTime);
+		}
+
+		/**
+		 * @return logical position of the message with the given id or -(insertion position + 1) if absent
+		 */
+		private int find(long id) {
+			int start = 0;
+			int end = size;
+
+			while (start < end) {
+				int pos = (start + end) >>> 1;
+				int cmp = Long.compareUnsigned(ids[slot(pos)], id);
+
+				if (cmp < 0) {
+					start = pos + 1;
+				} else if (cmp > 0) {
+					end = pos;
+				} else {
+					return pos;
+				}
 			}
 
-			writeIdx = inc(writeIdx);
+			return -(start + 1);
+		}
 
-			return true;
+		private int slot(int pos) {
+			int ret = head + pos;
+
+			return ret < messages.length ? ret : ret - messages.length;
 		}
 
-		boolean update(long id, String newContent, Instant editTime) {
-			Integer pos = index.get(id);
-			if (pos < 0) return false;
+		private boolean grow() {
+			int oldCapacity = messages.length;
+			if (oldCapacity >= MESSAGE_LIMIT) return false;
 
-			CachedMessage prev = messages[pos];
+			int capacity = Math.min(Math.max(oldCapacity * 2, MIN_CAPACITY), MESSAGE_LIMIT);
 
-			if (prev.getContent().equals(newContent)) {
+			// always grant the minimum capacity to not starve new channels, the next rebalance will make room
+			if (!reserveSlots(capacity - oldCapacity, oldCapacity == 0)) {
+				requestRebalance();
 				return false;
 			}
 
-			CachedMessage updated = new CachedMessage(prev, newContent, editTime);
+			setCapacity(capacity);
+
+			return true;
+		}
+
+		private void setCapacity(int capacity) {
+			CachedMessage[] newMessages = new CachedMessage[capacity];
+			long[] newIds = new long[capacity];
 
-			synchronized (globalIndex) {
-				globalIndex.put(id, updated);
+			for (int i = 0; i < size; i++) {
+				int slot = slot(i);
+				newMessages[i] = messages[slot];
+				newIds[i] = ids[slot];
 			}
 
-			messages[pos] = updated;
+			messages = newMessages;
+			ids = newIds;
+			head = 0;
+		}
 
-			return true;
+		private void removeOldest() {
+			CachedMessage message = messages[head];
+			messages[head] = null;
+			head = slot(1);
+			size--;
+
+			globalIndex.remove(message.getId());
+			removeFromAuthorIndex(message);
+			MessageSearchIndex searchIndex = MessageIndex.this.searchIndex;
+			if (searchIndex != null) searchIndex.remove(message);
 		}
 
-		void clear() {
-			synchronized (globalIndex) {
-				for (LongIterator it = index.keySet().iterator(); it.hasNext(); ) {
-					long key = it.nextLong();
-					globalIndex.remove(key);
-				}
+		private void recordActivity(long time) {
+			if (time > activityTime) {
+				activity = activity * decay(time - activityTime) + 1;
+				activityTime = time;
+			} else {
+				activity += decay(activityTime - time);
 			}
+		}
+	}
+
+	private static double decay(long durationMs) {
+		return Math.pow(0.5, (double) durationMs / ACTIVITY_HALF_LIFE_MS);
+	}
 
-			index.clear();
-			writeIdx = 0;
-			Arrays.fill(messages, null);
+	private boolean reserveSlots(int count, boolean force) {
+		if (force) {
+			allocatedSlots.addAndGet(count);
+			return true;
 		}
 
-		void accept(Visitor visitor, boolean includeDeleted) {
-			int idx = writeIdx;
+		int prev;
 
-			do {
-				idx = dec(idx);
-				CachedMessage message = messages[idx];
-				if (message == null) break;
+		do {
+			prev = allocatedSlots.get();
+			if (prev + count > GLOBAL_MESSAGE_LIMIT) return false;
+		} while (!allocatedSlots.compareAndSet(prev, prev + count));
 
-				if (includeDeleted || !message.isDeleted()) {
-					if (!visitor.visit(message)) break;
-				}
-			} while (idx != writeIdx);
+		return true;
+	}
+
+	private void releaseSlots(int count) {
+		allocatedSlots.addAndGet(-count);
+	}
+
+	private void requestRebalance() {
+		long time = System.currentTimeMillis();
+		long prev = lastRebalance.get();
+
+		if (time - prev >= REBALANCE_INTERVAL_MS && lastRebalance.compareAndSet(prev, time)) {
+			bot.getExecutor().execute(this::rebalance);
 		}
+	}
 
-		int size() {
-			if (messages[messages.length - 1] == null) {
-				return writeIdx;
-			} else {
-				return messages.length;
+	/**
+	 * Redistribute the global slot budget according to channel activity.
+	 *
+	 * <p>Every channel gets a share of the budget proportional to its recent message rate, channels exceeding their share
+	 * get shrunk to it so busier channels can grow into the freed slots.
+	 */
+	private synchronized void rebalance() {
+		try {
+			long time = System.currentTimeMillis();
+			List<ChannelMessageCache> caches = new ArrayList<>(channelCaches.values());
+			double[] activities = new double[caches.size()];
+			double totalActivity = 0;
+
+			for (int i = 0; i < activities.length; i++) {
+				double activity = caches.get(i).getActivity(time);
+				activities[i] = activity;
+				totalActivity += activity;
 			}
+
+			int released = 0;
+
+			for (int i = 0; i < activities.length; i++) {
+				int share = totalActivity > 0 ? (int) (GLOBAL_MESSAGE_LIMIT * (activities[i] / totalActivity)) : GLOBAL_MESSAGE_LIMIT / activities.length;
+				released += caches.get(i).shrink(share);
+			}
+
+			LOGGER.debug("Message index rebalanced, released {} slots, {} / {} allocated", released, allocatedSlots.get(), GLOBAL_MESSAGE_LIMIT);
+		} catch (Throwable t) {
+			LOGGER.warn("Error rebalancing message index", t);
 		}
 	}
 
-	private static int inc(int idx) {
-		return (idx + 1) % MESSAGE_LIMIT;
+	public int getAllocatedSlots() {
+		return allocatedSlots.get();
 	}
 
-	private static int dec(int idx) {
-		return (idx + MESSAGE_LIMIT - 1) % MESSAGE_LIMIT;
+	public int getSlotBudget() {
+		return GLOBAL_MESSAGE_LIMIT;
 	}
 
+	/**
+	 * @return content storage stats or null if the compact content storage is disabled
+	 */
+	public @Nullable ContentStorageStats getContentStorageStats() {
+		MessageContentStore store = contentStore;
+
+		return store != null ? store.getStats() : null;
+	}
+
+	private void compressContent() {
+		MessageContentStore store = contentStore;
+		if (store == null || !bot.getConfigEntry(COMPRESS_CONTENT)) return;
+
+		try {
+			store.compressIdle();
+		} catch (Throwable t) {
+			LOGGER.warn("Error compressing message content", t);
+		}
+	}
+
+	public record ContentStorageStats(int slabs, int compressedSlabs, long bytes) { }
+
 	public interface Visitor {
 		boolean visit(CachedMessage message);
 	}
 
 	public interface MessageCreateHandler {
-		void onMessageCreated(CachedMessage message, Server server);
+		void onMessageCreated(CachedMessage message, MessageAnalysis analysis, Server server);
 	}
 
 	public interface MessageDeleteHandler {
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import net.fabricmc.discord.io.Message;
+
+/**
+ * Binary on-disk snapshot of the message index, used to avoid re-fetching the full channel history on restart.
+ *
+ * <p>The file is a gzip compressed stream of channels, each with its messages ordered oldest first. Messages are stored
+ * with their full edit history. Attachment data isn't stored, only the metadata needed to download it again.
+ */
+final class MessageIndexStore {
+	private static final int MAGIC = 0x464d4958; // FMIX
+	private static final int VERSION = 2;
+	private static final long NO_EDIT_TIME = Long.MIN_VALUE;
+
+	/**
+	 * Write the snapshot atomically, replacing any previous one.
+	 *
+	 * @param channels channel id -> messages, oldest first
+	 */
+	static void write(Path file, long time, Long2ObjectMap<CachedMessage[]> channels) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Path tmpFile = file.resolveSibling(file.getFileName().toString()+".tmp");
+
+		try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmpFile))))) {
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeLong(time);
+			os.writeInt(channels.size());
+
+			for (Long2ObjectMap.Entry<CachedMessage[]> entry : channels.long2ObjectEntrySet()) {
+				CachedMessage[] messages = entry.getValue();
+
+				os.writeLong(entry.getLongKey());
+				os.writeInt(messages.length);
+
+				for (CachedMessage message : messages) {
+					writeMessage(message, os);
+				}
+			}
+		}
+
+		Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read a snapshot previously written by {@link #write}.
+	 *
+	 * <p>Edit histories get rebuilt through {@link CachedMessage#edit}, bounded by maxVersions and maxHistorySize.
+	 *
+	 * @return the snapshot or null if the file doesn't exist or uses an incompatible format
+	 */
+	static @Nullable Snapshot read(Path file, @Nullable MessageContentStore contentStore, @Nullable AttachmentStore attachmentStore,
+			int maxVersions, int maxHistorySize) throws IOException {
+		if (!Files.exists(file)) return null;
+
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+			if (is.readInt() != MAGIC || is.readInt() != VERSION) return null;
+
+			long time = is.readLong();
+			int channelCount = is.readInt();
+			Long2ObjectMap<CachedMessage[]> channels = new Long2ObjectOpenHashMap<>(channelCount);
+
+			for (int i = 0; i < channelCount; i++) {
+				long channelId = is.readLong();
+				CachedMessage[] messages = new CachedMessage[is.readInt()];
+
+				for (int j = 0; j < messages.length; j++) {
+					messages[j] = readMessage(channelId, is, contentStore, attachmentStore, maxVersions, maxHistorySize);
+				}
+
+				channels.put(channelId, messages);
+			}
+
+			return new Snapshot(time, channels);
+		}
+	}
+
+	private static void writeMessage(CachedMessage message, DataOutputStream os) throws IOException {
+		os.writeLong(message.getId());
+		os.writeInt(message.getType().id);
+		os.writeLong(message.getAuthorDiscordId());
+		os.writeBoolean(message.isDeleted());
+
+		CachedMessageAttachment[] attachments = message.getAttachments();
+		os.writeInt(attachments.length);
+
+		for (CachedMessageAttachment attachment : attachments) {
+			os.writeLong(attachment.getId());
+			writeString(attachment.getUrl(), os);
+			writeString(attachment.getFileName(), os);
+			os.writeInt(attachment.getSize());
+			String dataHash = attachment.getDataHash();
+			writeString(dataHash != null ? dataHash : "", os);
+		}
+
+		writeIds(message.getUserMentions(), os);
+		writeIds(message.getRoleMentions(), os);
+
+		List<CachedMessage> versions = new ArrayList<>();
+
+		for (CachedMessage m = message; m != null; m = m.prev) {
+			versions.add(m);
+		}
+
+		os.writeInt(versions.size());
+
+		for (int i = versions.size() - 1; i >= 0; i--) { // original first
+			CachedMessage version = versions.get(i);
+
+			writeString(version.getContent(), os);
+			os.writeLong(version.editTime != null ? version.editTime.toEpochMilli() : NO_EDIT_TIME);
+		}
+	}
+
+	private static CachedMessage readMessage(long channelId, DataInputStream is, @Nullable MessageContentStore contentStore, @Nullable AttachmentStore attachmentStore,
+			int maxVersions, int maxHistorySize) throws IOException {
+		long id = is.readLong();
+		Message.Type type = Message.Type.get(is.readInt());
+		long authorId = is.readLong();
+		boolean deleted = is.readBoolean();
+
+		CachedMessageAttachment[] attachments = new CachedMessageAttachment[is.readInt()];
+
+		for (int i = 0; i < attachments.length; i++) {
+			CachedMessageAttachment attachment = new CachedMessageAttachment(is.readLong(), readString(is), readString(is), is.readInt(), attachmentStore);
+			String dataHash = readString(is);
+			if (!dataHash.isEmpty() && attachmentStore != null) attachment.setDataHash(dataHash);
+			attachments[i] = attachment;
+		}
+
+		long[] userMentions = readIds(is);
+		long[] roleMentions = readIds(is);
+
+		int versionCount = is.readInt();
+		if (versionCount <= 0) throw new IOException("invalid version count: "+versionCount);
+
+		CachedMessage ret = null;
+
+		for (int i = 0; i < versionCount; i++) {
+			String content = readString(is);
+			long editTime = is.readLong();
+
+			if (ret == null) {
+				ret = new CachedMessage(id, type, channelId, authorId, content, attachments, userMentions, roleMentions, contentStore);
+			} else {
+				ret = ret.edit(content, editTime != NO_EDIT_TIME ? Instant.ofEpochMilli(editTime) : Instant.EPOCH, contentStore, maxVersions, maxHistorySize);
+			}
+		}
+
+		if (deleted) ret.setDeleted();
+
+		return ret;
+	}
+
+	private static void writeIds(long[] ids, DataOutputStream os) throws IOException {
+		os.writeInt(ids.length);
+
+		for (long id : ids) {
+			os.writeLong(id);
+		}
+	}
+
+	private static long[] readIds(DataInputStream is) throws IOException {
+		long[] ret = new long[is.readInt()];
+
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = is.readLong();
+		}
+
+		return ret;
+	}
+
+	private static void writeString(String str, DataOutputStream os) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		os.writeInt(bytes.length);
+		os.write(bytes);
+	}
+
+	private static String readString(DataInputStream is) throws IOException {
+		byte[] bytes = new byte[is.readInt()];
+		is.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	record Snapshot(long time, Long2ObjectMap<CachedMessage[]> channels) { }
+}
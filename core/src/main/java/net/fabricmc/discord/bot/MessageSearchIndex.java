@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+/**
+ * Inverted index from content trigrams to the ids of the cached messages containing them.
+ *
+ * <p>Trigrams are runs of 3 chars in the lower case content without whitespace, so any search term with at least 3
+ * chars can be looked up as a substring. All versions of an edited message are indexed. Lookups only narrow down the
+ * candidates, callers verify the actual content.
+ */
+final class MessageSearchIndex {
+	static final int GRAM_LENGTH = 3;
+
+	private final Long2ObjectMap<LongSet> postings = new Long2ObjectOpenHashMap<>(); // packed trigram -> message ids, guarded by this
+
+	/**
+	 * Add a message with all its versions.
+	 */
+	void add(CachedMessage message) {
+		LongSet grams = new LongOpenHashSet();
+
+		for (CachedMessage m = message; m != null; m = m.prev) {
+			grams(m.getContent(), grams);
+		}
+
+		if (grams.isEmpty()) return;
+
+		long id = message.getId();
+
+		synchronized (this) {
+			for (LongIterator it = grams.iterator(); it.hasNext(); ) {
+				postings.computeIfAbsent(it.nextLong(), ignore -> new LongOpenHashSet(4)).add(id);
+			}
+		}
+	}
+
+	/**
+	 * Remove a message with all its versions.
+	 */
+	void remove(CachedMessage message) {
+		LongSet grams = new LongOpenHashSet();
+
+		for (CachedMessage m = message; m != null; m = m.prev) {
+			grams(m.getContent(), grams);
+		}
+
+		if (grams.isEmpty()) return;
+
+		long id = message.getId();
+
+		synchronized (this) {
+			for (LongIterator it = grams.iterator(); it.hasNext(); ) {
+				removePosting(it.nextLong(), id);
+			}
+		}
+	}
+
+	/**
+	 * Update the index for a new version of a message whose history may have dropped older versions.
+	 */
+	void replace(CachedMessage oldMessage, CachedMessage newMessage) {
+		LongSet oldGrams = new LongOpenHashSet();
+
+		for (CachedMessage m = oldMessage; m != null; m = m.prev) {
+			grams(m.getContent(), oldGrams);
+		}
+
+		LongSet newGrams = new LongOpenHashSet();
+
+		for (CachedMessage m = newMessage; m != null; m = m.prev) {
+			grams(m.getContent(), newGrams);
+		}
+
+		long id = newMessage.getId();
+
+		synchronized (this) {
+			for (LongIterator it = oldGrams.iterator(); it.hasNext(); ) {
+				long gram = it.nextLong();
+				if (!newGrams.contains(gram)) removePosting(gram, id);
+			}
+
+			for (LongIterator it = newGrams.iterator(); it.hasNext(); ) {
+				postings.computeIfAbsent(it.nextLong(), ignore -> new LongOpenHashSet(4)).add(id);
+			}
+		}
+	}
+
+	private void removePosting(long gram, long id) {
+		LongSet ids = postings.get(gram);
+
+		if (ids != null && ids.remove(id) && ids.isEmpty()) {
+			postings.remove(gram);
+		}
+	}
+
+	/**
+	 * @return ids of the messages containing all trigrams in any of their versions
+	 */
+	LongSet find(LongSet grams) {
+		if (grams.isEmpty()) throw new IllegalArgumentException("no grams");
+
+		List<LongSet> sets = new ArrayList<>(grams.size());
+
+		synchronized (this) {
+			for (LongIterator it = grams.iterator(); it.hasNext(); ) {
+				LongSet ids = postings.get(it.nextLong());
+				if (ids == null) return new LongOpenHashSet();
+
+				sets.add(ids);
+			}
+
+			sets.sort(Comparator.comparingInt(LongSet::size));
+			LongSet ret = new LongOpenHashSet(sets.get(0));
+
+			for (int i = 1; i < sets.size() && !ret.isEmpty(); i++) {
+				LongSet ids = sets.get(i);
+
+				for (LongIterator it = ret.iterator(); it.hasNext(); ) {
+					if (!ids.contains(it.nextLong())) it.remove();
+				}
+			}
+
+			return ret;
+		}
+	}
+
+	/**
+	 * Collect the packed trigrams of the lower case form of s, strings shorter than {@link #GRAM_LENGTH} have none.
+	 */
+	static void grams(String s, LongSet out) {
+		s = s.toLowerCase(Locale.ROOT);
+		int run = 0;
+		long gram = 0;
+
+		for (int i = 0, max = s.length(); i < max; i++) {
+			char c = s.charAt(i);
+
+			if (isSearchWhitespace(c)) { // search terms are split at whitespace, so no gram crossing it can be queried
+				run = 0;
+			} else {
+				gram = (gram << 16 | c) & 0xffff_ffff_ffffL;
+				if (++run >= GRAM_LENGTH) out.add(gram);
+			}
+		}
+	}
+
+	/**
+	 * Whitespace as in Pattern's \s, which MessageIndex uses to split search terms.
+	 */
+	private static boolean isSearchWhitespace(char c) {
+		return c == ' ' || c >= '\t' && c <= '\r';
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import net.fabricmc.discord.bot.database.query.UserQueries.PermissionData;
+
+/**
+ * Immutable snapshot of the effective permissions of every user in any group.
+ *
+ * <p>Group inheritance is resolved once at construction, so permission checks are plain hash lookups.
+ */
+final class PermissionGraph {
+	private final Map<Integer, Set<String>> userPermissions; // user id -> effective permissions
+	private final Map<Long, Integer> discordUserIds; // discord user id -> user id, only for users in any group
+	private final Set<String> grantedPermissions; // permissions held by any user with a discord user
+
+	PermissionGraph(PermissionData data) {
+		Map<Integer, Set<String>> groupPermissions = new HashMap<>(); // group id -> effective permissions, shared between users
+		Map<Integer, Set<String>> userPermissions = new HashMap<>(data.userGroups().size());
+
+		for (Map.Entry<Integer, List<Integer>> entry : data.userGroups().entrySet()) {
+			Set<String> permissions;
+
+			if (entry.getValue().size() == 1) {
+				permissions = groupPermissions.computeIfAbsent(entry.getValue().get(0), group -> resolve(List.of(group), data));
+			} else {
+				permissions = resolve(entry.getValue(), data);
+			}
+
+			userPermissions.put(entry.getKey(), permissions);
+		}
+
+		Set<String> grantedPermissions = new HashSet<>();
+
+		for (int userId : data.discordUsers().values()) {
+			grantedPermissions.addAll(userPermissions.getOrDefault(userId, Collections.emptySet()));
+		}
+
+		this.userPermissions = userPermissions;
+		this.discordUserIds = data.discordUsers();
+		this.grantedPermissions = grantedPermissions;
+	}
+
+	/**
+	 * Collect the permissions of the supplied groups and all groups inherited by them.
+	 */
+	private static Set<String> resolve(List<Integer> groups, PermissionData data) {
+		Set<Integer> visited = new HashSet<>(groups);
+		Queue<Integer> queue = new ArrayDeque<>(groups);
+		Set<String> ret = new HashSet<>();
+		Integer group;
+
+		while ((group = queue.poll()) != null) {
+			ret.addAll(data.groupPermissions().getOrDefault(group, Collections.emptyList()));
+
+			for (Integer child : data.groupChildren().getOrDefault(group, Collections.emptyList())) {
+				if (visited.add(child)) queue.add(child); // tolerates inheritance cycles
+			}
+		}
+
+		return ret.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(ret);
+	}
+
+	boolean hasPermission(int userId, String permissionA, String permissionB) {
+		Set<String> permissions = userPermissions.get(userId);
+
+		return permissions != null && (permissions.contains(permissionA) || permissions.contains(permissionB));
+	}
+
+	boolean discordUserHasPermission(long discordUserId, String permissionA, String permissionB) {
+		Integer userId = discordUserIds.get(discordUserId);
+
+		return userId != null && hasPermission(userId, permissionA, permissionB);
+	}
+
+	boolean hasAnyPermittedUser(String permission) {
+		return grantedPermissions.contains(permission);
+	}
+}
@@ -20,16 +20,24 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongLists;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 
 import net.fabricmc.discord.bot.database.query.UserQueries;
 import net.fabricmc.discord.bot.database.query.UserQueries.DiscordUserData;
 import net.fabricmc.discord.bot.database.query.UserQueries.SessionDiscordUserData;
 import net.fabricmc.discord.bot.database.query.UserQueries.UserData;
+import net.fabricmc.discord.bot.database.query.UserQueries.UserUpdate;
 import net.fabricmc.discord.io.GlobalEventHolder;
 import net.fabricmc.discord.io.GlobalEventHolder.MemberJoinHandler;
 import net.fabricmc.discord.io.GlobalEventHolder.MemberLeaveHandler;
@@ -44,17 +52,31 @@ public final class UserHandler implements MemberJoinHandler, MemberLeaveHandler,
 	public static final String IMMUNITY_PERMISSION = "immunity";
 	public static final String BYPASS_IMMUNITY_PERMISSION = "bypassImmunity";
 
+	private static final int updateFlushDelayMs = 250; // max delay for writing member event updates to the db
+
+	private static final Logger LOGGER = LogManager.getLogger(UserHandler.class);
+
 	private final DiscordBot bot;
 	private int botUserId;
 	private long botDiscordUserId;
+	private final Object permissionLock = new Object();
+	private volatile PermissionGraph permissionGraph; // null if not loaded or invalidated
+	private int permissionGeneration; // guarded by permissionLock, bumped by every invalidation
+	// member event updates not yet written to the db, in chronological order with updates merged where that preserves the name history
+	private final List<UserUpdate> pendingUpdates = new ArrayList<>(); // guarded by pendingUpdates
+	private final Map<Long, Integer> pendingUpdateIndices = new HashMap<>(); // discord user id -> index of its last pending update, guarded by pendingUpdates
+	private List<UserUpdate> flushingUpdates = Collections.emptyList(); // updates currently being written, guarded by pendingUpdates
+	private Future<?> updateFlushFuture; // guarded by pendingUpdates
+	private final Object updateFlushLock = new Object(); // serializes flushes to keep the write order
 
 	public UserHandler(DiscordBot bot) {
 		this.bot = bot;
 
 		bot.getActiveHandler().registerReadyHandler(this::init);
+		bot.getDatabase().registerPreCloseHandler(this::flushUserUpdates);
 
 		try {
-			if (!UserQueries.hasAnyPermittedUser(bot.getDatabase(), ADMIN_PERMISSION)) {
+			if (!getPermissionGraph().hasAnyPermittedUser(ADMIN_PERMISSION)) {
 				System.err.println("no admin account configured!"); // TODO: show more visibly
 			}
 		} catch (SQLException e) {
@@ -76,7 +98,7 @@ public final class UserHandler implements MemberJoinHandler, MemberLeaveHandler,
 
 	public boolean hasPermission(int userId, @Nullable Server server, String permission) {
 		try {
-			return UserQueries.userHasPermission(bot.getDatabase(), userId, permission, ADMIN_PERMISSION)
+			return getPermissionGraph().hasPermission(userId, permission, ADMIN_PERMISSION)
 					|| hasPermissionFallback(userId, server, permission);
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
@@ -89,7 +111,7 @@ public final class UserHandler implements MemberJoinHandler, MemberLeaveHandler,
 
 	public boolean hasPermission(long discordUserId, @Nullable Server server, String permission) {
 		try {
-			return UserQueries.discordUserHasPermission(bot.getDatabase(), discordUserId, permission, ADMIN_PERMISSION)
+			return getPermissionGraph().discordUserHasPermission(discordUserId, permission, ADMIN_PERMISSION)
 					|| hasPermissionFallback(discordUserId, server, permission);
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
@@ -118,7 +140,39 @@ public final class UserHandler implements MemberJoinHandler, MemberLeaveHandler,
 		return permission.equals(ADMIN_PERMISSION)
 				&& server != null
 				&& server.getId() == bot.getServerId()
-				&& !UserQueries.hasAnyPermittedUser(bot.getDatabase(), permission);
+				&& !getPermissionGraph().hasAnyPermittedUser(permission);
+	}
+
+	private PermissionGraph getPermissionGraph() throws SQLException {
+		PermissionGraph ret = permissionGraph;
+		if (ret != null) return ret;
+
+		int generation;
+
+		synchronized (permissionLock) {
+			ret = permissionGraph;
+			if (ret != null) return ret;
+
+			generation = permissionGeneration;
+		}
+
+		ret = new PermissionGraph(UserQueries.getPermissionData(bot.getDatabase()));
+
+		synchronized (permissionLock) {
+			if (permissionGeneration == generation) permissionGraph = ret; // don't publish data loaded before a concurrent invalidation
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Discard the cached permissions, to be called after changing group memberships, group inheritance or group permissions.
+	 */
+	public void invalidatePermissions() {
+		synchronized (permissionLock) {
+			permissionGeneration++;
+			permissionGraph = null;
+		}
 	}
 
 	public boolean hasImmunity(int targetUserId, int actingUserId, boolean allowBotTarget) {
@@ -257,7 +311,14 @@ public final class UserHandler implements MemberJoinHandler, MemberLeaveHandler,
 
 	public int getUserId(long discordId) {
 		try {
-			return UserQueries.getUserId(bot.getDatabase(), discordId);
+			int ret = UserQueries.getUserId(bot.getDatabase(), discordId);
+
+			if (ret < 0 && hasPendingUpdate(discordId)) { // user may have just joined, make the queued entry visible
+				flushUserUpdates();
+				ret = UserQueries.getUserId(bot.getDatabase(), discordId);
+			}
+
+			return ret;
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
@@ -363,17 +424,24 @@ public final class UserHandler implements MemberJoinHandler, MemberLeaveHandler,
 		assert server.getId() == bot.getServerId();
 		assert server.hasAllMembersInCache();
 
-		Collection<? extends Member> members = server.getMembers();
-		Collection<SessionDiscordUserData> dbUsers = new ArrayList<>(members.size());
+		flushUserUpdates(); // write events that precede the member list before it
 
-		for (Member member : members) {
-			dbUsers.add(toDbUser(member, true));
-		}
+		synchronized (updateFlushLock) { // keep concurrent flushes from writing older updates on top of the member list
+			long listTime = System.currentTimeMillis();
+			Collection<? extends Member> members = server.getMembers();
+			Collection<SessionDiscordUserData> dbUsers = new ArrayList<>(members.size());
 
-		try {
-			UserQueries.updateNewUsers(bot.getDatabase(), dbUsers, true, lastActiveTime);
-		} catch (SQLException e) {
-			throw new RuntimeException(e);
+			for (Member member : members) {
+				dbUsers.add(toDbUser(member, true));
+			}
+
+			discardUserUpdates(listTime);
+
+			try {
+				UserQueries.updateNewUsers(bot.getDatabase(), dbUsers, true, lastActiveTime);
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
 		}
 
 		botDiscordUserId = server.getDiscord().getYourself().getId();
@@ -433,11 +501,91 @@ public final class UserHandler implements MemberJoinHandler, MemberLeaveHandler,
 
 	private void refreshUser(Member member, boolean present, boolean wasPresent) {
 		SessionDiscordUserData dbUser = toDbUser(member, present);
+		long time = System.currentTimeMillis();
+		UserUpdate update = new UserUpdate(dbUser, time, wasPresent ? time : 0);
+
+		synchronized (pendingUpdates) {
+			Integer prevIndex = pendingUpdateIndices.get(dbUser.id());
+			UserUpdate prev = prevIndex != null ? pendingUpdates.get(prevIndex) : null;
+
+			if (prev != null && hasSameNames(prev.data(), dbUser)) {
+				// only presence and last seen time differ, which the newer update overwrites anyway; keep the older
+				// lastActiveTime since it applies to the name change the previous update may record
+				pendingUpdates.set(prevIndex, new UserUpdate(dbUser, time, prev.lastActiveTime()));
+			} else {
+				pendingUpdateIndices.put(dbUser.id(), pendingUpdates.size());
+				pendingUpdates.add(update);
+			}
 
-		try {
-			UserQueries.updateNewUsers(bot.getDatabase(), Collections.singletonList(dbUser), false, wasPresent ? System.currentTimeMillis() : 0);
-		} catch (SQLException e) {
-			throw new RuntimeException(e);
+			if (updateFlushFuture == null) {
+				updateFlushFuture = bot.getScheduledExecutor().schedule(this::flushUserUpdates, updateFlushDelayMs, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private static boolean hasSameNames(SessionDiscordUserData a, SessionDiscordUserData b) {
+		return a.username().equals(b.username())
+				&& a.discriminator().equals(b.discriminator())
+				&& Objects.equals(a.nickname(), b.nickname());
+	}
+
+	private boolean hasPendingUpdate(long discordUserId) {
+		synchronized (pendingUpdates) {
+			if (pendingUpdateIndices.containsKey(discordUserId)) return true;
+
+			for (UserUpdate update : flushingUpdates) {
+				if (update.data().id() == discordUserId) return true;
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Drop queued member event updates that aren't newer than the supplied time, as a complete member list supersedes them.
+	 */
+	private void discardUserUpdates(long maxTime) {
+		synchronized (pendingUpdates) {
+			if (!pendingUpdates.removeIf(update -> update.time() <= maxTime)) return;
+
+			pendingUpdateIndices.clear();
+
+			for (int i = 0; i < pendingUpdates.size(); i++) {
+				pendingUpdateIndices.put(pendingUpdates.get(i).data().id(), i);
+			}
+		}
+	}
+
+	/**
+	 * Write all queued member event updates to the db in one transaction.
+	 */
+	private void flushUserUpdates() {
+		synchronized (updateFlushLock) {
+			List<UserUpdate> updates;
+
+			synchronized (pendingUpdates) {
+				if (updateFlushFuture != null) {
+					updateFlushFuture.cancel(false);
+					updateFlushFuture = null;
+				}
+
+				if (pendingUpdates.isEmpty()) return;
+
+				updates = new ArrayList<>(pendingUpdates);
+				pendingUpdates.clear();
+				pendingUpdateIndices.clear();
+				flushingUpdates = updates;
+			}
+
+			try {
+				UserQueries.updateUsers(bot.getDatabase(), updates);
+			} catch (Throwable t) {
+				LOGGER.warn("Writing {} user updates failed", updates.size(), t);
+			} finally {
+				synchronized (pendingUpdates) {
+					flushingUpdates = Collections.emptyList();
+				}
+			}
 		}
 	}
 
@@ -59,6 +59,8 @@ public final class GroupCommand extends Command {
 					throw new CommandException("The user is already in the group");
 				}
 
+				context.bot().getUserHandler().invalidatePermissions();
+
 				context.channel().send("User %s added to group".formatted(context.bot().getUserHandler().formatUser(userId, context.server())));
 				return true;
 			case "remove":
@@ -66,6 +68,8 @@ public final class GroupCommand extends Command {
 					throw new CommandException("The user wasn't in the group");
 				}
 
+				context.bot().getUserHandler().invalidatePermissions();
+
 				context.channel().send("User %s removed from group".formatted(context.bot().getUserHandler().formatUser(userId, context.server())));
 				return true;
 			}
@@ -104,6 +108,8 @@ public final class GroupCommand extends Command {
 					throw new CommandException("No such group");
 				}
 
+				context.bot().getUserHandler().invalidatePermissions();
+
 				context.channel().send("Group removed");
 				return true;
 			case "listsub":
@@ -114,6 +120,8 @@ public final class GroupCommand extends Command {
 					throw new CommandException("The group relation already exists");
 				}
 
+				context.bot().getUserHandler().invalidatePermissions();
+
 				context.channel().send("Group relation added");
 				return true;
 			case "removesub":
@@ -121,6 +129,8 @@ public final class GroupCommand extends Command {
 					throw new CommandException("The group relation already exists");
 				}
 
+				context.bot().getUserHandler().invalidatePermissions();
+
 				context.channel().send("Group relation added");
 				return true;
 			}
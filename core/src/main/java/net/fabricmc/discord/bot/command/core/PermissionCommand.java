@@ -51,6 +51,8 @@ public final class PermissionCommand extends Command {
 				throw new CommandException("The entry already exists");
 			}
 
+			context.bot().getUserHandler().invalidatePermissions();
+
 			context.channel().send("Entry added");
 			return true;
 		case "remove":
@@ -58,6 +60,8 @@ public final class PermissionCommand extends Command {
 				throw new CommandException("No such entry");
 			}
 
+			context.bot().getUserHandler().invalidatePermissions();
+
 			context.channel().send("Entry removed");
 			return true;
 		default:
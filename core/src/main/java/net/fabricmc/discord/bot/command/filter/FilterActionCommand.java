@@ -81,6 +81,7 @@ public final class FilterActionCommand extends Command {
 				throw new CommandException("Filter action removal failed, unknown name");
 			}
 
+			context.bot().getFilterHandler().reloadFilters();
 			context.channel().send("Filter action removed");
 
 			return true;
@@ -89,6 +90,7 @@ public final class FilterActionCommand extends Command {
 				throw new CommandException("Filter action action update failed, unknown name");
 			}
 
+			context.bot().getFilterHandler().reloadFilterGroups();
 			context.channel().send("Filter action action updated");
 
 			return true;
@@ -27,14 +27,28 @@ import net.fabricmc.discord.bot.command.CommandContext;
 import net.fabricmc.discord.bot.command.CommandException;
 import net.fabricmc.discord.bot.database.query.FilterQueries;
 import net.fabricmc.discord.bot.database.query.FilterQueries.FilterEntry;
+import net.fabricmc.discord.bot.filter.FilterHandler;
+import net.fabricmc.discord.bot.filter.FilterHandler.FilterCost;
 import net.fabricmc.discord.bot.filter.FilterHandler.FilterImportResult;
+import net.fabricmc.discord.bot.filter.FilterHandler.FilterProfile;
+import net.fabricmc.discord.bot.filter.FilterHandler.FilterTestResult;
+import net.fabricmc.discord.bot.filter.FilterHandler.FilterTestSample;
+import net.fabricmc.discord.bot.filter.FilterPipeline;
+import net.fabricmc.discord.bot.filter.FilterProfiler.CostSnapshot;
 import net.fabricmc.discord.bot.filter.FilterType;
 import net.fabricmc.discord.bot.message.Paginator;
 import net.fabricmc.discord.bot.util.FormatUtil;
 import net.fabricmc.discord.bot.util.FormatUtil.OutputType;
+import net.fabricmc.discord.io.Channel;
+import net.fabricmc.discord.io.DiscordException;
 
 public final class FilterCommand extends Command {
 	private static final int LIST_PAGE_ENTRIES = 20;
+	private static final int TEST_SAMPLES = 10;
+	private static final int TEST_SAMPLES_SHOWN = 5;
+	private static final int TEST_PATTERNS_SHOWN = 10;
+	private static final int TEST_CONTENT_PREVIEW_MAXLEN = 100;
+	private static final int STATS_FILTERS_SHOWN = 10;
 
 	@Override
 	public String name() {
@@ -43,7 +57,7 @@ public final class FilterCommand extends Command {
 
 	@Override
 	public String usage() {
-		return "list <group> | add <group> <type> <pattern> | import <group> <type> [<contentUrl>] | remove <id> | clear <group> | setpattern <id> <pattern> | setgroup <id> <group>";
+		return "list <group> | add <group> <type> <pattern> | import <group> <type> [<contentUrl>] | remove <id> | clear <group> | setpattern <id> <pattern> | setgroup <id> <group> | test <type> <pattern> | testimport <type> [<contentUrl>] | stats";
 	}
 
 	@Override
@@ -101,7 +115,7 @@ public final class FilterCommand extends Command {
 			int id = FilterQueries.addFilter(context.bot().getDatabase(), type, pattern, arguments.get("group"));
 			if (id < 0) throw new CommandException("Filter addition failed, invalid group or conflicting with another filter");
 
-			context.bot().getFilterHandler().reloadFilters();
+			context.bot().getFilterHandler().reloadFilter(id);
 			context.channel().send("Filter %d added".formatted(id));
 
 			return true;
@@ -123,15 +137,18 @@ public final class FilterCommand extends Command {
 
 			return true;
 		}
-		case "remove":
-			if (!FilterQueries.removeFilter(context.bot().getDatabase(), Integer.parseInt(arguments.get("id")))) {
+		case "remove": {
+			int id = Integer.parseInt(arguments.get("id"));
+
+			if (!FilterQueries.removeFilter(context.bot().getDatabase(), id)) {
 				throw new CommandException("Filter removal failed, unknown id");
 			}
 
-			context.bot().getFilterHandler().reloadFilters();
+			context.bot().getFilterHandler().reloadFilter(id);
 			context.channel().send("Filter removed");
 
 			return true;
+		}
 		case "clear": {
 			int count = FilterQueries.removeFilters(context.bot().getDatabase(), arguments.get("group"));
 			if (count == 0) throw new CommandException("Filter removal failed, unknown/empty group");
@@ -153,22 +170,170 @@ public final class FilterCommand extends Command {
 				throw new CommandException("Pattern update failed, unknown filter id");
 			}
 
-			context.bot().getFilterHandler().reloadFilters();
+			context.bot().getFilterHandler().reloadFilter(id);
 			context.channel().send("Filter pattern updated");
 
 			return true;
 		}
-		case "setgroup":
-			if (!FilterQueries.setFilterGroup(context.bot().getDatabase(), Integer.parseInt(arguments.get("id")), arguments.get("group"))) {
+		case "setgroup": {
+			int id = Integer.parseInt(arguments.get("id"));
+
+			if (!FilterQueries.setFilterGroup(context.bot().getDatabase(), id, arguments.get("group"))) {
 				throw new CommandException("Group update failed, unknown filter id or group name");
 			}
 
-			context.bot().getFilterHandler().reloadFilters();
+			context.bot().getFilterHandler().reloadFilter(id);
 			context.channel().send("Filter group updated");
 
 			return true;
 		}
+		case "test": {
+			FilterType type = FilterType.get(arguments.get("type"));
+			String pattern = type.normalizePattern(arguments.get("pattern"));
+			if (pattern.isBlank()) throw new CommandException("blank pattern");
+			type.compile(pattern); // test-compile to report errors instead of an empty result
+
+			sendTestResult(context, context.bot().getFilterHandler().testFilters(type, Collections.singletonList(pattern), TEST_SAMPLES));
+
+			return true;
+		}
+		case "testimport": {
+			FilterType type = FilterType.get(arguments.get("type"));
+			String content = retrieveContent(context, arguments.get("contentUrl")).trim();
+			FilterTestResult result = context.bot().getFilterHandler().testFilters(content, type, TEST_SAMPLES);
+
+			sendTestResult(context, result);
+
+			return true;
+		}
+		case "stats": {
+			FilterHandler handler = context.bot().getFilterHandler();
+			FilterPipeline.Stats pipeline = handler.getPipelineStats();
+			StringBuilder sb = new StringBuilder();
+
+			sb.append(String.format("**Pipeline:** %d / %d queued (max %d), %d active channels, %d processed (%d failed), %s avg, %d blocked submissions (%d ms)\n",
+					pipeline.queueDepth(), pipeline.capacity(), pipeline.maxQueueDepth(), pipeline.activeChannels(),
+					pipeline.processed(), pipeline.failed(),
+					formatNs(pipeline.processed() > 0 ? pipeline.processingTimeUs() * 1000 / pipeline.processed() : 0),
+					pipeline.blockedSubmissions(), pipeline.blockedTimeMs()));
+
+			FilterProfile profile = handler.getProfile();
+
+			if (profile == null) {
+				sb.append("Profiling disabled, enable with -DfabricBot.filterProfiling=true");
+			} else if (profile.sampledMessages() == 0) {
+				sb.append("No profiled messages yet");
+			} else {
+				long messages = profile.sampledMessages();
+				sb.append(String.format("**Per type (%d profiled messages):**", messages));
+
+				for (Map.Entry<FilterType, CostSnapshot> entry : profile.types().entrySet()) {
+					CostSnapshot cost = entry.getValue();
+					if (cost.evaluations() == 0 && cost.timeNs() == 0) continue;
+
+					sb.append(String.format("\n%s: %s/msg, %d evaluations, %.3f%% matching",
+							entry.getKey().id,
+							formatNs(cost.timeNs() / messages),
+							cost.evaluations(),
+							cost.evaluations() > 0 ? 100.0 * cost.matches() / cost.evaluations() : 0.0));
+				}
+
+				sb.append("\n**Most expensive filters:**");
+				int count = 0;
+
+				for (FilterCost filter : profile.filters()) {
+					if (count >= STATS_FILTERS_SHOWN || filter.cost().timeNs() == 0) break; // the rest is only handled by combined matchers
+					count++;
+
+					sb.append(String.format("\n`%d` %s %s: %s/eval, %s total, %.3f%% matching",
+							filter.filter().id(),
+							filter.filter().type().id,
+							FormatUtil.escape(FormatUtil.truncate(filter.filter().pattern(), TEST_CONTENT_PREVIEW_MAXLEN), OutputType.INLINE_CODE, true),
+							formatNs(filter.cost().timeNs() / Math.max(1, filter.cost().evaluations())),
+							formatNs(filter.cost().timeNs()),
+							filter.cost().evaluations() > 0 ? 100.0 * filter.cost().matches() / filter.cost().evaluations() : 0.0));
+				}
+
+				if (count == 0) sb.append(" none individually evaluated");
+
+				sb.append("\n**Time per message:**");
+				long[] histogram = profile.histogram();
+
+				for (int i = 0; i < histogram.length; i++) {
+					if (histogram[i] == 0) continue;
+
+					sb.append(String.format("\n< %s: %d (%.1f%%)",
+							formatNs(1L << i),
+							histogram[i],
+							100.0 * histogram[i] / messages));
+				}
+			}
+
+			context.channel().send(FormatUtil.truncateMessage(sb.toString(), 0));
+
+			return true;
+		}
+		}
 
 		throw new IllegalStateException();
 	}
+
+	private static String formatNs(long ns) {
+		if (ns < 1_000) {
+			return ns+" ns";
+		} else if (ns < 1_000_000) {
+			return String.format("%.1f µs", ns * 1e-3);
+		} else if (ns < 1_000_000_000) {
+			return String.format("%.1f ms", ns * 1e-6);
+		} else {
+			return String.format("%.1f s", ns * 1e-9);
+		}
+	}
+
+	private static void sendTestResult(CommandContext context, FilterTestResult result) throws DiscordException {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Replayed %d cached messages, %d would match (%.2f%%)\n",
+				result.messages(),
+				result.matchedMessages(),
+				result.messages() > 0 ? 100.0 * result.matchedMessages() / result.messages() : 0.0));
+		sb.append(String.format("Compilation: %.1f ms, evaluation per message: p50 %.1f µs, p99 %.1f µs\n",
+				result.compileTimeUs() * 1e-3,
+				result.p50TimeNs() * 1e-3,
+				result.p99TimeNs() * 1e-3));
+
+		if (!result.hits().isEmpty()) {
+			List<Map.Entry<String, Integer>> hits = new ArrayList<>(result.hits().entrySet());
+			hits.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+			sb.append(String.format("**Top patterns (%d matching):**", hits.size()));
+
+			for (int i = 0; i < Math.min(hits.size(), TEST_PATTERNS_SHOWN); i++) {
+				sb.append(String.format("\n%s: %dx",
+						FormatUtil.escape(FormatUtil.truncate(hits.get(i).getKey(), TEST_CONTENT_PREVIEW_MAXLEN), OutputType.INLINE_CODE, true),
+						hits.get(i).getValue()));
+			}
+
+			sb.append('\n');
+		}
+
+		int shown = 0;
+
+		for (FilterTestSample sample : result.samples()) {
+			if (shown >= TEST_SAMPLES_SHOWN) break;
+
+			Channel channel = context.server().getTextChannel(sample.channelId());
+			if (channel == null || !channel.canSee(context.user())) continue; // don't leak content from channels the user can't see
+
+			if (shown++ == 0) sb.append("**Samples:**");
+
+			String content = sample.content().replaceAll("\\s+", " ").trim();
+
+			sb.append(String.format("\n<#%d> `%d` by <@!%d>: %s",
+					sample.channelId(),
+					sample.messageId(),
+					sample.authorId(),
+					FormatUtil.escape(FormatUtil.truncate(content, TEST_CONTENT_PREVIEW_MAXLEN), OutputType.INLINE_CODE, true)));
+		}
+
+		context.channel().send(FormatUtil.truncateMessage(sb.toString(), 0));
+	}
 }
@@ -75,6 +75,7 @@ public final class FilterGroupCommand extends Command {
 				throw new CommandException("Filter group removal failed, unknown name");
 			}
 
+			context.bot().getFilterHandler().reloadFilters();
 			context.channel().send("Filter group removed");
 
 			return true;
@@ -83,6 +84,7 @@ public final class FilterGroupCommand extends Command {
 				throw new CommandException("Filter group action update failed, unknown name or unknown action");
 			}
 
+			context.bot().getFilterHandler().reloadFilterGroups();
 			context.channel().send("Filter group action updated");
 
 			return true;
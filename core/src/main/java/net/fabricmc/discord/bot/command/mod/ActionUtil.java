@@ -346,6 +346,7 @@ public final class ActionUtil {
 		}
 
 		ActionQueries.expireAction(bot.getDatabase(), entry.id());
+		bot.getActionSyncHandler().onActionExpiration(entry.id());
 
 		announceAction(entry.type(), true, "(expiration)", "automatically",
 				entry.targetId(),
@@ -28,6 +28,7 @@ import java.util.Map;
 import net.fabricmc.discord.bot.UserHandler;
 import net.fabricmc.discord.bot.command.Command;
 import net.fabricmc.discord.bot.command.CommandContext;
+import net.fabricmc.discord.bot.database.Database.Stats;
 import net.fabricmc.discord.bot.util.FormatUtil;
 
 public final class DbCommand extends Command {
@@ -38,7 +39,7 @@ public final class DbCommand extends Command {
 
 	@Override
 	public String usage() {
-		return "<table>";
+		return "stats | <table>";
 	}
 
 	@Override
@@ -48,10 +49,25 @@ public final class DbCommand extends Command {
 
 	@Override
 	public boolean run(CommandContext context, Map<String, String> arguments) throws Exception {
+		if (!arguments.containsKey("table")) { // stats
+			Stats stats = context.bot().getDatabase().getStats();
+
+			context.channel().send(String.format("WAL mode: %s\n"
+					+ "Writer queue: %d (max %d)\n"
+					+ "Writer acquisitions: %d, waited %d ms total, %d ms max\n"
+					+ "Reader acquisitions: %d, waited %d ms total",
+					stats.walMode(),
+					stats.writerQueueDepth(), stats.maxWriterQueueDepth(),
+					stats.writerAcquisitions(), stats.writerWaitTimeMs(), stats.maxWriterWaitMs(),
+					stats.readAcquisitions(), stats.readWaitTimeMs()));
+
+			return true;
+		}
+
 		List<String> values = new ArrayList<>();
 		int cols;
 
-		try (Connection conn = context.bot().getDatabase().getConnection();
+		try (Connection conn = context.bot().getDatabase().getReadConnection();
 				Statement st = conn.createStatement()) {
 			try (ResultSet res = st.executeQuery("SELECT * FROM `%s`".formatted(arguments.get("table").replace('`', ' ')))) {
 				ResultSetMetaData meta = res.getMetaData();
@@ -16,15 +16,19 @@
 
 package net.fabricmc.discord.bot.command.util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletionException;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import org.jetbrains.annotations.Nullable;
 
+import net.fabricmc.discord.bot.AttachmentStore;
 import net.fabricmc.discord.bot.UserHandler;
 import net.fabricmc.discord.bot.command.Command;
 import net.fabricmc.discord.bot.command.CommandContext;
@@ -102,18 +106,15 @@ public final class ExportChannelCommand extends Command {
 
 			if (embedData) {
 				try {
-					obj.addProperty("data", Base64.getEncoder().encodeToString(attachment.getBytes()));
-				} catch (CompletionException e) {
-					Throwable cause = e.getCause();
-
-					if (cause != null) {
-						cause.printStackTrace();
-						context.channel().send(String.format("Error fetching data from %s: %s",
-								FormatUtil.escape(attachment.getUrl().toString(), OutputType.INLINE_CODE, true),
-								FormatUtil.escapePlain(attachment.getUrl().toString())));
-					} else {
-						e.printStackTrace();
-					}
+					byte[] data = readAttachment(context.bot().getAttachmentStore(), attachment);
+					if (data == null) throw new IOException("attachment unavailable");
+
+					obj.addProperty("data", Base64.getEncoder().encodeToString(data));
+				} catch (IOException | InterruptedException | URISyntaxException e) {
+					e.printStackTrace();
+					context.channel().send(String.format("Error fetching data from %s: %s",
+							FormatUtil.escape(attachment.getUrl().toString(), OutputType.INLINE_CODE, true),
+							FormatUtil.escapePlain(e.toString())));
 				}
 			}
 
@@ -141,6 +142,19 @@ public final class ExportChannelCommand extends Command {
 		}
 	}
 
+	private static @Nullable byte[] readAttachment(AttachmentStore store, MessageAttachment attachment) throws IOException, InterruptedException, URISyntaxException {
+		if (!store.canStore(attachment.getSize())) return attachment.getBytes();
+
+		String hash = store.download(attachment.getUrl().toString(), attachment.getSize());
+		if (hash == null) return null;
+
+		try (InputStream is = store.open(hash)) {
+			if (is != null) return is.readAllBytes();
+		}
+
+		return attachment.getBytes(); // evicted right away
+	}
+
 	static void uploadExport(CommandContext context, CharSequence data) throws DiscordException {
 		Message msg = context.channel().send(new Message.Builder()
 				.attachment(new MessageAttachment.Builder().data(data.toString().getBytes(StandardCharsets.UTF_8)).name("contents.txt").build())
@@ -29,6 +29,7 @@ import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.fabricmc.discord.bot.CachedMessage;
 import net.fabricmc.discord.bot.CachedMessageAttachment;
 import net.fabricmc.discord.bot.MessageIndex;
+import net.fabricmc.discord.bot.MessageIndex.ContentStorageStats;
 import net.fabricmc.discord.bot.command.Command;
 import net.fabricmc.discord.bot.command.CommandContext;
 import net.fabricmc.discord.bot.command.CommandException;
@@ -37,12 +38,14 @@ import net.fabricmc.discord.bot.util.DiscordUtil;
 import net.fabricmc.discord.bot.util.FormatUtil;
 import net.fabricmc.discord.bot.util.FormatUtil.OutputType;
 import net.fabricmc.discord.io.Channel;
+import net.fabricmc.discord.io.DiscordException;
 import net.fabricmc.discord.io.MessageEmbed;
 import net.fabricmc.discord.io.Permission;
 
 public final class MessageCacheCommand extends Command {
 	private static final int LIST_PAGE_ENTRIES = 10;
 	private static final int CONTENT_PREVIEW_MAXLEN = 68;
+	private static final int SEARCH_LIMIT = 500;
 
 	private static final DateTimeFormatter listDateTimeFormatter = DateTimeFormatter.ofPattern("'[`'yyyy-MM-dd'`][`'HH:mm:ss.SSS'`]'", Locale.ENGLISH).withZone(ZoneOffset.UTC);
 
@@ -53,7 +56,7 @@ public final class MessageCacheCommand extends Command {
 
 	@Override
 	public String usage() {
-		return "list <user/channel> | (get|show) <id> | stats";
+		return "list <user/channel> | (get|show) <id> | search <terms...> | stats";
 	}
 
 	@Override
@@ -95,39 +98,19 @@ public final class MessageCacheCommand extends Command {
 				context.channel().send(String.format("No messages for %s", targetDesc));
 			} else {
 				messages.sort(Comparator.comparing(CachedMessage::getCreationTime));
+				sendMessageList(context, "%s Messages".formatted(FormatUtil.capitalize(targetDesc)), messages);
+			}
 
-				Paginator.Builder builder = new Paginator.Builder(context.user()).title("%s Messages".formatted(FormatUtil.capitalize(targetDesc)));
-				StringBuilder sb = new StringBuilder();
-				int count = 0;
-
-				for (CachedMessage message : messages) {
-					if (count % LIST_PAGE_ENTRIES == 0 && count > 0) {
-						builder.page(sb);
-						sb.setLength(0);
-					}
-
-					count++;
-
-					String content = message.getContent().replaceAll("\\s+", " ").trim();
-
-					if (content.length() > CONTENT_PREVIEW_MAXLEN) {
-						content = content.substring(0, CONTENT_PREVIEW_MAXLEN - 2).concat("…");
-					}
-
-					if (sb.length() > 0) sb.append('\n');
-					sb.append(String.format("%s[`%d`][<#%d>][%s]\n%s",
-							listDateTimeFormatter.format(message.getCreationTime()),
-							message.getId(),
-							message.getChannelId(),
-							(message.isDeleted() ? "deleted" : "[link](%s)".formatted(DiscordUtil.getMessageLink(context.server(), message.getChannelId(), message.getId()))),
-							FormatUtil.escape(content, OutputType.INLINE_CODE, true)));
-				}
-
-				if (sb.length() > 0) {
-					builder.page(sb);
-				}
+			return true;
+		}
+		case "search": {
+			String terms = arguments.get("terms");
+			List<CachedMessage> messages = context.bot().getMessageIndex().search(terms, true, SEARCH_LIMIT);
 
-				builder.buildAndSend(context.channel());
+			if (messages.isEmpty()) {
+				context.channel().send("No matching messages");
+			} else {
+				sendMessageList(context, "Messages matching %s".formatted(FormatUtil.escapePlain(FormatUtil.truncate(terms, 100))), messages);
 			}
 
 			return true;
@@ -190,6 +173,16 @@ public final class MessageCacheCommand extends Command {
 			if (sb.length() > 0) sb.append('\n');
 			if (threadsCount > 0) sb.append(String.format("In %d threads: %d\n", threadsCount, threadsTotal));
 			sb.append(String.format("Total: %d\n", total));
+			sb.append(String.format("Allocated slots: %d / %d\n", messageIndex.getAllocatedSlots(), messageIndex.getSlotBudget()));
+
+			ContentStorageStats contentStats = messageIndex.getContentStorageStats();
+
+			if (contentStats != null) {
+				sb.append(String.format("Content storage: %d KiB in %d slabs (%d compressed), %.1f bytes/message\n",
+						contentStats.bytes() / 1024, contentStats.slabs(), contentStats.compressedSlabs(),
+						total > 0 ? (double) contentStats.bytes() / total : 0.0));
+			}
+
 			sb.append(String.format("Init progress: %.1f%%", messageIndex.getInitProgressPct()));
 
 			context.channel().send(sb.toString());
@@ -200,4 +193,39 @@ public final class MessageCacheCommand extends Command {
 
 		throw new IllegalStateException();
 	}
+
+	private static void sendMessageList(CommandContext context, String title, List<CachedMessage> messages) throws DiscordException {
+		Paginator.Builder builder = new Paginator.Builder(context.user()).title(title);
+		StringBuilder sb = new StringBuilder();
+		int count = 0;
+
+		for (CachedMessage message : messages) {
+			if (count % LIST_PAGE_ENTRIES == 0 && count > 0) {
+				builder.page(sb);
+				sb.setLength(0);
+			}
+
+			count++;
+
+			String content = message.getContent().replaceAll("\\s+", " ").trim();
+
+			if (content.length() > CONTENT_PREVIEW_MAXLEN) {
+				content = content.substring(0, CONTENT_PREVIEW_MAXLEN - 2).concat("…");
+			}
+
+			if (sb.length() > 0) sb.append('\n');
+			sb.append(String.format("%s[`%d`][<#%d>][%s]\n%s",
+					listDateTimeFormatter.format(message.getCreationTime()),
+					message.getId(),
+					message.getChannelId(),
+					(message.isDeleted() ? "deleted" : "[link](%s)".formatted(DiscordUtil.getMessageLink(context.server(), message.getChannelId(), message.getId()))),
+					FormatUtil.escape(content, OutputType.INLINE_CODE, true)));
+		}
+
+		if (sb.length() > 0) {
+			builder.page(sb);
+		}
+
+		builder.buildAndSend(context.channel());
+	}
 }
@@ -56,6 +56,11 @@ public final class ValueSerializers {
 	public static final ValueSerializer<Long> LONG = new LongSerializer();
 	public static final ValueSerializer<List<Long>> LONG_LIST = new ListSerializer<>(LONG);
 
+	/**
+	 * A value serializer which parses booleans, accepting true/false only.
+	 */
+	public static final ValueSerializer<Boolean> BOOLEAN = new BooleanSerializer();
+
 	private ValueSerializers() {
 	}
 
@@ -145,6 +150,21 @@ public final class ValueSerializers {
 		}
 	}
 
+	private static final class BooleanSerializer implements ValueSerializer<Boolean> {
+		@Override
+		public Boolean deserialize(String serialized) throws IllegalArgumentException {
+			if (serialized.equalsIgnoreCase("true")) return true;
+			if (serialized.equalsIgnoreCase("false")) return false;
+
+			throw new IllegalArgumentException("Invalid boolean value: "+serialized);
+		}
+
+		@Override
+		public String serialize(Boolean value) {
+			return Boolean.toString(value);
+		}
+	}
+
 	private static final class ListSerializer<V> implements ValueSerializer<List<V>> {
 		public ListSerializer(ValueSerializer<V> elementSerializer) {
 			this.elementSerializer = elementSerializer;
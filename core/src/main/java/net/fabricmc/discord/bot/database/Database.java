@@ -18,45 +18,174 @@ package net.fabricmc.discord.bot.database;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 public final class Database {
-	static final int currentVersion = 12;
+	static final int currentVersion = 13;
 
 	private static final int preparedStatementCacheSize = 250;
 	private static final int preparedStatementCacheSqlLimit = 2048;
 	private static final int busyTimeoutMs = 10_000;
+	private static final int readPoolSize = 4;
+	private static final int sqliteOpenReadOnly = 0x1; // SQLITE_OPEN_READONLY
 
-	private final HikariDataSource dataSource;
+	private static final Logger LOGGER = LogManager.getLogger(Database.class);
+
+	private final boolean walMode;
+	private final HikariDataSource dataSource; // single writer connection in wal mode
+	private final HikariDataSource readDataSource; // read-only connections in wal mode, otherwise dataSource
+	private final AtomicInteger writerQueueDepth = new AtomicInteger();
+	private final AtomicInteger maxWriterQueueDepth = new AtomicInteger();
+	private final LongAdder writerAcquisitions = new LongAdder();
+	private final LongAdder writerWaitNs = new LongAdder();
+	private final AtomicLong maxWriterWaitNs = new AtomicLong();
+	private final LongAdder readAcquisitions = new LongAdder();
+	private final LongAdder readWaitNs = new LongAdder();
+	private final List<Runnable> preCloseHandlers = new CopyOnWriteArrayList<>();
 
 	public Database(String url) {
-		HikariConfig config = new HikariConfig();
-		config.setJdbcUrl(url);
-		config.addDataSourceProperty("cachePrepStmts", "true");
-		config.addDataSourceProperty("prepStmtCacheSize", Integer.toString(preparedStatementCacheSize));
-		config.addDataSourceProperty("prepStmtCacheSqlLimit", Integer.toString(preparedStatementCacheSqlLimit));
-		config.addDataSourceProperty("noAccessToProcedureBodies", "true");
-		config.addDataSourceProperty("busy_timeout", Integer.toString(busyTimeoutMs));
+		this(url, false);
+	}
+
+	/**
+	 * @param walMode whether to use WAL journaling with one dedicated writer connection and a pool of read-only connections
+	 */
+	public Database(String url, boolean walMode) {
+		this.walMode = walMode;
+
+		HikariConfig config = createConfig(url);
+
+		if (walMode) {
+			// writers queue for the connection instead of contending for the db lock through busy_timeout
+			config.setPoolName("db-writer");
+			config.setMaximumPoolSize(1);
+			config.addDataSourceProperty("journal_mode", "WAL");
+			config.addDataSourceProperty("synchronous", "NORMAL"); // WAL stays consistent with this, only the latest commits may be lost on power loss
+		}
 
 		dataSource = new HikariDataSource(config);
 
 		DbMigration.run(this);
 
-		Runtime.getRuntime().addShutdownHook(new Thread() {
+		if (walMode) {
+			HikariConfig readConfig = createConfig(url);
+			readConfig.setPoolName("db-reader");
+			readConfig.setMaximumPoolSize(readPoolSize);
+			readConfig.addDataSourceProperty("open_mode", Integer.toString(sqliteOpenReadOnly));
+			readConfig.setReadOnly(true); // must match the connection state, sqlite-jdbc can't toggle it after opening
+
+			readDataSource = new HikariDataSource(readConfig);
+		} else {
+			readDataSource = dataSource;
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread("db close") {
 			@Override
 			public void run() {
-				dataSource.close();
+				for (Runnable handler : preCloseHandlers) {
+					try {
+						handler.run();
+					} catch (Throwable t) {
+						LOGGER.warn("Pre-close handler failed", t);
+					}
+				}
+
+				close();
 			}
 		});
 	}
 
+	/**
+	 * Register a handler to run on shutdown before the database gets closed, e.g. to write pending data.
+	 *
+	 * <p>The handlers run in registration order.
+	 */
+	public void registerPreCloseHandler(Runnable handler) {
+		preCloseHandlers.add(handler);
+	}
+
+	private static HikariConfig createConfig(String url) {
+		HikariConfig config = new HikariConfig();
+		config.setJdbcUrl(url);
+		config.addDataSourceProperty("cachePrepStmts", "true");
+		config.addDataSourceProperty("prepStmtCacheSize", Integer.toString(preparedStatementCacheSize));
+		config.addDataSourceProperty("prepStmtCacheSqlLimit", Integer.toString(preparedStatementCacheSqlLimit));
+		config.addDataSourceProperty("noAccessToProcedureBodies", "true");
+		config.addDataSourceProperty("busy_timeout", Integer.toString(busyTimeoutMs));
+
+		return config;
+	}
+
+	/**
+	 * Get a connection for reading and writing.
+	 *
+	 * <p>In WAL mode this waits for the single writer connection, so the caller must not already hold one.
+	 */
 	public Connection getConnection() throws SQLException {
-		return dataSource.getConnection();
+		maxWriterQueueDepth.accumulateAndGet(writerQueueDepth.incrementAndGet(), Math::max);
+		long start = System.nanoTime();
+
+		try {
+			return dataSource.getConnection();
+		} finally {
+			long waitNs = System.nanoTime() - start;
+			writerQueueDepth.decrementAndGet();
+			writerAcquisitions.increment();
+			writerWaitNs.add(waitNs);
+			maxWriterWaitNs.accumulateAndGet(waitNs, Math::max);
+		}
+	}
+
+	/**
+	 * Get a connection for queries that don't write, which don't have to wait for writers in WAL mode.
+	 */
+	public Connection getReadConnection() throws SQLException {
+		if (!walMode) return getConnection();
+
+		long start = System.nanoTime();
+
+		try {
+			return readDataSource.getConnection();
+		} finally {
+			readAcquisitions.increment();
+			readWaitNs.add(System.nanoTime() - start);
+		}
+	}
+
+	public Stats getStats() {
+		return new Stats(walMode,
+				writerQueueDepth.get(), maxWriterQueueDepth.get(),
+				writerAcquisitions.sum(), TimeUnit.NANOSECONDS.toMillis(writerWaitNs.sum()), TimeUnit.NANOSECONDS.toMillis(maxWriterWaitNs.get()),
+				readAcquisitions.sum(), TimeUnit.NANOSECONDS.toMillis(readWaitNs.sum()));
 	}
 
 	public void close() {
+		if (readDataSource != dataSource) readDataSource.close();
 		dataSource.close();
 	}
+
+	/**
+	 * @param walMode whether WAL mode with a dedicated writer connection is active, otherwise all connections count as writers
+	 * @param writerQueueDepth threads currently waiting for a writer connection
+	 * @param maxWriterQueueDepth highest writer queue depth seen so far
+	 * @param writerAcquisitions writer connections handed out so far
+	 * @param writerWaitTimeMs total time spent waiting for writer connections, i.e. for the db write lock in WAL mode
+	 * @param maxWriterWaitMs longest single wait for a writer connection
+	 * @param readAcquisitions read-only connections handed out so far, 0 outside WAL mode
+	 * @param readWaitTimeMs total time spent waiting for read-only connections
+	 */
+	public record Stats(boolean walMode,
+			int writerQueueDepth, int maxWriterQueueDepth,
+			long writerAcquisitions, long writerWaitTimeMs, long maxWriterWaitMs,
+			long readAcquisitions, long readWaitTimeMs) { }
 }
@@ -71,6 +71,7 @@ final class DbMigration {
 			case 9: migrate_9_10(st);
 			case 10: migrate_10_11(st);
 			case 11: migrate_11_12(st);
+			case 12: migrate_12_13(st);
 			}
 
 			st.executeUpdate(String.format("REPLACE INTO `config` VALUES ('dbVersion', '%d')", Database.currentVersion));
@@ -294,4 +295,11 @@ final class DbMigration {
 
 		st.executeUpdate("CREATE TABLE `globalfilterlistexception` (`id` INTEGER PRIMARY KEY, `type` TEXT, `pattern` TEXT, `reason` TEXT, UNIQUE(`type`, `pattern`))");
 	}
+
+	private static void migrate_12_13(Statement st) throws SQLException {
+		st.executeUpdate("ALTER TABLE `filterlist` ADD COLUMN `etag` TEXT");
+		st.executeUpdate("ALTER TABLE `filterlist` ADD COLUMN `lastmodified` TEXT");
+		st.executeUpdate("ALTER TABLE `filter` ADD COLUMN `filterlist_id` INTEGER");
+		st.executeUpdate("CREATE INDEX `filter_filterlist_id` ON `filter` (`filterlist_id`)");
+	}
 }
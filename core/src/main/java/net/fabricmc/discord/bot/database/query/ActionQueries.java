@@ -17,6 +17,7 @@
 package net.fabricmc.discord.bot.database.query;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -40,7 +41,7 @@ public final class ActionQueries {
 
 		int rawActionId = IdArmor.decodeOrThrow(actionId, "action id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT "
 						+ "a.targetkind, a.type, d.data, d.resetdata, a.target_id, a.actor_user_id, a.creation, a.expiration, a.reason, a.context_message_id, a.prev_id, s.suspender_user_id, s.time, s.reason "
 						+ "FROM `action` a "
@@ -85,7 +86,7 @@ public final class ActionQueries {
 
 		long rawTargetId = IdArmor.decodeOrThrowCond(targetId, kind.useEncodedTargetId, "target id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT a.id, a.targetkind, a.type, d.data, d.resetdata, a.actor_user_id, a.creation, a.expiration, a.reason, a.context_message_id, a.prev_id, s.suspender_user_id, s.time, s.reason "
 						+ "FROM `action` a "
 						+ "LEFT JOIN `actiondata` d ON d.action_id = a.id "
@@ -225,8 +226,8 @@ public final class ActionQueries {
 				byte[] data = null;
 
 				if (attachment.getSize() <= maxSize) {
-					try {
-						data = attachment.getData(false);
+					try (InputStream is = attachment.openData(true)) {
+						if (is != null) data = is.readAllBytes();
 					} catch (IOException | InterruptedException | URISyntaxException e) {
 						e.printStackTrace();
 					}
@@ -292,7 +293,7 @@ public final class ActionQueries {
 	public static Collection<ExpiringActionEntry> getExpiringActions(Database db, long maxTime) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT "
 						+ "a.id, a.targetkind, a.type, d.data, d.resetdata, a.target_id, a.expiration "
 						+ "FROM `actionexpiration` e "
@@ -329,7 +330,7 @@ public final class ActionQueries {
 
 		int rawActionId = IdArmor.decodeOrThrow(actionId, "action id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM `actionexpiration` WHERE action_id = ?")) {
 			ps.setInt(1, rawActionId);
 
@@ -400,7 +401,7 @@ public final class ActionQueries {
 
 		long rawTargetId = IdArmor.decodeOrThrowCond(targetId, type.getKind().useEncodedTargetId, "target id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT a.id, d.data, d.resetdata, a.expiration, a.reason "
 						+ "FROM `activeaction` aa "
 						+ "JOIN `action` a ON a.id = aa.action_id "
@@ -431,7 +432,7 @@ public final class ActionQueries {
 
 		long rawTargetId = IdArmor.decodeOrThrowCond(targetId, kind.useEncodedTargetId, "target id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT a.id, a.type, d.data, d.resetdata, a.expiration, a.reason "
 						+ "FROM `activeaction` aa "
 						+ "JOIN `action` a ON a.id = aa.action_id "
@@ -462,40 +463,46 @@ public final class ActionQueries {
 		}
 	}
 
-	public static Collection<ActiveActionEntry> getActiveDiscordUserActions(Database db, long discordUserId) throws SQLException {
+	/**
+	 * Get all active user actions for every discord user associated with their target user.
+	 */
+	public static Collection<DiscordUserActiveActionEntry> getActiveDiscordUserActions(Database db) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
-				PreparedStatement ps = conn.prepareStatement("SELECT a.id, a.type, a.target_id, a.expiration, a.reason "
-						+ "FROM `discorduser` du "
-						+ "JOIN `activeaction` aa ON aa.target_id = du.user_id "
+		try (Connection conn = db.getReadConnection();
+				PreparedStatement ps = conn.prepareStatement("SELECT du.id, a.id, a.type, d.data, d.resetdata, a.target_id, a.expiration, a.reason "
+						+ "FROM `activeaction` aa "
 						+ "JOIN `action` a ON a.id = aa.action_id "
-						+ "WHERE du.id = ? AND a.targetkind = '"+ActionType.Kind.USER.id+"'")) {
-			ps.setLong(1, discordUserId);
+						+ "LEFT JOIN `actiondata` d ON d.action_id = aa.action_id "
+						+ "JOIN `discorduser` du ON du.user_id = a.target_id "
+						+ "WHERE a.targetkind = '"+ActionType.Kind.USER.id+"'")) {
+			List<DiscordUserActiveActionEntry> ret = new ArrayList<>();
 
 			try (ResultSet res = ps.executeQuery()) {
-				if (!res.next()) return Collections.emptyList();
-
-				List<ActiveActionEntry> ret = new ArrayList<>();
-
-				do {
-					ret.add(new ActiveActionEntry(IdArmor.encode(res.getInt(1)), // id
-							ActionType.get(ActionType.Kind.USER.id, res.getString(2)), // type
-							null, // data
-							IdArmor.encode(res.getInt(3)), // targetId
-							res.getLong(4), // expirationTime
-							res.getString(5))); // reason
-				} while (res.next());
+				while (res.next()) {
+					long dataVal = res.getLong(4);
+					ActionData data = res.wasNull() ? null : new ActionData(dataVal, res.getLong(5));
 
-				return ret;
+					ret.add(new DiscordUserActiveActionEntry(res.getLong(1), // discordUserId
+							new ActiveActionEntry(IdArmor.encode(res.getInt(2)), // id
+									ActionType.get(ActionType.Kind.USER.id, res.getString(3)), // type
+									data, // data
+									IdArmor.encode(res.getInt(6)), // targetId
+									res.getLong(7), // expirationTime
+									res.getString(8)))); // reason
+				}
 			}
+
+			return ret;
 		}
 	}
 
+	public record DiscordUserActiveActionEntry(long discordUserId, ActiveActionEntry action) { }
+
 	public static Collection<ActiveActionEntry> getActiveActions(Database db) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT a.id, a.targetkind, a.type, d.data, d.resetdata, a.target_id, du.id, a.expiration, a.reason "
 						+ "FROM `activeaction` aa "
 						+ "JOIN `action` a ON a.id = aa.action_id "
@@ -528,7 +535,7 @@ public final class ActionQueries {
 	public static String getLockedNick(Database db, long discordUserId) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT nick FROM `nicklock` WHERE discorduser_id = ?")) {
 			ps.setLong(1, discordUserId);
 
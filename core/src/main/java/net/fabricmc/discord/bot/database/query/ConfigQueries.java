@@ -29,7 +29,7 @@ public final class ConfigQueries {
 	public static Map<String, String> getAll(Database db) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("""
 						SELECT `key`, `value` FROM `config`
 						""")) {
@@ -49,7 +49,7 @@ public final class ConfigQueries {
 		if (db == null) throw new NullPointerException("null db");
 		if (key == null) throw new NullPointerException("null key");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("""
 						SELECT `value` FROM `config` WHERE `key` = ?
 						""")) {
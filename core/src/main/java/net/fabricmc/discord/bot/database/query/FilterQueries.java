@@ -25,7 +25,10 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.fabricmc.discord.bot.database.Database;
 import net.fabricmc.discord.bot.database.IdArmor;
@@ -36,8 +39,8 @@ public final class FilterQueries {
 	public static Collection<FilterEntry> getFilters(Database db) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
-				PreparedStatement ps = conn.prepareStatement("SELECT id, type, pattern, filtergroup_id, hits FROM `filter`")) {
+		try (Connection conn = db.getReadConnection();
+				PreparedStatement ps = conn.prepareStatement("SELECT id, type, pattern, filtergroup_id, hits FROM `filter` ORDER BY id")) {
 			try (ResultSet res = ps.executeQuery()) {
 				List<FilterEntry> ret = new ArrayList<>();
 
@@ -50,34 +53,49 @@ public final class FilterQueries {
 		}
 	}
 
-	public static FilterData handleFilterHit(Database db, FilterEntry filter) throws SQLException {
+	/**
+	 * @return group id -> group name and action data for all groups
+	 */
+	public static Map<Integer, FilterData> getFilterData(Database db) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
-		if (filter == null) throw new NullPointerException("null filter");
-
-		int rawFilterId = IdArmor.decodeOrThrow(filter.id(), "filter id");
-		int rawGroupId = IdArmor.decodeOrThrow(filter.groupId(), "group id");
-
-		try (Connection conn = db.getConnection();
-				PreparedStatement psIncHits = conn.prepareStatement("UPDATE `filter` SET hits = hits + 1 WHERE `id` = ?");
-				PreparedStatement psGetData = conn.prepareStatement("SELECT g.name, a.action, a.actiondata FROM filtergroup g, filteraction a WHERE g.id = ? AND a.id = g.filteraction_id")) {
-			conn.setAutoCommit(false);
 
-			psIncHits.setInt(1, rawFilterId);
-			if (psIncHits.executeUpdate() == 0) return null;
+		try (Connection conn = db.getReadConnection();
+				PreparedStatement ps = conn.prepareStatement("SELECT g.id, g.name, a.action, a.actiondata FROM filtergroup g, filteraction a WHERE a.id = g.filteraction_id")) {
+			try (ResultSet res = ps.executeQuery()) {
+				Map<Integer, FilterData> ret = new HashMap<>();
 
-			psGetData.setInt(1, rawGroupId);
+				while (res.next()) {
+					ret.put(IdArmor.encode(res.getInt(1)), new FilterData(res.getString(2), // groupName
+							FilterAction.parse(res.getString(3)), // action
+							res.getString(4))); // actionData
+				}
 
-			try (ResultSet res = psGetData.executeQuery()) {
-				if (!res.next()) return null;
+				return ret;
+			}
+		}
+	}
 
-				FilterData ret = new FilterData(res.getString(1), // groupName
-						FilterAction.parse(res.getString(2)), // action
-						res.getString(3)); // actionData
+	/**
+	 * Add to the hit counts of multiple filters in a single transaction.
+	 *
+	 * @param hits filter id -> hit count increment
+	 */
+	public static void addFilterHits(Database db, Map<Integer, Integer> hits) throws SQLException {
+		if (db == null) throw new NullPointerException("null db");
+		if (hits.isEmpty()) return;
 
-				conn.commit();
+		try (Connection conn = db.getConnection();
+				PreparedStatement ps = conn.prepareStatement("UPDATE `filter` SET hits = hits + ? WHERE `id` = ?")) {
+			conn.setAutoCommit(false);
 
-				return ret;
+			for (Map.Entry<Integer, Integer> entry : hits.entrySet()) {
+				ps.setInt(1, entry.getValue());
+				ps.setInt(2, IdArmor.decodeOrThrow(entry.getKey(), "filter id"));
+				ps.addBatch();
 			}
+
+			ps.executeBatch();
+			conn.commit();
 		}
 	}
 
@@ -89,7 +107,7 @@ public final class FilterQueries {
 
 		int rawId = IdArmor.decodeOrThrow(id, "filter id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT type, pattern, filtergroup_id, hits FROM `filter` WHERE id = ?")) {
 			ps.setInt(1, rawId);
 
@@ -105,7 +123,7 @@ public final class FilterQueries {
 		if (db == null) throw new NullPointerException("null db");
 		if (group == null) throw new NullPointerException("null group");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT f.id, f.type, f.pattern, f.filtergroup_id, f.hits FROM `filtergroup` g, `filter` f WHERE g.name = ? AND f.filtergroup_id = g.id")) {
 			ps.setString(1, group);
 
@@ -152,6 +170,52 @@ public final class FilterQueries {
 		}
 	}
 
+	/**
+	 * Add multiple filters to the same group in a single transaction, skipping the ones conflicting with another filter.
+	 *
+	 * @return ids of the added filters, empty if the group doesn't exist
+	 */
+	public static List<Integer> addFilters(Database db, FilterType type, Collection<String> patterns, String group) throws SQLException {
+		if (db == null) throw new NullPointerException("null db");
+		if (type == null) throw new NullPointerException("null type");
+		if (patterns == null) throw new NullPointerException("null patterns");
+		if (group == null) throw new NullPointerException("null group");
+
+		try (Connection conn = db.getConnection();
+				PreparedStatement psGetGroupId = conn.prepareStatement("SELECT id FROM `filtergroup` WHERE name = ?");
+				PreparedStatement psAdd = conn.prepareStatement("INSERT OR IGNORE INTO `filter` (type, pattern, filtergroup_id) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+			conn.setAutoCommit(false);
+
+			psGetGroupId.setString(1, group);
+			int rawGroupId;
+
+			try (ResultSet res = psGetGroupId.executeQuery()) {
+				if (!res.next()) return Collections.emptyList();
+
+				rawGroupId = res.getInt(1);
+			}
+
+			List<Integer> ret = new ArrayList<>();
+
+			for (String pattern : patterns) {
+				psAdd.setString(1, type.id);
+				psAdd.setString(2, pattern);
+				psAdd.setInt(3, rawGroupId);
+
+				if (psAdd.executeUpdate() == 0) continue;
+
+				try (ResultSet res = psAdd.getGeneratedKeys()) {
+					if (!res.next()) throw new IllegalStateException();
+					ret.add(IdArmor.encode(res.getInt(1)));
+				}
+			}
+
+			conn.commit();
+
+			return ret;
+		}
+	}
+
 	public static boolean removeFilter(Database db, int id) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
@@ -217,7 +281,7 @@ public final class FilterQueries {
 	public static Collection<FilterGroupEntry> getGroups(Database db) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT g.id, g.name, g.description, a.name FROM `filtergroup` g, `filteraction` a WHERE a.id = g.filteraction_id")) {
 			try (ResultSet res = ps.executeQuery()) {
 				List<FilterGroupEntry> ret = new ArrayList<>();
@@ -339,7 +403,7 @@ public final class FilterQueries {
 	public static Collection<FilterActionEntry> getActions(Database db) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT id, name, description, action, actiondata FROM `filteraction`")) {
 			try (ResultSet res = ps.executeQuery()) {
 				List<FilterActionEntry> ret = new ArrayList<>();
@@ -448,13 +512,14 @@ public final class FilterQueries {
 	public static Collection<FilterListEntry> getFilterLists(Database db) throws SQLException, URISyntaxException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
-				PreparedStatement ps = conn.prepareStatement("SELECT f.id, f.type, f.url, f.filtergroup_id, g.name FROM `filterlist` f, `filtergroup` g WHERE g.id = f.filtergroup_id")) {
+		try (Connection conn = db.getReadConnection();
+				PreparedStatement ps = conn.prepareStatement("SELECT f.id, f.type, f.url, f.filtergroup_id, g.name, f.etag, f.lastmodified FROM `filterlist` f, `filtergroup` g WHERE g.id = f.filtergroup_id")) {
 			try (ResultSet res = ps.executeQuery()) {
 				List<FilterListEntry> ret = new ArrayList<>();
 
 				while (res.next()) {
-					ret.add(new FilterListEntry(IdArmor.encode(res.getInt(1)), FilterType.get(res.getString(2)), new URI(res.getString(3)), IdArmor.encode(res.getInt(4)), res.getString(5)));
+					ret.add(new FilterListEntry(IdArmor.encode(res.getInt(1)), FilterType.get(res.getString(2)), new URI(res.getString(3)), IdArmor.encode(res.getInt(4)), res.getString(5),
+							res.getString(6), res.getString(7)));
 				}
 
 				return ret;
@@ -462,7 +527,114 @@ public final class FilterQueries {
 		}
 	}
 
-	public record FilterListEntry(int id, FilterType type, URI url, int groupId, String group) { }
+	/**
+	 * @param etag ETag of the last synced list content, null if unknown
+	 * @param lastModified Last-Modified of the last synced list content, null if unknown
+	 */
+	public record FilterListEntry(int id, FilterType type, URI url, int groupId, String group, String etag, String lastModified) { }
+
+	/**
+	 * @return pattern -> filter id for all filters imported from the filter list
+	 */
+	public static Map<String, Integer> getFilterListFilters(Database db, int filterListId) throws SQLException {
+		if (db == null) throw new NullPointerException("null db");
+
+		int rawFilterListId = IdArmor.decodeOrThrow(filterListId, "filter list id");
+
+		try (Connection conn = db.getReadConnection();
+				PreparedStatement ps = conn.prepareStatement("SELECT id, pattern FROM `filter` WHERE filterlist_id = ?")) {
+			ps.setInt(1, rawFilterListId);
+
+			try (ResultSet res = ps.executeQuery()) {
+				Map<String, Integer> ret = new HashMap<>();
+
+				while (res.next()) {
+					ret.put(res.getString(2), IdArmor.encode(res.getInt(1)));
+				}
+
+				return ret;
+			}
+		}
+	}
+
+	/**
+	 * Apply the difference between the stored and the upstream content of a filter list in a single transaction.
+	 *
+	 * <p>Added patterns already present as filters not owned by any list in the list's group are taken over by the list
+	 * instead of being added again.
+	 *
+	 * @param removedFilterIds ids of the list's filters to remove
+	 * @param etag ETag to store for the next conditional request
+	 * @param lastModified Last-Modified to store for the next conditional request
+	 * @return ids of the newly added filters
+	 */
+	public static List<Integer> updateFilterListFilters(Database db, int filterListId, Collection<String> addedPatterns, Collection<Integer> removedFilterIds,
+			String etag, String lastModified) throws SQLException {
+		if (db == null) throw new NullPointerException("null db");
+		if (addedPatterns == null) throw new NullPointerException("null addedPatterns");
+		if (removedFilterIds == null) throw new NullPointerException("null removedFilterIds");
+
+		int rawFilterListId = IdArmor.decodeOrThrow(filterListId, "filter list id");
+
+		try (Connection conn = db.getConnection();
+				PreparedStatement psGetList = conn.prepareStatement("SELECT type, filtergroup_id FROM `filterlist` WHERE id = ?");
+				PreparedStatement psAdd = conn.prepareStatement("INSERT OR IGNORE INTO `filter` (type, pattern, filtergroup_id, filterlist_id) VALUES (?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+				PreparedStatement psClaim = conn.prepareStatement("UPDATE `filter` SET filterlist_id = ? WHERE type = ? AND pattern = ? AND filtergroup_id = ? AND filterlist_id IS NULL");
+				PreparedStatement psRemove = conn.prepareStatement("DELETE FROM `filter` WHERE id = ? AND filterlist_id = ?");
+				PreparedStatement psUpdateList = conn.prepareStatement("UPDATE `filterlist` SET etag = ?, lastmodified = ? WHERE id = ?")) {
+			conn.setAutoCommit(false);
+
+			psGetList.setInt(1, rawFilterListId);
+			String type;
+			int rawGroupId;
+
+			try (ResultSet res = psGetList.executeQuery()) {
+				if (!res.next()) return Collections.emptyList();
+
+				type = res.getString(1);
+				rawGroupId = res.getInt(2);
+			}
+
+			List<Integer> ret = new ArrayList<>();
+
+			for (String pattern : addedPatterns) {
+				psAdd.setString(1, type);
+				psAdd.setString(2, pattern);
+				psAdd.setInt(3, rawGroupId);
+				psAdd.setInt(4, rawFilterListId);
+
+				if (psAdd.executeUpdate() > 0) {
+					try (ResultSet res = psAdd.getGeneratedKeys()) {
+						if (!res.next()) throw new IllegalStateException();
+						ret.add(IdArmor.encode(res.getInt(1)));
+					}
+				} else {
+					psClaim.setInt(1, rawFilterListId);
+					psClaim.setString(2, type);
+					psClaim.setString(3, pattern);
+					psClaim.setInt(4, rawGroupId);
+					psClaim.executeUpdate();
+				}
+			}
+
+			for (int id : removedFilterIds) {
+				psRemove.setInt(1, IdArmor.decodeOrThrow(id, "filter id"));
+				psRemove.setInt(2, rawFilterListId);
+				psRemove.addBatch();
+			}
+
+			psRemove.executeBatch();
+
+			psUpdateList.setString(1, etag);
+			psUpdateList.setString(2, lastModified);
+			psUpdateList.setInt(3, rawFilterListId);
+			psUpdateList.executeUpdate();
+
+			conn.commit();
+
+			return ret;
+		}
+	}
 
 	public static int addFilterList(Database db, FilterType type, URI url, String group) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
@@ -502,12 +674,16 @@ public final class FilterQueries {
 
 		try (Connection conn = db.getConnection();
 				PreparedStatement psException = conn.prepareStatement("DELETE FROM `filterlistexception` WHERE filterlist_id = ?");
+				PreparedStatement psDetachFilters = conn.prepareStatement("UPDATE `filter` SET filterlist_id = NULL WHERE filterlist_id = ?");
 				PreparedStatement ps = conn.prepareStatement("DELETE FROM `filterlist` WHERE id = ?")) {
 			conn.setAutoCommit(false);
 
 			psException.setInt(1, rawId);
 			psException.executeUpdate();
 
+			psDetachFilters.setInt(1, rawId);
+			psDetachFilters.executeUpdate();
+
 			ps.setInt(1, rawId);
 			boolean ret = ps.executeUpdate() > 0;
 
@@ -522,7 +698,7 @@ public final class FilterQueries {
 
 		int rawFilterListId = IdArmor.decodeOrThrow(filterListId, "filter list id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT id, pattern, reason FROM `filterlistexception` WHERE filterlist_id = ?")) {
 			ps.setInt(1, rawFilterListId);
 
@@ -582,17 +758,27 @@ public final class FilterQueries {
 		int rawExceptionId = IdArmor.decodeOrThrow(exceptionId, "filter list exception id");
 
 		try (Connection conn = db.getConnection();
+				PreparedStatement psResetList = conn.prepareStatement("UPDATE `filterlist` SET etag = NULL, lastmodified = NULL WHERE id IN (SELECT filterlist_id FROM `filterlistexception` WHERE id = ?)");
 				PreparedStatement ps = conn.prepareStatement("DELETE FROM `filterlistexception` WHERE id = ?")) {
+			conn.setAutoCommit(false);
+
+			// force a full sync to restore the no longer excluded pattern
+			psResetList.setInt(1, rawExceptionId);
+			psResetList.executeUpdate();
+
 			ps.setInt(1, rawExceptionId);
+			boolean ret = ps.executeUpdate() > 0;
 
-			return ps.executeUpdate() > 0;
+			conn.commit();
+
+			return ret;
 		}
 	}
 
 	public static Collection<GlobalFilterListExceptionEntry> getGlobalFilterListExceptions(Database db) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT id, type, pattern, reason FROM `globalfilterlistexception`")) {
 			try (ResultSet res = ps.executeQuery()) {
 				List<GlobalFilterListExceptionEntry> ret = new ArrayList<>();
@@ -649,10 +835,20 @@ public final class FilterQueries {
 		int rawExceptionId = IdArmor.decodeOrThrow(exceptionId, "global filter list exception id");
 
 		try (Connection conn = db.getConnection();
+				PreparedStatement psResetLists = conn.prepareStatement("UPDATE `filterlist` SET etag = NULL, lastmodified = NULL WHERE type IN (SELECT type FROM `globalfilterlistexception` WHERE id = ?)");
 				PreparedStatement ps = conn.prepareStatement("DELETE FROM `globalfilterlistexception` WHERE id = ?")) {
+			conn.setAutoCommit(false);
+
+			// force a full sync to restore the no longer excluded pattern
+			psResetLists.setInt(1, rawExceptionId);
+			psResetLists.executeUpdate();
+
 			ps.setInt(1, rawExceptionId);
+			boolean ret = ps.executeUpdate() > 0;
 
-			return ps.executeUpdate() > 0;
+			conn.commit();
+
+			return ret;
 		}
 	}
 }
@@ -61,7 +61,7 @@ public final class NoteQueries {
 
 		int rawTargetUserId = IdArmor.decodeOrThrow(targetUserId, "user id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT id, actor_user_id, creation, content FROM `note` WHERE target_user_id = ?")) {
 			ps.setInt(1, rawTargetUserId);
 
@@ -87,7 +87,7 @@ public final class NoteQueries {
 
 		int rawNoteId = IdArmor.decodeOrThrow(noteId, "note id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT target_user_id, actor_user_id, creation, content FROM `note` WHERE id = ?")) {
 			ps.setInt(1, rawNoteId);
 
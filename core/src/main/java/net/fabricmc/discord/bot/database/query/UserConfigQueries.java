@@ -32,7 +32,7 @@ public final class UserConfigQueries {
 
 		int rawUserId = IdArmor.decodeOrThrow(userId, "user id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT `key`, `value` FROM `userconfig` WHERE `user_id` = ?")) {
 			ps.setInt(1, rawUserId);
 
@@ -54,7 +54,7 @@ public final class UserConfigQueries {
 
 		int rawUserId = IdArmor.decodeOrThrow(userId, "user id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT `value` FROM `userconfig` WHERE `user_id` = ? AND `key` = ?")) {
 			ps.setInt(1, rawUserId);
 			ps.setString(2, key);
@@ -23,9 +23,12 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongList;
 import org.jetbrains.annotations.Nullable;
@@ -34,6 +37,9 @@ import net.fabricmc.discord.bot.database.Database;
 import net.fabricmc.discord.bot.database.IdArmor;
 
 public final class UserQueries {
+	private static final int bulkUpdateMinUsers = 1000; // user count from which updateNewUsers processes the users in bulk
+	private static final int bulkInsertBatchSize = 10_000;
+
 	/**
 	 * Create/update db entries for every supplied discord user.
 	 *
@@ -45,11 +51,80 @@ public final class UserQueries {
 		if (db == null) throw new NullPointerException("null db");
 		if (users == null) throw new NullPointerException("null users");
 
-		long time = System.currentTimeMillis();
+		updateNewUsers(db, users, isCompleteList, lastActiveTime, System.currentTimeMillis(), users.size() >= bulkUpdateMinUsers);
+	}
 
-		try (Connection conn = db.getConnection();
-				PreparedStatement updatePresence = conn.prepareStatement("UPDATE discorduser SET lastseen = ?, present = '0' WHERE present = '1'");
-				PreparedStatement psGetDU = conn.prepareStatement("SELECT user_id, username, discriminator, nickname, firstseen, lastseen, lastnickchange, present FROM discorduser WHERE id = ?");
+	/**
+	 * @param bulk whether to use {@link #updateNewUsersBulk}, both variants have to yield the same db state
+	 */
+	static void updateNewUsers(Database db, Collection<SessionDiscordUserData> users, boolean isCompleteList, long lastActiveTime, long time, boolean bulk) throws SQLException {
+		if (bulk) {
+			updateNewUsersBulk(db, users, isCompleteList, lastActiveTime, time);
+			return;
+		}
+
+		List<UserUpdate> updates = new ArrayList<>(users.size());
+
+		for (SessionDiscordUserData user : users) {
+			updates.add(new UserUpdate(user, time, lastActiveTime));
+		}
+
+		try (Connection conn = db.getConnection()) {
+			conn.setAutoCommit(false);
+
+			if (isCompleteList) {
+				assert lastActiveTime != 0;
+
+				try (PreparedStatement ps = conn.prepareStatement("UPDATE discorduser SET lastseen = ?, present = '0' WHERE present = '1'")) {
+					ps.setLong(1, lastActiveTime);
+					ps.executeUpdate();
+				}
+			}
+
+			updateUsers(conn, updates);
+			conn.commit();
+		}
+	}
+
+	/**
+	 * Apply updates for individual discord users in one transaction.
+	 *
+	 * <p>Multiple updates for the same discord user are applied in order, recording every name change in the name and nick
+	 * history.
+	 *
+	 * @param updates updates in chronological order
+	 */
+	public static void updateUsers(Database db, List<UserUpdate> updates) throws SQLException {
+		if (db == null) throw new NullPointerException("null db");
+		if (updates == null) throw new NullPointerException("null updates");
+
+		// split into rounds with at most one update per discord user, so the batched writes within a round are independent
+
+		List<List<UserUpdate>> rounds = new ArrayList<>();
+		Map<Long, Integer> updateCounts = new HashMap<>(); // discord user id -> updates seen so far
+
+		for (UserUpdate update : updates) {
+			int round = updateCounts.merge(update.data().id, 1, Integer::sum) - 1;
+			if (round == rounds.size()) rounds.add(new ArrayList<>());
+			rounds.get(round).add(update);
+		}
+
+		try (Connection conn = db.getConnection()) {
+			conn.setAutoCommit(false);
+
+			for (List<UserUpdate> round : rounds) {
+				updateUsers(conn, round);
+			}
+
+			conn.commit();
+		}
+	}
+
+	/**
+	 * @param updates updates with at most one update per discord user
+	 */
+	private static void updateUsers(Connection conn, Collection<UserUpdate> updates) throws SQLException {
+		try (PreparedStatement psGetDU = conn.prepareStatement("SELECT user_id, username, discriminator, nickname, firstseen, lastseen, lastnickchange, present FROM discorduser WHERE id = ?");
 				PreparedStatement psAddDU = conn.prepareStatement("INSERT INTO discorduser (id, user_id, username, discriminator, nickname, firstseen, lastseen, lastnickchange, present) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
 				PreparedStatement psUpdateDuTimePresent = conn.prepareStatement("UPDATE discorduser SET lastseen = ?, present = ? WHERE id = ?");
 				PreparedStatement psUpdateDuNameTimePresent = conn.prepareStatement("UPDATE discorduser SET username = ?, discriminator = ?, nickname = ?, lastseen = ?, lastNickChange = ?, present = ? WHERE id = ?");
@@ -57,15 +132,10 @@ public final class UserQueries {
 				PreparedStatement psGetLastNameChange = conn.prepareStatement("SELECT MAX(lastused) FROM discorduser_namelog WHERE discorduser_id = ?");
 				PreparedStatement psRecordNameChange = conn.prepareStatement("INSERT INTO discorduser_namelog (discorduser_id, username, discriminator, firstused, lastused, duration) VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (discorduser_id, username, discriminator) DO UPDATE SET lastused = excluded.lastused, duration = duration + excluded.duration, count = count + 1");
 				PreparedStatement psRecordNickChange = conn.prepareStatement("INSERT INTO discorduser_nicklog (discorduser_id, nickname, firstused, lastused, duration) VALUES (?, ?, ?, ?, ?) ON CONFLICT (discorduser_id, nickname) DO UPDATE SET lastused = excluded.lastused, duration = duration + excluded.duration, count = count + 1")) {
-			conn.setAutoCommit(false);
-
-			if (isCompleteList) {
-				assert lastActiveTime != 0;
-				updatePresence.setLong(1, lastActiveTime);
-				updatePresence.executeUpdate();
-			}
-
-			for (SessionDiscordUserData user : users) {
+			for (UserUpdate update : updates) {
+				SessionDiscordUserData user = update.data();
+				long time = update.time();
+				long lastActiveTime = update.lastActiveTime();
 				psGetDU.setLong(1, user.id);
 
 				try (ResultSet res = psGetDU.executeQuery()) {
@@ -120,7 +190,10 @@ public final class UserQueries {
 								long firstUsed = firstSeen;
 
 								try (ResultSet res2 = psGetLastNameChange.executeQuery()) {
-									if (res2.next()) firstUsed = res2.getLong(1);
+									if (res2.next()) {
+										long lastNameChange = res2.getLong(1);
+										if (!res2.wasNull()) firstUsed = lastNameChange;
+									}
 								}
 
 								psRecordNameChange.setLong(1, user.id);
@@ -157,16 +230,160 @@ public final class UserQueries {
 			psUpdateDuTimePresent.executeBatch();
 			psRecordNameChange.executeBatch();
 			psRecordNickChange.executeBatch();
+		}
+	}
+
+	/**
+	 * Set based variant of {@link #updateNewUsers} for large user lists.
+	 *
+	 * <p>The users are staged in a temporary table and merged with a fixed number of statements instead of several
+	 * statements per user. New internal users are created in the order of the supplied users, like the per-user variant
+	 * does.
+	 */
+	private static void updateNewUsersBulk(Database db, Collection<SessionDiscordUserData> users, boolean isCompleteList, long lastActiveTime, long time) throws SQLException {
+		// time a previously present user was last around with its recorded names, see lastActiveTime
+		final String lastUsedExpr = "CASE WHEN du.present AND ? != 0 THEN ? ELSE du.lastseen END";
+
+		try (Connection conn = db.getConnection();
+				Statement st = conn.createStatement()) {
+			conn.setAutoCommit(false);
+
+			// stage users
+
+			st.executeUpdate("DROP TABLE IF EXISTS temp.`session_discorduser`");
+			st.executeUpdate("DROP TABLE IF EXISTS temp.`new_discorduser`");
+			st.executeUpdate("CREATE TEMP TABLE `session_discorduser` (`id` INTEGER PRIMARY KEY, `username` TEXT, `discriminator` TEXT, `nickname` TEXT, `present` INTEGER, `seq` INTEGER)");
+			st.executeUpdate("CREATE TEMP TABLE `new_discorduser` (`seq` INTEGER PRIMARY KEY, `id` INTEGER)");
+
+			try (PreparedStatement ps = conn.prepareStatement("INSERT OR REPLACE INTO temp.`session_discorduser` (id, username, discriminator, nickname, present, seq) VALUES (?, ?, ?, ?, ?, ?)")) {
+				// stage in id order to append to the primary key b-tree, the stable sort keeps the last duplicate last
+				SessionDiscordUserData[] userArray = users.toArray(new SessionDiscordUserData[0]);
+				int[] order = new int[userArray.length];
+
+				for (int i = 0; i < order.length; i++) {
+					order[i] = i;
+				}
+
+				IntArrays.mergeSort(order, (a, b) -> Long.compare(userArray[a].id, userArray[b].id));
+				int batchSize = 0;
+
+				for (int seq : order) {
+					SessionDiscordUserData user = userArray[seq];
+					ps.setLong(1, user.id);
+					ps.setString(2, user.username);
+					ps.setString(3, user.discriminator);
+					ps.setString(4, user.nickname);
+					ps.setBoolean(5, user.present);
+					ps.setInt(6, seq); // input order
+					ps.addBatch();
+
+					if (++batchSize == bulkInsertBatchSize) {
+						ps.executeBatch();
+						batchSize = 0;
+					}
+				}
+
+				ps.executeBatch();
+			}
+
+			if (isCompleteList) {
+				assert lastActiveTime != 0;
+
+				try (PreparedStatement ps = conn.prepareStatement("UPDATE discorduser SET lastseen = ?, present = '0' WHERE present = '1'")) {
+					ps.setLong(1, lastActiveTime);
+					ps.executeUpdate();
+				}
+			}
+
+			// record old names and nicks of existing users
+
+			try (PreparedStatement ps = conn.prepareStatement("INSERT INTO discorduser_namelog (discorduser_id, username, discriminator, firstused, lastused, duration) "
+					+ "SELECT id, username, discriminator, firstused, lastused, lastused - firstused FROM ("
+					+ "SELECT du.id, du.username, du.discriminator, "
+					+ "COALESCE((SELECT MAX(l.lastused) FROM discorduser_namelog l WHERE l.discorduser_id = du.id), du.firstseen) AS firstused, "
+					+ lastUsedExpr+" AS lastused "
+					+ "FROM discorduser du JOIN temp.`session_discorduser` s ON s.id = du.id "
+					+ "WHERE du.username IS NOT s.username OR du.discriminator IS NOT s.discriminator) "
+					+ "WHERE true " // disambiguates the upsert clause
+					+ "ON CONFLICT (discorduser_id, username, discriminator) DO UPDATE SET lastused = excluded.lastused, duration = duration + excluded.duration, count = count + 1")) {
+				ps.setLong(1, lastActiveTime);
+				ps.setLong(2, lastActiveTime);
+				ps.executeUpdate();
+			}
+
+			try (PreparedStatement ps = conn.prepareStatement("INSERT INTO discorduser_nicklog (discorduser_id, nickname, firstused, lastused, duration) "
+					+ "SELECT id, nickname, lastnickchange, lastused, lastused - lastnickchange FROM ("
+					+ "SELECT du.id, du.nickname, du.lastnickchange, "
+					+ lastUsedExpr+" AS lastused "
+					+ "FROM discorduser du JOIN temp.`session_discorduser` s ON s.id = du.id "
+					+ "WHERE du.nickname IS NOT s.nickname AND du.nickname IS NOT NULL) "
+					+ "WHERE true "
+					+ "ON CONFLICT (discorduser_id, nickname) DO UPDATE SET lastused = excluded.lastused, duration = duration + excluded.duration, count = count + 1")) {
+				ps.setLong(1, lastActiveTime);
+				ps.setLong(2, lastActiveTime);
+				ps.executeUpdate();
+			}
+
+			// update names, last seen and presence of existing users
+
+			try (PreparedStatement ps = conn.prepareStatement("UPDATE discorduser AS du SET "
+					+ "username = s.username, discriminator = s.discriminator, nickname = s.nickname, "
+					+ "lastnickchange = CASE WHEN du.nickname IS NOT s.nickname THEN "+lastUsedExpr+" ELSE du.lastnickchange END, "
+					+ "lastseen = ?, present = s.present "
+					+ "FROM temp.`session_discorduser` s WHERE s.id = du.id")) {
+				ps.setLong(1, lastActiveTime);
+				ps.setLong(2, lastActiveTime);
+				ps.setLong(3, time);
+				ps.executeUpdate();
+			}
+
+			// create new users, numbered consecutively through new_discorduser.seq
+
+			int newUsers = st.executeUpdate("INSERT INTO temp.`new_discorduser` (id) "
+					+ "SELECT s.id FROM temp.`session_discorduser` s WHERE NOT EXISTS (SELECT 1 FROM discorduser du WHERE du.id = s.id) ORDER BY s.seq");
+
+			if (newUsers > 0) {
+				// the user ids are allocated by a single statement, so they are consecutive
+				st.executeUpdate("INSERT INTO user (stickyname) "
+						+ "SELECT s.username FROM temp.`new_discorduser` n JOIN temp.`session_discorduser` s ON s.id = n.id ORDER BY n.seq");
+				long firstRawUserId;
+
+				try (ResultSet res = st.executeQuery("SELECT last_insert_rowid()")) {
+					if (!res.next()) throw new IllegalStateException();
+					firstRawUserId = res.getLong(1) - newUsers + 1;
+				}
+
+				try (PreparedStatement ps = conn.prepareStatement("INSERT INTO discorduser (id, user_id, username, discriminator, nickname, firstseen, lastseen, lastnickchange, present) "
+						+ "SELECT s.id, ? + n.seq, s.username, s.discriminator, s.nickname, ?, ?, ?, s.present "
+						+ "FROM temp.`new_discorduser` n JOIN temp.`session_discorduser` s ON s.id = n.id "
+						+ "ORDER BY s.id")) { // appending in primary key order is much cheaper than random b-tree inserts
+					ps.setLong(1, firstRawUserId - 1);
+					ps.setLong(2, time); // firstseen
+					ps.setLong(3, time); // lastseen
+					ps.setLong(4, time); // lastNickChange
+					ps.executeUpdate();
+				}
+			}
+
+			st.executeUpdate("DROP TABLE temp.`session_discorduser`");
+			st.executeUpdate("DROP TABLE temp.`new_discorduser`");
+
 			conn.commit();
 		}
 	}
 
 	public record SessionDiscordUserData(long id, String username, String discriminator, @Nullable String nickname, boolean present) { }
 
+	/**
+	 * @param time time of the update, recorded as last seen time
+	 * @param lastActiveTime last time when a previously present user is assumed to having been around with its recorded properties OR 0 to use the recorded lastseen time
+	 */
+	public record UserUpdate(SessionDiscordUserData data, long time, long lastActiveTime) { }
+
 	public static int getUserId(Database db, long discordUserId) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT user_id FROM discorduser WHERE id = ?")) {
 			ps.setLong(1, discordUserId);
 
@@ -183,7 +400,7 @@ public final class UserQueries {
 
 		int rawUserId = IdArmor.decodeOrThrow(userId, "user id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT id FROM discorduser WHERE user_id = ?")) {
 			ps.setInt(1, rawUserId);
 
@@ -202,7 +419,7 @@ public final class UserQueries {
 	public static List<Integer> getUserIds(Database db, String username, String discriminator) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("""
 						SELECT * FROM (
 						SELECT du.user_id AS id FROM discorduser_namelog nl, discorduser du WHERE nl.username = ? AND nl.discriminator = ? AND du.id = nl.discorduser_id
@@ -228,7 +445,7 @@ public final class UserQueries {
 	public static List<Integer> getUserIdsByUsername(Database db, String username) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("""
 						SELECT * FROM (
 						SELECT du.user_id AS id FROM discorduser_namelog nl, discorduser du WHERE nl.username = ? AND du.id = nl.discorduser_id
@@ -252,7 +469,7 @@ public final class UserQueries {
 	public static List<Integer> getUserIdsByNickname(Database db, String nickname) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("""
 						SELECT * FROM (
 						SELECT du.user_id AS id FROM discorduser_nicklog nl, discorduser du WHERE nl.nickname = ? AND du.id = nl.discorduser_id
@@ -278,7 +495,7 @@ public final class UserQueries {
 
 		int rawUserId = IdArmor.decodeOrThrow(userId, "user id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement psUser = conn.prepareStatement("SELECT stickyName FROM user WHERE id = ?");
 				PreparedStatement psDU = conn.prepareStatement("SELECT id, username, discriminator, nickname, firstseen, lastseen FROM discorduser WHERE user_id = ?");
 				PreparedStatement psNameLog = conn.prepareStatement("SELECT username, discriminator, firstused, lastused, duration, count FROM discorduser_namelog WHERE discorduser_id = ?");
@@ -338,7 +555,7 @@ public final class UserQueries {
 	public static DiscordUserData getDiscordUserData(Database db, long discordUserId, boolean fetchNameHistory, boolean fetchNickHistory) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement psDU = conn.prepareStatement("SELECT user_id, username, discriminator, nickname, firstseen, lastseen FROM discorduser WHERE id = ?");
 				PreparedStatement psNameLog = conn.prepareStatement("SELECT username, discriminator, firstused, lastused, duration, count FROM discorduser_namelog WHERE discorduser_id = ?");
 				PreparedStatement psNickLog = conn.prepareStatement("SELECT nickname, firstused, lastused, duration, count FROM discorduser_nicklog WHERE discorduser_id = ?")) {
@@ -394,7 +611,7 @@ public final class UserQueries {
 
 		int rawUserId = IdArmor.decodeOrThrow(userId, "user id");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT g.id, g.name FROM `user_group`, `group` g WHERE user_group.user_id = ? AND g.id = user_group.group_id")) {
 			ps.setInt(1, rawUserId);
 
@@ -414,7 +631,7 @@ public final class UserQueries {
 		if (db == null) throw new NullPointerException("null db");
 		if (group == null) throw new NullPointerException("null group");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT ug.user_id FROM `group` g, `user_group` ug WHERE g.name = ? AND ug.group_id = g.id")) {
 			ps.setString(1, group);
 
@@ -487,7 +704,7 @@ public final class UserQueries {
 	public static Collection<String> getGroups(Database db) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT name FROM `group`")) {
 			try (ResultSet res = ps.executeQuery()) {
 				List<String> ret = new ArrayList<>();
@@ -551,7 +768,7 @@ public final class UserQueries {
 	public static Collection<String> getGroupChildren(Database db, String group) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT gb.name FROM `group` ga, group_inheritance gi, `group` gb WHERE ga.name = ? AND gi.parent_id = ga.id AND gb.id = gi.child_id")) {
 			ps.setString(1, group);
 
@@ -594,7 +811,7 @@ public final class UserQueries {
 	public static Collection<String> getDirectGroupPermissions(Database db, String group) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
 
-		try (Connection conn = db.getConnection();
+		try (Connection conn = db.getReadConnection();
 				PreparedStatement ps = conn.prepareStatement("SELECT gp.permission FROM `group` g, group_permission gp WHERE g.name = ? AND gp.group_id = g.id")) {
 			ps.setString(1, group);
 
@@ -636,99 +853,65 @@ public final class UserQueries {
 		}
 	}
 
-	public static boolean userHasPermission(Database db, int userId, String permissionA, String permissionB) throws SQLException {
+	/**
+	 * Load all group memberships, group inheritance and group permissions for resolving permissions in memory.
+	 *
+	 * <p>Only discord users whose user is in any group are included.
+	 */
+	public static PermissionData getPermissionData(Database db) throws SQLException {
 		if (db == null) throw new NullPointerException("null db");
-		if (permissionA == null) throw new NullPointerException("null permissionA");
-		if (permissionB == null) throw new NullPointerException("null permissionB");
 
-		int rawUserId = IdArmor.decodeOrThrow(userId, "user id");
+		try (Connection conn = db.getReadConnection();
+				PreparedStatement psUserGroups = conn.prepareStatement("SELECT user_id, group_id FROM user_group");
+				PreparedStatement psDiscordUsers = conn.prepareStatement("SELECT id, user_id FROM discorduser WHERE user_id IN (SELECT user_id FROM user_group)");
+				PreparedStatement psInheritance = conn.prepareStatement("SELECT parent_id, child_id FROM group_inheritance");
+				PreparedStatement psPermissions = conn.prepareStatement("SELECT group_id, permission FROM group_permission")) {
+			conn.setAutoCommit(false); // read all tables from the same state
 
-		try (Connection conn = db.getConnection();
-				PreparedStatement ps = conn.prepareStatement("""
-						WITH RECURSIVE groups_cte (id) AS (
-						SELECT group_id FROM user_group WHERE user_id = ?
-						UNION
-						SELECT group_inheritance.child_id FROM group_inheritance INNER JOIN groups_cte ON group_inheritance.parent_id = groups_cte.id
-						)
-						SELECT COUNT(*)
-						FROM groups_cte, group_permission
-						WHERE
-						group_permission.group_id = groups_cte.id
-						AND (group_permission.permission = ? OR group_permission.permission = ?)
-						LIMIT 1
-						""")) {
-			ps.setInt(1, rawUserId);
-			ps.setString(2, permissionA);
-			ps.setString(3, permissionB);
-
-			try (ResultSet res = ps.executeQuery()) {
-				if (!res.next()) throw new IllegalStateException();
+			Map<Integer, List<Integer>> userGroups = new HashMap<>();
 
-				return res.getInt(1) > 0;
+			try (ResultSet res = psUserGroups.executeQuery()) {
+				while (res.next()) {
+					userGroups.computeIfAbsent(IdArmor.encode(res.getInt(1)), ignore -> new ArrayList<>()).add(IdArmor.encode(res.getInt(2)));
+				}
 			}
-		}
-	}
 
-	public static boolean discordUserHasPermission(Database db, long discordUserId, String permissionA, String permissionB) throws SQLException {
-		if (db == null) throw new NullPointerException("null db");
-		if (permissionA == null) throw new NullPointerException("null permissionA");
-		if (permissionB == null) throw new NullPointerException("null permissionB");
+			Map<Long, Integer> discordUsers = new HashMap<>();
 
-		try (Connection conn = db.getConnection();
-				PreparedStatement ps = conn.prepareStatement("""
-						WITH RECURSIVE groups_cte (id) AS (
-						SELECT user_group.group_id FROM discorduser, user_group WHERE discorduser.id = ? AND user_group.user_id = discorduser.user_id
-						UNION
-						SELECT group_inheritance.child_id FROM group_inheritance INNER JOIN groups_cte ON group_inheritance.parent_id = groups_cte.id
-						)
-						SELECT COUNT(*)
-						FROM groups_cte, group_permission
-						WHERE
-						group_permission.group_id = groups_cte.id
-						AND (group_permission.permission = ? OR group_permission.permission = ?)
-						LIMIT 1
-						""")) {
-			ps.setLong(1, discordUserId);
-			ps.setString(2, permissionA);
-			ps.setString(3, permissionB);
+			try (ResultSet res = psDiscordUsers.executeQuery()) {
+				while (res.next()) {
+					discordUsers.put(res.getLong(1), IdArmor.encode(res.getInt(2)));
+				}
+			}
 
-			try (ResultSet res = ps.executeQuery()) {
-				if (!res.next()) throw new IllegalStateException();
+			Map<Integer, List<Integer>> groupChildren = new HashMap<>();
 
-				return res.getInt(1) > 0;
+			try (ResultSet res = psInheritance.executeQuery()) {
+				while (res.next()) {
+					groupChildren.computeIfAbsent(IdArmor.encode(res.getInt(1)), ignore -> new ArrayList<>()).add(IdArmor.encode(res.getInt(2)));
+				}
 			}
-		}
-	}
 
-	public static boolean hasAnyPermittedUser(Database db, String permission) throws SQLException {
-		if (db == null) throw new NullPointerException("null db");
-		if (permission == null) throw new NullPointerException("null permission");
+			Map<Integer, List<String>> groupPermissions = new HashMap<>();
 
-		try (Connection conn = db.getConnection();
-				PreparedStatement ps = conn.prepareStatement("""
-						WITH RECURSIVE groups_cte (id) AS (
-						SELECT user_group.group_id
-						FROM group_permission, user_group
-						WHERE
-						group_permission.permission = ?
-						AND user_group.group_id = group_permission.group_id
-						UNION
-						SELECT group_inheritance.parent_id FROM group_inheritance INNER JOIN groups_cte ON group_inheritance.child_id = groups_cte.id
-						)
-						SELECT COUNT(*)
-						FROM groups_cte, user_group, discorduser
-						WHERE
-						user_group.group_id = groups_cte.id
-						AND discorduser.user_id = user_group.user_id
-						LIMIT 1
-						""")) {
-			ps.setString(1, permission);
+			try (ResultSet res = psPermissions.executeQuery()) {
+				while (res.next()) {
+					groupPermissions.computeIfAbsent(IdArmor.encode(res.getInt(1)), ignore -> new ArrayList<>()).add(res.getString(2));
+				}
+			}
 
-			try (ResultSet res = ps.executeQuery()) {
-				if (!res.next()) throw new IllegalStateException();
+			conn.commit();
 
-				return res.getInt(1) > 0;
-			}
+			return new PermissionData(userGroups, discordUsers, groupChildren, groupPermissions);
 		}
 	}
+
+	/**
+	 * @param userGroups user id -> ids of the groups the user is directly in
+	 * @param discordUsers discord user id -> user id, for users in any group
+	 * @param groupChildren parent group id -> child group ids, members of the parent inherit the children's permissions
+	 * @param groupPermissions group id -> permissions granted directly to the group
+	 */
+	public record PermissionData(Map<Integer, List<Integer>> userGroups, Map<Long, Integer> discordUsers,
+			Map<Integer, List<Integer>> groupChildren, Map<Integer, List<String>> groupPermissions) { }
 }
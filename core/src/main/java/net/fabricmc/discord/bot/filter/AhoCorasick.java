@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot.filter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton finding all occurrences of a fixed set of patterns in a single pass over the text.
+ *
+ * <p>Patterns are identified by their index in the list passed to the constructor. The automaton is immutable and
+ * safe for concurrent use.
+ */
+final class AhoCorasick {
+	private static final int[] NO_OUTPUTS = new int[0];
+
+	private final char[][] edgeChars; // node -> sorted edge chars
+	private final int[][] edgeTargets; // node -> target nodes, parallel to edgeChars
+	private final int[] fail; // node -> longest proper suffix node
+	private final int[] dictLink; // node -> nearest node on the fail chain with outputs, -1 if none
+	private final int[][] outputs; // node -> ids of the patterns ending here
+	private final int patternCount;
+
+	AhoCorasick(List<String> patterns) {
+		List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+		List<List<Integer>> nodeOutputs = new ArrayList<>();
+		edges.add(new TreeMap<>());
+		nodeOutputs.add(new ArrayList<>());
+
+		for (int i = 0; i < patterns.size(); i++) {
+			String pattern = patterns.get(i);
+			int node = 0;
+
+			for (int j = 0; j < pattern.length(); j++) {
+				Integer next = edges.get(node).get(pattern.charAt(j));
+
+				if (next == null) {
+					next = edges.size();
+					edges.get(node).put(pattern.charAt(j), next);
+					edges.add(new TreeMap<>());
+					nodeOutputs.add(new ArrayList<>());
+				}
+
+				node = next;
+			}
+
+			nodeOutputs.get(node).add(i);
+		}
+
+		int nodeCount = edges.size();
+		edgeChars = new char[nodeCount][];
+		edgeTargets = new int[nodeCount][];
+		outputs = new int[nodeCount][];
+
+		for (int node = 0; node < nodeCount; node++) {
+			TreeMap<Character, Integer> nodeEdges = edges.get(node);
+			char[] chars = new char[nodeEdges.size()];
+			int[] targets = new int[nodeEdges.size()];
+			int idx = 0;
+
+			for (Map.Entry<Character, Integer> entry : nodeEdges.entrySet()) {
+				chars[idx] = entry.getKey();
+				targets[idx] = entry.getValue();
+				idx++;
+			}
+
+			edgeChars[node] = chars;
+			edgeTargets[node] = targets;
+
+			List<Integer> out = nodeOutputs.get(node);
+			outputs[node] = out.isEmpty() ? NO_OUTPUTS : out.stream().mapToInt(Integer::intValue).toArray();
+		}
+
+		// breadth first so the fail links of all shallower nodes are known
+
+		fail = new int[nodeCount];
+		dictLink = new int[nodeCount];
+		Arrays.fill(dictLink, -1);
+		Queue<Integer> queue = new ArrayDeque<>();
+
+		for (int target : edgeTargets[0]) {
+			queue.add(target); // depth 1 nodes fail to the root
+		}
+
+		while (!queue.isEmpty()) {
+			int node = queue.poll();
+			char[] chars = edgeChars[node];
+			int[] targets = edgeTargets[node];
+
+			for (int i = 0; i < chars.length; i++) {
+				int target = targets[i];
+				int f = fail[node];
+				int next;
+
+				while ((next = getEdge(f, chars[i])) < 0 && f != 0) {
+					f = fail[f];
+				}
+
+				fail[target] = next >= 0 ? next : 0;
+				int failNode = fail[target];
+				dictLink[target] = outputs[failNode].length > 0 ? failNode : dictLink[failNode];
+				queue.add(target);
+			}
+		}
+
+		patternCount = patterns.size();
+	}
+
+	/**
+	 * @return ids of all patterns occurring in text
+	 */
+	BitSet match(CharSequence text) {
+		BitSet ret = new BitSet(patternCount);
+		addOutputs(0, ret); // empty patterns
+		int node = 0;
+
+		for (int i = 0, max = text.length(); i < max; i++) {
+			char c = text.charAt(i);
+			int next;
+
+			while ((next = getEdge(node, c)) < 0 && node != 0) {
+				node = fail[node];
+			}
+
+			node = next >= 0 ? next : 0;
+
+			for (int n = outputs[node].length > 0 ? node : dictLink[node]; n > 0; n = dictLink[n]) {
+				addOutputs(n, ret);
+			}
+		}
+
+		return ret;
+	}
+
+	int getPatternCount() {
+		return patternCount;
+	}
+
+	private void addOutputs(int node, BitSet out) {
+		for (int id : outputs[node]) {
+			out.set(id);
+		}
+	}
+
+	private int getEdge(int node, char c) {
+		char[] chars = edgeChars[node];
+		int idx;
+
+		if (chars.length <= 8) { // linear scan is faster for the typical small fan out
+			for (idx = 0; idx < chars.length; idx++) {
+				if (chars[idx] == c) return edgeTargets[node][idx];
+			}
+
+			return -1;
+		} else {
+			idx = Arrays.binarySearch(chars, c);
+
+			return idx >= 0 ? edgeTargets[node][idx] : -1;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot.filter;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.fabricmc.discord.bot.MessageAnalysis;
+
+/**
+ * Set based matcher for many DOMAIN patterns at once.
+ *
+ * <p>The host candidates get extracted once per message by {@link MessageAnalysis#getHosts}, every suffix starting at
+ * a label boundary is then looked up in a hash set. This matches exactly what the per-pattern matcher from
+ * {@link FilterType#DOMAIN} accepts, so a pattern also matches all its subdomains but not its parent domains. Obfuscated dots like "example[.]com" are recognized as well.
+ *
+ * <p>Only patterns accepted by {@link #isSupported} can be added, the others need the per-pattern matcher.
+ */
+final class DomainMatcher {
+	private final Map<String, int[]> patterns = new HashMap<>(); // lower case pattern -> pattern ids
+	private final int patternCount;
+	private final int maxPatternLength;
+
+	DomainMatcher(List<String> patterns) {
+		int maxLen = 0;
+
+		for (int i = 0; i < patterns.size(); i++) {
+			String pattern = patterns.get(i);
+			if (!isSupported(pattern)) throw new IllegalArgumentException("unsupported domain pattern: "+pattern);
+
+			this.patterns.merge(pattern, new int[] { i }, (a, b) -> {
+				int[] ret = Arrays.copyOf(a, a.length + 1);
+				ret[a.length] = b[0];
+				return ret;
+			});
+
+			maxLen = Math.max(maxLen, pattern.length());
+		}
+
+		this.patternCount = patterns.size();
+		this.maxPatternLength = maxLen;
+	}
+
+	/**
+	 * Determine whether a lower case pattern can be matched by this class.
+	 *
+	 * <p>This requires the pattern to consist entirely of characters that can appear within a host candidate and contain a
+	 * dot, like every host candidate.
+	 */
+	static boolean isSupported(String pattern) {
+		if (pattern.indexOf('.') < 0) return false;
+
+		for (int i = 0; i < pattern.length(); i++) {
+			if (!isHostChar(pattern.charAt(i))) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param hosts host candidates as extracted by {@link MessageAnalysis#getHosts}
+	 * @return ids of all patterns occurring in any of the hosts
+	 */
+	BitSet match(Collection<String> hosts) {
+		BitSet ret = new BitSet(patternCount);
+		if (patterns.isEmpty()) return ret;
+
+		for (String host : hosts) {
+			matchCandidate(host, 0, host.length(), ret);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Match all patterns within a maximal run of host chars.
+	 *
+	 * <p>A match has to start at the run start or after a dot and end at the run end or before a dot that isn't followed
+	 * by another host label. These are the boundaries the per-pattern matcher checks for.
+	 */
+	private void matchCandidate(String s, int start, int end, BitSet out) {
+		for (int matchStart = start; matchStart < end; matchStart++) {
+			if (matchStart > start && s.charAt(matchStart - 1) != '.') continue;
+
+			int maxEnd = Math.min(end, matchStart + maxPatternLength);
+
+			for (int matchEnd = matchStart + 1; matchEnd <= maxEnd; matchEnd++) {
+				if (matchEnd < end) {
+					if (s.charAt(matchEnd) != '.') continue;
+					if (matchEnd + 1 < end && s.charAt(matchEnd + 1) != '.') continue;
+				}
+
+				int[] ids = patterns.get(s.substring(matchStart, matchEnd));
+
+				if (ids != null) {
+					for (int id : ids) {
+						out.set(id);
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean isHostChar(char c) {
+		return c == '.' || FilterType.isPotentialDomainContinuation(c);
+	}
+}
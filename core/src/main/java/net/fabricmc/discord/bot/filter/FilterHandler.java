@@ -16,30 +16,44 @@
 
 package net.fabricmc.discord.bot.filter;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
 import java.io.StringReader;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import com.google.gson.stream.JsonReader;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import net.fabricmc.discord.bot.DiscordBot;
+import net.fabricmc.discord.bot.MessageAnalysis;
 import net.fabricmc.discord.bot.config.ConfigKey;
 import net.fabricmc.discord.bot.config.ValueSerializers;
 import net.fabricmc.discord.bot.database.query.FilterQueries;
@@ -48,7 +62,9 @@ import net.fabricmc.discord.bot.database.query.FilterQueries.FilterEntry;
 import net.fabricmc.discord.bot.database.query.FilterQueries.FilterListEntry;
 import net.fabricmc.discord.bot.database.query.FilterQueries.FilterListExceptionEntry;
 import net.fabricmc.discord.bot.database.query.FilterQueries.GlobalFilterListExceptionEntry;
+import net.fabricmc.discord.bot.filter.FilterProfiler.CostSnapshot;
 import net.fabricmc.discord.bot.filter.FilterType.MessageMatcher;
+import net.fabricmc.discord.bot.filter.LinearRegex.UnsupportedPatternException;
 import net.fabricmc.discord.bot.util.DiscordUtil;
 import net.fabricmc.discord.bot.util.HttpUtil;
 import net.fabricmc.discord.io.Channel;
@@ -60,14 +76,40 @@ import net.fabricmc.discord.io.Server;
 
 public final class FilterHandler implements MessageCreateHandler, MessageEditHandler {
 	private static final int filterListUpdatePeriodMin = 60;
+	private static final int hitFlushPeriodSec = 60;
+	private static final int regexMinStepBudget = 100_000; // char accesses per pattern and message for the fallback matcher
+	private static final int regexStepBudgetPerChar = 1000;
+	private static final int deltaMinMergeSize = 256; // changed filters kept in the delta before merging them through a full reload
+	private static final int deltaMergeRatio = 16; // allowed delta size relative to all filters
+	private static final int pipelineThreads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private static final int pipelineCapacity = 1000; // queued messages before event processing gets blocked
+	private static final int evaluatedContentCacheSize = 1024;
 
 	private static final Logger LOGGER = LogManager.getLogger(FilterHandler.class);
 	private static final ConfigKey<Long> ALERT_CHANNEL = new ConfigKey<>("alertChannel", ValueSerializers.LONG);
+	private static final ConfigKey<Boolean> LINEAR_REGEX = new ConfigKey<>("filter.linearRegex", ValueSerializers.BOOLEAN);
+
+	private static final FilterSet EMPTY_FILTER_SET = new FilterSet(Collections.emptyList(), new AhoCorasick(Collections.emptyList()), new DomainMatcher(Collections.emptyList()), new LinearRegex.Builder().build());
 
 	private final DiscordBot bot;
-	private volatile List<CompiledFilter> filters = Collections.emptyList();
+	private final Object updateLock = new Object();
+	private final Map<Integer, FilterEntry> filterEntries = new LinkedHashMap<>(); // guarded by updateLock, all filters by id
+	private final Map<Integer, FilterEntry> deltaEntries = new LinkedHashMap<>(); // guarded by updateLock, filters changed since the last full reload
+	private volatile CompiledFilters filters = new CompiledFilters(0, EMPTY_FILTER_SET, EMPTY_FILTER_SET, Collections.emptySet(), Collections.emptyMap());
+	private final FilterPipeline pipeline = new FilterPipeline(pipelineThreads, pipelineCapacity);
+	private final FilterProfiler profiler = new FilterProfiler();
+	@SuppressWarnings("serial")
+	private final Map<Long, EvaluatedContent> evaluatedContent = new LinkedHashMap<>(evaluatedContentCacheSize * 2, 0.75f, true) { // guarded by itself, message id -> last evaluated version
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, EvaluatedContent> eldest) {
+			return size() > evaluatedContentCacheSize;
+		}
+	};
 	private volatile Channel alertChannel;
 	private final Map<FilterType, Set<String>> knownInvalidPatterns = new EnumMap<>(FilterType.class);
+	private final Set<String> knownNonLinearRegexPatterns = ConcurrentHashMap.newKeySet();
+	private final Set<String> knownSlowRegexPatterns = ConcurrentHashMap.newKeySet();
+	private final Map<Integer, AtomicInteger> pendingHits = new ConcurrentHashMap<>(); // filter id -> hits not yet written to the db
 
 	public FilterHandler(DiscordBot bot) {
 		this.bot = bot;
@@ -76,37 +118,205 @@ public final class FilterHandler implements MessageCreateHandler, MessageEditHan
 		reloadFilterLists();
 
 		bot.registerConfigEntry(ALERT_CHANNEL, -1L);
+		bot.registerConfigEntry(LINEAR_REGEX, true);
 		// TODO: subscribe to config changes
 
 		bot.getActiveHandler().registerReadyHandler(this::onReady);
 		bot.getActiveHandler().registerGoneHandler(this::onGone);
 
 		bot.getScheduledExecutor().scheduleWithFixedDelay(this::reloadFilterLists, 0, filterListUpdatePeriodMin, TimeUnit.MINUTES);
+		bot.getScheduledExecutor().scheduleWithFixedDelay(this::flushHits, hitFlushPeriodSec, hitFlushPeriodSec, TimeUnit.SECONDS);
+		bot.getDatabase().registerPreCloseHandler(this::flushHits);
 	}
 
+	/**
+	 * Recompile all filters from the db.
+	 */
 	public void reloadFilters() {
 		try {
-			Collection<FilterEntry> filterEntries = FilterQueries.getFilters(bot.getDatabase());
-			List<CompiledFilter> compiledFilters = new ArrayList<>(filterEntries.size());
+			synchronized (updateLock) {
+				Collection<FilterEntry> entries = FilterQueries.getFilters(bot.getDatabase());
+				Map<Integer, FilterData> filterData = FilterQueries.getFilterData(bot.getDatabase());
+
+				filterEntries.clear();
+				deltaEntries.clear();
+
+				for (FilterEntry filter : entries) {
+					filterEntries.put(filter.id(), filter);
+				}
+
+				FilterSet base = compileFilterSet(entries);
+
+				// drop counters of removed filters once they have been flushed
+				pendingHits.entrySet().removeIf(entry -> !filterEntries.containsKey(entry.getKey()) && entry.getValue().get() == 0);
+				if (FilterProfiler.ENABLED) profiler.retainFilters(filterEntries.keySet());
 
-			for (FilterEntry filter : filterEntries) {
-				compiledFilters.add(new CompiledFilter(filter.type().compile(filter.pattern()), filter));
+				filters = new CompiledFilters(filters.version + 1, base, EMPTY_FILTER_SET, Collections.emptySet(), filterData);
 			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Update the compiled filters after the filters with the given ids have been added, changed or removed in the db.
+	 *
+	 * <p>Only the changed filters get compiled, into a delta layered on top of the last full compilation. The delta is
+	 * merged through a full reload once it grows too large.
+	 */
+	public void reloadFilters(Collection<Integer> filterIds) {
+		try {
+			synchronized (updateLock) {
+				CompiledFilters prev = filters;
+
+				if (prev.replaced.size() + filterIds.size() > Math.max(deltaMinMergeSize, filterEntries.size() / deltaMergeRatio)) {
+					reloadFilters();
+					return;
+				}
+
+				for (int id : filterIds) {
+					FilterEntry filter = FilterQueries.getFilter(bot.getDatabase(), id);
+
+					if (filter == null) { // removed
+						filterEntries.remove(id);
+						deltaEntries.remove(id);
+						pendingHits.computeIfPresent(id, (ignore, hits) -> hits.get() == 0 ? null : hits);
+					} else {
+						filterEntries.put(id, filter);
+						deltaEntries.put(id, filter);
+					}
+				}
+
+				Set<Integer> replaced = new HashSet<>(prev.replaced);
+				replaced.addAll(filterIds);
+				Map<Integer, FilterData> filterData = FilterQueries.getFilterData(bot.getDatabase()); // the filters may be in groups added since
+
+				filters = new CompiledFilters(prev.version + 1, prev.base, compileFilterSet(deltaEntries.values()), replaced, filterData);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void reloadFilter(int filterId) {
+		reloadFilters(Collections.singletonList(filterId));
+	}
+
+	/**
+	 * Update the group and action data used by the compiled filters, the filters themselves don't need recompiling.
+	 */
+	public void reloadFilterGroups() {
+		try {
+			synchronized (updateLock) {
+				Map<Integer, FilterData> filterData = FilterQueries.getFilterData(bot.getDatabase());
+				CompiledFilters prev = filters;
 
-			filters = compiledFilters;
+				filters = new CompiledFilters(prev.version + 1, prev.base, prev.delta, prev.replaced, filterData);
+			}
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	private FilterSet compileFilterSet(Collection<FilterEntry> filterEntries) {
+		return compileFilterSet(filterEntries, true);
+	}
+
+	/**
+	 * @param countHits whether to count hits through {@link #pendingHits}, otherwise each filter gets a detached counter
+	 * and the patterns aren't recorded as known non-linear or slow, as for dry runs
+	 */
+	private FilterSet compileFilterSet(Collection<FilterEntry> filterEntries, boolean countHits) {
+		List<CompiledFilter> compiledFilters = new ArrayList<>(filterEntries.size());
+		List<String> contentPatterns = new ArrayList<>();
+		List<String> domainPatterns = new ArrayList<>();
+		LinearRegex.Builder regexBuilder = new LinearRegex.Builder();
+		List<String> newNonLinearRegexPatterns = new ArrayList<>();
+
+		for (FilterEntry filter : filterEntries) {
+			String lcPattern = filter.pattern().toLowerCase(Locale.ENGLISH);
+			AtomicInteger hits = countHits ? pendingHits.computeIfAbsent(filter.id(), ignore -> new AtomicInteger()) : new AtomicInteger();
+			FilterProfiler.Cost cost = FilterProfiler.ENABLED && countHits ? profiler.getFilterCost(filter.id()) : null;
+
+			if (filter.type() == FilterType.CONTENT) { // matched all at once through the automaton
+				compiledFilters.add(new CompiledFilter(null, contentPatterns.size(), filter, hits, cost));
+				contentPatterns.add(lcPattern);
+			} else if (filter.type() == FilterType.DOMAIN && DomainMatcher.isSupported(lcPattern)) { // matched all at once through the host set
+				compiledFilters.add(new CompiledFilter(null, domainPatterns.size(), filter, hits, cost));
+				domainPatterns.add(lcPattern);
+			} else if (filter.type() == FilterType.REGEX) { // matched all at once through the combined regex if possible
+				MessageMatcher fallback = compileStepLimitedRegex(filter, countHits);
+				int patternId;
+
+				try {
+					patternId = regexBuilder.add(filter.pattern());
+				} catch (UnsupportedPatternException e) {
+					patternId = -1;
+					if (countHits && knownNonLinearRegexPatterns.add(filter.pattern())) newNonLinearRegexPatterns.add(filter.pattern()+" ("+e.getMessage()+")");
+				}
+
+				compiledFilters.add(new CompiledFilter(fallback, patternId, filter, hits, cost));
+			} else {
+				compiledFilters.add(new CompiledFilter(filter.type().compile(filter.pattern()), -1, filter, hits, cost));
+			}
+		}
+
+		if (!newNonLinearRegexPatterns.isEmpty()) LOGGER.warn("New regex filter patterns unsupported by the linear matcher, using step limited fallback: {}", newNonLinearRegexPatterns);
+
+		return new FilterSet(compiledFilters, new AhoCorasick(contentPatterns), new DomainMatcher(domainPatterns), regexBuilder.build());
+	}
+
+	/**
+	 * Compile a regex filter for individual matching with a bounded effort, protecting against catastrophic backtracking.
+	 *
+	 * @param record whether to record and log the pattern in {@link #knownSlowRegexPatterns} once it exceeds the budget
+	 */
+	private MessageMatcher compileStepLimitedRegex(FilterEntry filter, boolean record) {
+		Pattern p = Pattern.compile(filter.pattern(), Pattern.CASE_INSENSITIVE);
+
+		return message -> {
+			String lcContent = message.getLowerCaseContent();
+			int budget = (int) Math.min(Integer.MAX_VALUE, Math.max(regexMinStepBudget, (long) lcContent.length() * regexStepBudgetPerChar));
+
+			try {
+				return p.matcher(new StepLimitedCharSequence(lcContent, budget)).find();
+			} catch (StepLimitExceededException e) {
+				if (record && knownSlowRegexPatterns.add(filter.pattern())) LOGGER.warn("Regex filter {} exceeded its step budget, treating as no match: {}", filter.id(), filter.pattern());
+
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Write the in-memory filter hit counts to the db.
+	 */
+	private void flushHits() {
+		Map<Integer, Integer> hits = new HashMap<>();
+
+		for (Map.Entry<Integer, AtomicInteger> entry : pendingHits.entrySet()) {
+			int count = entry.getValue().getAndSet(0);
+			if (count > 0) hits.put(entry.getKey(), count);
+		}
+
+		if (hits.isEmpty()) return;
+
+		try {
+			FilterQueries.addFilterHits(bot.getDatabase(), hits);
+		} catch (Throwable t) {
+			LOGGER.warn("Filter hit count flush failed", t);
+
+			for (Map.Entry<Integer, Integer> entry : hits.entrySet()) { // retry with the next flush
+				pendingHits.computeIfAbsent(entry.getKey(), ignore -> new AtomicInteger()).addAndGet(entry.getValue());
+			}
+		}
+	}
+
 	public synchronized void reloadFilterLists() {
 		try {
 			Collection<GlobalFilterListExceptionEntry> globalExceptions = FilterQueries.getGlobalFilterListExceptions(bot.getDatabase());
 
 			Set<String> excluded = new HashSet<>();
-			StringBuilder sb = new StringBuilder(1200);
-			char[] buf = new char[8192];
-			boolean importedAny = false;
 
 			for (FilterListEntry list : FilterQueries.getFilterLists(bot.getDatabase())) {
 				int listId = list.id();
@@ -123,124 +333,205 @@ public final class FilterHandler implements MessageCreateHandler, MessageEditHan
 					excluded.add(exception.pattern());
 				}
 
-				String content;
+				Map<String, String> headers = new HashMap<>();
+				if (list.etag() != null) headers.put("If-None-Match", list.etag());
+				if (list.lastModified() != null) headers.put("If-Modified-Since", list.lastModified());
+
+				Set<String> patterns = new LinkedHashSet<>();
+				List<String> invalid = new ArrayList<>();
+				int totalPatterns;
+				String etag, lastModified;
 
 				try {
-					HttpResponse<InputStream> response = HttpUtil.makeRequest(list.url());
+					HttpResponse<InputStream> response = HttpUtil.makeRequest(list.url(), headers);
 
-					if (response.statusCode() != 200) {
+					if (response.statusCode() == 304) { // unchanged since the last sync
+						response.body().close();
+						continue;
+					} else if (response.statusCode() != 200) {
 						response.body().close();
 						LOGGER.warn("Filter list {} request failed with status: {}", listId, response.statusCode());
 						continue;
 					}
 
-					sb.setLength(0);
+					etag = response.headers().firstValue("ETag").orElse(null);
+					lastModified = response.headers().firstValue("Last-Modified").orElse(null);
 
-					try (InputStreamReader reader = new InputStreamReader(response.body(), StandardCharsets.UTF_8)) {
-						int len;
-
-						while ((len = reader.read(buf)) >= 0) {
-							sb.append(buf, 0, len);
-						}
+					try (Reader reader = new InputStreamReader(response.body(), StandardCharsets.UTF_8)) {
+						totalPatterns = readPatterns(reader, list.type(), patterns, invalid);
 					}
-
-					content = sb.toString();
 				} catch (IOException | InterruptedException e) {
 					LOGGER.warn("Filter list {} download failed: {}", listId, e.toString());
 					continue;
 				}
 
-				FilterImportResult result = importFilters(content, list.type(), list.group(), excluded);
+				if (patterns.isEmpty()) { // more likely a broken upstream than an intentionally emptied list
+					LOGGER.warn("Filter list {} has no valid patterns, keeping the existing filters", listId);
+					continue;
+				}
+
+				// diff against the stored filters, what remains in stored afterwards got removed upstream or is excluded now
+
+				Map<String, Integer> stored = FilterQueries.getFilterListFilters(bot.getDatabase(), listId);
+				List<String> added = new ArrayList<>();
+				int excludedCount = 0;
 
-				if (result.newPatterns() > 0) {
-					LOGGER.info("Imported {} / {} new filters for list {}, {} excluded, {} invalid", result.newPatterns(), result.totalPatterns(), listId, result.excludedPatterns(), result.invalidPatterns().size());
-					importedAny = true;
+				for (String pattern : patterns) {
+					if (excluded.contains(pattern)) {
+						excludedCount++;
+					} else if (stored.remove(pattern) == null) { // new pattern
+						if (isCompilable(list.type(), pattern)) {
+							added.add(pattern);
+						} else {
+							invalid.add(pattern);
+						}
+					}
 				}
 
-				if (!result.invalidPatterns().isEmpty()) {
-					List<String> newInvalid = new ArrayList<>(result.invalidPatterns().size());
+				List<Integer> addedIds = FilterQueries.updateFilterListFilters(bot.getDatabase(), listId, added, stored.values(), etag, lastModified);
+
+				if (!addedIds.isEmpty() || !stored.isEmpty()) {
+					List<Integer> changedIds = new ArrayList<>(addedIds.size() + stored.size());
+					changedIds.addAll(addedIds);
+					changedIds.addAll(stored.values());
+					reloadFilters(changedIds);
+
+					LOGGER.info("Synced filter list {}, {} / {} new filters, {} removed, {} excluded, {} invalid", listId, addedIds.size(), totalPatterns, stored.size(), excludedCount, invalid.size());
+				}
+
+				if (!invalid.isEmpty()) {
+					List<String> newInvalid = new ArrayList<>(invalid.size());
 					Set<String> knownInvalidPatterns = this.knownInvalidPatterns.computeIfAbsent(list.type(), ignore -> new HashSet<>());
 
-					for (String pattern :  result.invalidPatterns()) {
+					for (String pattern : invalid) {
 						if (knownInvalidPatterns.add(pattern)) newInvalid.add(pattern);
 					}
 
 					if (!newInvalid.isEmpty()) LOGGER.warn("New invalid filter patterns for list {}: {}", list.id(), newInvalid);
 				}
 			}
-
-			if (importedAny) reloadFilters();
 		} catch (Throwable t) {
 			LOGGER.warn("Filter list update failed", t);
 		}
 	}
 
 	public FilterImportResult importFilters(String content, FilterType type, String group, Set<String> excludedPatterns) throws IOException, SQLException {
-		List<String> rawPatterns = new ArrayList<>();
-
-		content = content.trim().replace('\'', '"');
+		Set<String> patterns = new LinkedHashSet<>();
+		List<String> invalid = new ArrayList<>();
+		int totalPatterns = readPatterns(new StringReader(content), type, patterns, invalid);
+		List<String> toAdd = new ArrayList<>(patterns.size());
+		int excluded = 0;
 
-		while (content.startsWith("/*")) {
-			int end = content.indexOf("*/");
-			if (end < 0) throw new IOException("invalid file, non-closed /*");
-			content = content.substring(end + 2).trim();
+		for (String pattern : patterns) {
+			if (excludedPatterns.contains(pattern)) {
+				excluded++;
+			} else if (isCompilable(type, pattern)) {
+				toAdd.add(pattern);
+			} else {
+				invalid.add(pattern);
+			}
 		}
 
-		if (content.startsWith("[")) {
-			try (JsonReader reader = new JsonReader(new StringReader(content))) {
-				reader.setLenient(true);
-				reader.beginArray();
+		List<Integer> added = FilterQueries.addFilters(bot.getDatabase(), type, toAdd, group);
+		if (!added.isEmpty()) reloadFilters(added);
 
-				while (reader.hasNext()) {
-					rawPatterns.add(reader.nextString());
+		return new FilterImportResult(totalPatterns, added.size(), invalid, excluded);
+	}
+
+	/**
+	 * Read patterns from a JSON array or a file with one pattern per line, both optionally preceded by block comments.
+	 *
+	 * <p>The input is consumed as it arrives without buffering it entirely.
+	 *
+	 * @param patterns output for the unique normalized patterns
+	 * @param invalid output for the patterns failing normalization
+	 * @return number of raw patterns read
+	 */
+	private static int readPatterns(Reader reader, FilterType type, Set<String> patterns, List<String> invalid) throws IOException {
+		PushbackReader in = new PushbackReader(reader, 2);
+		int c;
+
+		// skip leading whitespace and /* */ comments
+
+		for (;;) {
+			c = in.read();
+			if (c < 0) return 0;
+			if (Character.isWhitespace(c)) continue;
+
+			if (c == '/') {
+				int next = in.read();
+
+				if (next == '*') {
+					int prev = 0;
+
+					while ((c = in.read()) >= 0 && (prev != '*' || c != '/')) {
+						prev = c;
+					}
+
+					if (c < 0) throw new IOException("invalid file, non-closed /*");
+					continue;
 				}
 
-				reader.endArray();
-			}
-		} else {
-			for (String pattern : content.split("\\R")) {
-				rawPatterns.add(pattern);
+				if (next >= 0) in.unread(next);
 			}
+
+			in.unread(c);
+			break;
 		}
 
-		Set<String> patterns = new LinkedHashSet<>(rawPatterns.size());
-		List<String> invalid = new ArrayList<>();
+		int ret = 0;
 
-		for (String pattern : rawPatterns) {
-			try {
-				pattern = type.normalizePattern(pattern);
+		if (c == '[') {
+			try (JsonReader jsonReader = new JsonReader(in)) {
+				jsonReader.setLenient(true); // accepts single quoted strings and comments
+				jsonReader.beginArray();
 
-				if (pattern.isBlank()) {
-					invalid.add(pattern);
-					continue;
+				while (jsonReader.hasNext()) {
+					addPattern(jsonReader.nextString(), type, patterns, invalid);
+					ret++;
 				}
 
-				type.compile(pattern); // test-compile to catch errors before storing the pattern
-				patterns.add(pattern);
-			} catch (Throwable t) {
-				LOGGER.debug("Pattern check/compile failed for {} {}: {}", type.id, pattern, t);
-				invalid.add(pattern);
-				continue;
+				jsonReader.endArray();
 			}
-		}
+		} else {
+			BufferedReader lineReader = new BufferedReader(in);
+			String line;
 
-		int added = 0;
-		int excluded = 0;
+			while ((line = lineReader.readLine()) != null) {
+				if (line.isBlank()) continue;
 
-		for (String pattern : patterns) {
-			if (excludedPatterns.contains(pattern)) {
-				excluded++;
-				continue;
+				addPattern(line.replace('\'', '"'), type, patterns, invalid);
+				ret++;
 			}
+		}
 
-			if (FilterQueries.addFilter(bot.getDatabase(), type, pattern, group) >= 0) {
-				added++;
-			}
+		return ret;
+	}
+
+	private static void addPattern(String pattern, FilterType type, Set<String> patterns, List<String> invalid) {
+		try {
+			pattern = type.normalizePattern(pattern);
+		} catch (Throwable t) {
+			LOGGER.debug("Pattern normalization failed for {} {}: {}", type.id, pattern, t);
+			invalid.add(pattern);
+			return;
 		}
 
-		if (added > 0) reloadFilters();
+		if (pattern.isBlank()) {
+			invalid.add(pattern);
+		} else {
+			patterns.add(pattern);
+		}
+	}
 
-		return new FilterImportResult(rawPatterns.size(), added, invalid, excluded);
+	private static boolean isCompilable(FilterType type, String pattern) {
+		try {
+			type.compile(pattern); // test-compile to catch errors before storing the pattern
+			return true;
+		} catch (Throwable t) {
+			LOGGER.debug("Pattern compile failed for {} {}: {}", type.id, pattern, t);
+			return false;
+		}
 	}
 
 	public record FilterImportResult(int totalPatterns, int newPatterns, Collection<String> invalidPatterns, int excludedPatterns) { }
@@ -271,6 +562,51 @@ public final class FilterHandler implements MessageCreateHandler, MessageEditHan
 		return alertChannel;
 	}
 
+	public FilterPipeline.Stats getPipelineStats() {
+		return pipeline.getStats();
+	}
+
+	/**
+	 * @return collected profiling data or null if profiling is disabled
+	 */
+	public FilterProfile getProfile() {
+		if (!FilterProfiler.ENABLED) return null;
+
+		List<FilterEntry> entries;
+
+		synchronized (updateLock) {
+			entries = new ArrayList<>(filterEntries.values());
+		}
+
+		Set<Integer> filterIds = new HashSet<>(entries.size());
+
+		for (FilterEntry filter : entries) {
+			filterIds.add(filter.id());
+		}
+
+		FilterProfiler.Profile profile = profiler.getProfile(filterIds);
+		List<FilterCost> filters = new ArrayList<>(profile.filters().size());
+
+		for (FilterEntry filter : entries) {
+			CostSnapshot cost = profile.filters().get(filter.id());
+			if (cost != null) filters.add(new FilterCost(filter, cost));
+		}
+
+		filters.sort(Comparator.comparingLong((FilterCost c) -> c.cost().timeNs()).reversed());
+
+		return new FilterProfile(profile.sampledMessages(), profile.types(), filters, profile.histogram());
+	}
+
+	/**
+	 * @param sampledMessages number of profiled messages
+	 * @param types costs per filter type, including the time taken by combined matchers
+	 * @param filters costs per filter, most expensive first
+	 * @param histogram profiled messages per evaluation time bucket, bucket i covers [2^(i-1), 2^i) ns
+	 */
+	public record FilterProfile(long sampledMessages, Map<FilterType, CostSnapshot> types, List<FilterCost> filters, long[] histogram) { }
+
+	public record FilterCost(FilterEntry filter, CostSnapshot cost) { }
+
 	public void registerEarlyHandlers(GlobalEventHolder holder) {
 		holder.registerMessageCreate(this);
 		holder.registerMessageEdit(this);
@@ -281,7 +617,7 @@ public final class FilterHandler implements MessageCreateHandler, MessageEditHan
 		Server server = message.getChannel().getServer();
 		if (server == null || server.getId() != bot.getServerId()) return;
 
-		handleMessage(message, false);
+		pipeline.submit(message.getChannel().getId(), () -> handleMessage(message, false));
 	}
 
 	@Override
@@ -289,32 +625,34 @@ public final class FilterHandler implements MessageCreateHandler, MessageEditHan
 		Server server = message.getChannel().getServer();
 		if (server == null || server.getId() != bot.getServerId()) return;
 
-		handleMessage(message, true);
+		pipeline.submit(message.getChannel().getId(), () -> handleMessage(message, true));
 	}
 
+	/**
+	 * Evaluate the filters for a message, running on the filter pipeline.
+	 */
 	private void handleMessage(Message message, boolean isEdit) {
 		if (message.isFromWebhook()) return;
+
+		CompiledFilters filters = this.filters;
+		if (!markEvaluated(message, filters)) return; // same content already evaluated against the same filters, e.g. an embed update
+
 		if (!DiscordUtil.canDeleteMessages(message.getChannel())) return;
 		if (bot.getUserHandler().hasImmunity(message.getAuthor(), bot.getUserHandler().getBotUserId(), false)) return;
 
-		String lcContent = message.getContent().toLowerCase(Locale.ENGLISH);
-		List<CompiledFilter> filters = this.filters;
+		MessageAnalysis analysis = bot.getMessageAnalysis(message);
 
-		FilterEntry bestFilter = null;
-		FilterData bestFilterData = null;
+		CompiledFilter bestFilter;
 
 		try {
-			for (CompiledFilter compiledFilter : filters) {
-				if (compiledFilter.matcher.matches(message, lcContent)) {
-					FilterData data = FilterQueries.handleFilterHit(bot.getDatabase(), compiledFilter.filter);
-
-					if (data != null
-							&& (bestFilterData == null || FilterAction.compare(bestFilterData.action(), bestFilterData.actionData(), data.action(), data.actionData()) < 0)) {
-						bestFilter = compiledFilter.filter;
-						bestFilterData = data;
-					}
-				}
-			}
+			boolean linearRegex = bot.getConfigEntry(LINEAR_REGEX);
+			boolean profile = FilterProfiler.ENABLED && profiler.sample(); // constant false without profiling, eliminating its code
+			long startTime = profile ? System.nanoTime() : 0;
+
+			bestFilter = findBestFilter(filters.base, filters.replaced, filters.filterData, analysis, linearRegex, profile, null);
+			bestFilter = findBestFilter(filters.delta, Collections.emptySet(), filters.filterData, analysis, linearRegex, profile, bestFilter);
+
+			if (profile) profiler.recordMessage(System.nanoTime() - startTime);
 		} catch (Throwable t) {
 			LOGGER.warn("Filter matching failed", t);
 			return;
@@ -322,12 +660,313 @@ public final class FilterHandler implements MessageCreateHandler, MessageEditHan
 
 		if (bestFilter == null) return;
 
+		FilterData bestFilterData = filters.filterData.get(bestFilter.filter.groupId());
+
 		try {
-			bestFilterData.action().apply(message, bestFilter, bestFilterData, this);
+			bestFilterData.action().apply(message, bestFilter.filter, bestFilterData, this);
 		} catch (Throwable t) {
-			LOGGER.warn("Filter {} application failed", bestFilter.id(), t);
+			LOGGER.warn("Filter {} application failed", bestFilter.filter.id(), t);
 		}
 	}
 
-	private record CompiledFilter(MessageMatcher matcher, FilterEntry filter) { }
+	/**
+	 * Record the evaluation of a message version.
+	 *
+	 * @return false if the same content has already been evaluated against the same filters
+	 */
+	private boolean markEvaluated(Message message, CompiledFilters filters) {
+		String content = message.getContent();
+		EvaluatedContent prev;
+
+		synchronized (evaluatedContent) {
+			prev = evaluatedContent.put(message.getId(), new EvaluatedContent(content, filters.version));
+		}
+
+		return prev == null || prev.filterVersion != filters.version || !prev.content.equals(content);
+	}
+
+	/**
+	 * Match all filters in a filter set, counting their hits.
+	 *
+	 * @param excluded ids of the filters to skip
+	 * @param profile whether to record the evaluation costs with the profiler
+	 * @param bestFilter best matching filter so far or null
+	 * @return best matching filter, the filter with the lowest id takes precedence for equal actions, also across the base
+	 * and delta sets
+	 */
+	private CompiledFilter findBestFilter(FilterSet set, Set<Integer> excluded, Map<Integer, FilterData> filterData, MessageAnalysis analysis, boolean linearRegex, boolean profile, CompiledFilter bestFilter) {
+		if (set.filters.isEmpty()) return bestFilter;
+
+		String lcContent = analysis.getLowerCaseContent();
+		long time = profile ? System.nanoTime() : 0;
+		BitSet contentMatches = set.contentMatcher.match(lcContent);
+		if (profile) time = recordEngineTime(FilterType.CONTENT, time);
+		BitSet domainMatches = set.domainMatcher.match(analysis.getHosts());
+		if (profile) time = recordEngineTime(FilterType.DOMAIN, time);
+		BitSet regexMatches = linearRegex ? set.regexMatcher.match(lcContent) : null;
+		if (profile) recordEngineTime(FilterType.REGEX, time);
+
+		FilterData bestFilterData = bestFilter != null ? filterData.get(bestFilter.filter.groupId()) : null;
+
+		for (CompiledFilter compiledFilter : set.filters) {
+			if (!excluded.isEmpty() && excluded.contains(compiledFilter.filter.id())) continue;
+
+			FilterData data = filterData.get(compiledFilter.filter.groupId());
+			if (data == null) continue; // group without valid action, can't be applied
+
+			boolean matches;
+
+			if (profile) {
+				long start = System.nanoTime();
+				matches = matches(compiledFilter, contentMatches, domainMatches, regexMatches, analysis);
+				long filterTime = compiledFilter.patternId < 0 || compiledFilter.filter.type() == FilterType.REGEX && regexMatches == null ? System.nanoTime() - start : 0;
+				profiler.recordFilter(compiledFilter.cost, compiledFilter.filter.type(), filterTime, matches);
+			} else {
+				matches = matches(compiledFilter, contentMatches, domainMatches, regexMatches, analysis);
+			}
+
+			if (matches) {
+				compiledFilter.hits.incrementAndGet();
+
+				int cmp = bestFilterData == null ? -1 : FilterAction.compare(bestFilterData.action(), bestFilterData.actionData(), data.action(), data.actionData());
+
+				if (cmp < 0 || cmp == 0 && compiledFilter.filter.id() < bestFilter.filter.id()) {
+					bestFilter = compiledFilter;
+					bestFilterData = data;
+				}
+			}
+		}
+
+		return bestFilter;
+	}
+
+	private long recordEngineTime(FilterType type, long startTime) {
+		long time = System.nanoTime();
+		profiler.recordEngine(type, time - startTime);
+
+		return time;
+	}
+
+	private static boolean matches(CompiledFilter filter, BitSet contentMatches, BitSet domainMatches, BitSet regexMatches, MessageAnalysis analysis) {
+		if (filter.patternId < 0) return filter.matcher.matches(analysis);
+
+		return switch (filter.filter.type()) {
+		case CONTENT -> contentMatches.get(filter.patternId);
+		case DOMAIN -> domainMatches.get(filter.patternId);
+		case REGEX -> regexMatches != null ? regexMatches.get(filter.patternId) : filter.matcher.matches(analysis);
+		default -> throw new IllegalStateException();
+		};
+	}
+
+	/**
+	 * Replay the message index through candidate filters without touching the db or applying any actions.
+	 *
+	 * <p>The channels are processed in parallel through fork/join.
+	 *
+	 * @param patterns normalized patterns to test
+	 * @param maxSamples maximum number of matching messages to return
+	 */
+	public FilterTestResult testFilters(FilterType type, Collection<String> patterns, int maxSamples) {
+		long startTime = System.nanoTime();
+		List<FilterEntry> entries = new ArrayList<>(patterns.size());
+
+		for (String pattern : patterns) {
+			entries.add(new FilterEntry(entries.size(), type, pattern, -1, 0));
+		}
+
+		FilterSet set = compileFilterSet(entries, false);
+		long compileTimeUs = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+
+		FilterTestPart part = ForkJoinPool.commonPool().invoke(new FilterTestTask(new ArrayList<>(bot.getMessageIndex().getCachedChannels()), set, bot.getConfigEntry(LINEAR_REGEX), maxSamples));
+		long[] times = Arrays.copyOf(part.timesNs, part.messages);
+		Arrays.sort(times);
+
+		Map<String, Integer> hits = new LinkedHashMap<>();
+
+		for (CompiledFilter filter : set.filters) {
+			if (filter.hits.get() > 0) hits.put(filter.filter.pattern(), filter.hits.get());
+		}
+
+		return new FilterTestResult(part.messages, part.matchedMessages, hits,
+				part.samples.size() > maxSamples ? part.samples.subList(0, maxSamples) : part.samples,
+				compileTimeUs,
+				times.length > 0 ? times[(times.length - 1) / 2] : 0,
+				times.length > 0 ? times[(times.length - 1) * 99 / 100] : 0);
+	}
+
+	/**
+	 * Replay the message index through the valid patterns read from an import file, see {@link #importFilters}.
+	 */
+	public FilterTestResult testFilters(String content, FilterType type, int maxSamples) throws IOException {
+		Set<String> patterns = new LinkedHashSet<>();
+		readPatterns(new StringReader(content), type, patterns, new ArrayList<>());
+		patterns.removeIf(pattern -> !isCompilable(type, pattern));
+
+		return testFilters(type, patterns, maxSamples);
+	}
+
+	/**
+	 * @param messages number of replayed messages
+	 * @param matchedMessages number of replayed messages matching any pattern
+	 * @param hits pattern -> matched messages for all patterns with at least one match
+	 * @param samples some of the matching messages
+	 * @param compileTimeUs time taken to compile the candidate patterns
+	 * @param p50TimeNs median evaluation time per message
+	 * @param p99TimeNs 99th percentile evaluation time per message
+	 */
+	public record FilterTestResult(int messages, int matchedMessages, Map<String, Integer> hits, List<FilterTestSample> samples,
+			long compileTimeUs, long p50TimeNs, long p99TimeNs) { }
+
+	public record FilterTestSample(long channelId, long messageId, long authorId, String pattern, String content) { }
+
+	private record FilterTestPart(int messages, int matchedMessages, long[] timesNs, List<FilterTestSample> samples) {
+		FilterTestPart merge(FilterTestPart o) {
+			long[] times = Arrays.copyOf(timesNs, messages + o.messages);
+			System.arraycopy(o.timesNs, 0, times, messages, o.messages);
+			List<FilterTestSample> samples = new ArrayList<>(this.samples);
+			samples.addAll(o.samples);
+
+			return new FilterTestPart(messages + o.messages, matchedMessages + o.matchedMessages, times, samples);
+		}
+	}
+
+	/**
+	 * Fork/join task replaying a range of channels, splitting down to single channels.
+	 */
+	@SuppressWarnings("serial")
+	private final class FilterTestTask extends RecursiveTask<FilterTestPart> {
+		private final List<Channel> channels;
+		private final FilterSet set;
+		private final boolean linearRegex;
+		private final int maxSamples;
+
+		FilterTestTask(List<Channel> channels, FilterSet set, boolean linearRegex, int maxSamples) {
+			this.channels = channels;
+			this.set = set;
+			this.linearRegex = linearRegex;
+			this.maxSamples = maxSamples;
+		}
+
+		@Override
+		protected FilterTestPart compute() {
+			if (channels.size() > 1) {
+				int mid = channels.size() / 2;
+				FilterTestTask second = new FilterTestTask(channels.subList(mid, channels.size()), set, linearRegex, maxSamples);
+				second.fork();
+				FilterTestPart first = new FilterTestTask(channels.subList(0, mid), set, linearRegex, maxSamples).compute();
+
+				return first.merge(second.join());
+			}
+
+			long[][] times = { new long[channels.isEmpty() ? 0 : Math.max(16, bot.getMessageIndex().getSize(channels.get(0)))] };
+			int[] counts = new int[2]; // messages, matched messages
+			List<FilterTestSample> samples = new ArrayList<>();
+
+			for (Channel channel : channels) {
+				bot.getMessageIndex().accept(channel, message -> {
+					long start = System.nanoTime();
+					MessageAnalysis analysis = MessageAnalysis.of(message);
+					String lcContent = analysis.getLowerCaseContent();
+					BitSet contentMatches = set.contentMatcher.match(lcContent);
+					BitSet domainMatches = set.domainMatcher.match(analysis.getHosts());
+					BitSet regexMatches = linearRegex ? set.regexMatcher.match(lcContent) : null;
+					CompiledFilter firstMatch = null;
+
+					for (CompiledFilter filter : set.filters) {
+						if (matches(filter, contentMatches, domainMatches, regexMatches, analysis)) {
+							filter.hits.incrementAndGet();
+							if (firstMatch == null) firstMatch = filter;
+						}
+					}
+
+					if (counts[0] == times[0].length) times[0] = Arrays.copyOf(times[0], times[0].length * 2);
+					times[0][counts[0]++] = System.nanoTime() - start;
+
+					if (firstMatch != null) {
+						counts[1]++;
+
+						if (samples.size() < maxSamples) {
+							samples.add(new FilterTestSample(message.getChannelId(), message.getId(), message.getAuthorDiscordId(), firstMatch.filter.pattern(), message.getContent()));
+						}
+					}
+
+					return true;
+				}, false);
+			}
+
+			return new FilterTestPart(counts[0], counts[1], times[0], samples);
+		}
+	}
+
+	private record EvaluatedContent(String content, int filterVersion) { }
+
+	/**
+	 * @param version counter incremented with every update
+	 * @param base all filters as of the last full reload
+	 * @param delta filters added or changed since the last full reload, matched after base
+	 * @param replaced ids of the base filters that got removed or superseded by delta
+	 * @param filterData group id -> group and action data
+	 */
+	private record CompiledFilters(int version, FilterSet base, FilterSet delta, Set<Integer> replaced, Map<Integer, FilterData> filterData) { }
+
+	/**
+	 * @param filters filters in id order
+	 * @param contentMatcher automaton for all CONTENT filters
+	 * @param domainMatcher host set for all supported DOMAIN filters
+	 * @param regexMatcher combined matcher for all REGEX filters it supports
+	 */
+	private record FilterSet(List<CompiledFilter> filters, AhoCorasick contentMatcher, DomainMatcher domainMatcher, LinearRegex regexMatcher) { }
+
+	/**
+	 * @param matcher individual matcher for the filter, null if it is handled by the content or domain matcher, step limited
+	 * fallback for REGEX filters
+	 * @param patternId pattern id within the content, domain or regex matcher, -1 if only the individual matcher applies
+	 * @param hits hit counter shared with {@link FilterHandler#pendingHits}
+	 * @param cost profiling data, null without profiling
+	 */
+	private record CompiledFilter(MessageMatcher matcher, int patternId, FilterEntry filter, AtomicInteger hits, FilterProfiler.Cost cost) { }
+
+	/**
+	 * CharSequence view that fails once the matcher accessed more characters than its budget allows.
+	 */
+	private static final class StepLimitedCharSequence implements CharSequence {
+		private final String s;
+		private int remaining;
+
+		StepLimitedCharSequence(String s, int budget) {
+			this.s = s;
+			this.remaining = budget;
+		}
+
+		@Override
+		public int length() {
+			return s.length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (--remaining < 0) throw StepLimitExceededException.INSTANCE;
+
+			return s.charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return s.subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return s;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class StepLimitExceededException extends RuntimeException {
+		static final StepLimitExceededException INSTANCE = new StepLimitExceededException();
+
+		private StepLimitExceededException() {
+			super(null, null, false, false);
+		}
+	}
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot.filter;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.fabricmc.discord.bot.util.DaemonThreadFactory;
+
+/**
+ * Bounded worker pool running tasks in parallel across channels while keeping their submission order per channel.
+ *
+ * <p>Submitting blocks once the capacity is exhausted, slowing down the event source instead of dropping tasks or growing
+ * without bounds.
+ */
+public final class FilterPipeline {
+	private static final int maxBatchSize = 32; // tasks run for a channel before yielding the worker to other channels
+	private static final long backpressureWarnIntervalMs = 60_000;
+
+	private static final Logger LOGGER = LogManager.getLogger(FilterPipeline.class);
+
+	private final ExecutorService executor;
+	private final Semaphore capacity;
+	private final int maxQueued;
+	private final Map<Long, Queue<Runnable>> channelQueues = new ConcurrentHashMap<>(); // channel id -> pending tasks, present while a drain is scheduled
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong processingTimeNs = new AtomicLong();
+	private final AtomicLong blockedSubmissions = new AtomicLong();
+	private final AtomicLong blockedTimeNs = new AtomicLong();
+	private final AtomicLong lastBackpressureWarning = new AtomicLong();
+
+	FilterPipeline(int threads, int maxQueued) {
+		this.executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("Filter worker thread"));
+		this.capacity = new Semaphore(maxQueued);
+		this.maxQueued = maxQueued;
+	}
+
+	/**
+	 * Queue a task to run after all previously submitted tasks for the same channel, waiting for capacity if needed.
+	 */
+	void submit(long channelId, Runnable task) {
+		if (!capacity.tryAcquire()) {
+			long start = System.nanoTime();
+			blockedSubmissions.incrementAndGet();
+			warnBackpressure();
+
+			capacity.acquireUninterruptibly();
+			blockedTimeNs.addAndGet(System.nanoTime() - start);
+		}
+
+		maxQueueDepth.accumulateAndGet(getQueueDepth(), Math::max);
+
+		boolean[] schedule = new boolean[1];
+
+		channelQueues.compute(channelId, (id, queue) -> {
+			if (queue == null) {
+				queue = new ArrayDeque<>();
+				schedule[0] = true;
+			}
+
+			queue.add(task);
+
+			return queue;
+		});
+
+		if (schedule[0]) executor.execute(() -> drain(channelId));
+	}
+
+	private void drain(long channelId) {
+		for (int i = 0; i < maxBatchSize; i++) {
+			Runnable task = poll(channelId);
+			if (task == null) return; // queue removed, the next submission schedules a new drain
+
+			long start = System.nanoTime();
+
+			try {
+				task.run();
+			} catch (Throwable t) {
+				failed.incrementAndGet();
+				LOGGER.warn("Filter task failed", t);
+			} finally {
+				processingTimeNs.addAndGet(System.nanoTime() - start);
+				processed.incrementAndGet();
+				capacity.release();
+			}
+		}
+
+		executor.execute(() -> drain(channelId)); // more tasks remain, continue after other channels had their turn
+	}
+
+	private Runnable poll(long channelId) {
+		Runnable[] ret = new Runnable[1];
+
+		channelQueues.computeIfPresent(channelId, (id, queue) -> {
+			ret[0] = queue.poll();
+
+			return ret[0] != null ? queue : null;
+		});
+
+		return ret[0];
+	}
+
+	private void warnBackpressure() {
+		long time = System.currentTimeMillis();
+		long prev = lastBackpressureWarning.get();
+
+		if (time - prev >= backpressureWarnIntervalMs && lastBackpressureWarning.compareAndSet(prev, time)) {
+			LOGGER.warn("Filter pipeline full with {} queued messages, delaying event processing", maxQueued);
+		}
+	}
+
+	int getQueueDepth() {
+		return maxQueued - capacity.availablePermits();
+	}
+
+	Stats getStats() {
+		return new Stats(getQueueDepth(), maxQueueDepth.get(), maxQueued, channelQueues.size(),
+				processed.get(), failed.get(), TimeUnit.NANOSECONDS.toMicros(processingTimeNs.get()),
+				blockedSubmissions.get(), TimeUnit.NANOSECONDS.toMillis(blockedTimeNs.get()));
+	}
+
+	/**
+	 * @param queueDepth tasks currently queued or running
+	 * @param maxQueueDepth highest queue depth seen so far
+	 * @param capacity queue depth at which submissions start blocking
+	 * @param activeChannels channels with queued or running tasks
+	 * @param processed tasks completed so far
+	 * @param failed tasks completed by throwing so far
+	 * @param processingTimeUs total time spent running tasks
+	 * @param blockedSubmissions submissions that had to wait for capacity
+	 * @param blockedTimeMs total time submissions waited for capacity
+	 */
+	public record Stats(int queueDepth, int maxQueueDepth, int capacity, int activeChannels,
+			long processed, long failed, long processingTimeUs,
+			long blockedSubmissions, long blockedTimeMs) { }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot.filter;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sampling collector for filter evaluation costs.
+ *
+ * <p>Profiling is enabled with the system property fabricBot.filterProfiling=true. The flag is a constant, so the JIT
+ * removes all profiling code from the matching path while it is disabled.
+ */
+public final class FilterProfiler {
+	static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("fabricBot.filterProfiling", "false"));
+
+	private static final int sampleIntervalMask = 15; // profile every 16th message
+	public static final int HISTOGRAM_BUCKETS = 40; // bucket i holds message evaluation times in [2^(i-1), 2^i) ns
+
+	private final AtomicInteger messageCounter = new AtomicInteger();
+	private final LongAdder sampledMessages = new LongAdder();
+	private final Map<FilterType, Cost> typeCosts = new EnumMap<>(FilterType.class); // populated upfront, read-only afterwards
+	private final Map<Integer, Cost> filterCosts = new ConcurrentHashMap<>(); // filter id -> cost
+	private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+	FilterProfiler() {
+		for (FilterType type : FilterType.values()) {
+			typeCosts.put(type, new Cost());
+		}
+	}
+
+	/**
+	 * Determine whether the current message should be profiled.
+	 */
+	boolean sample() {
+		return (messageCounter.incrementAndGet() & sampleIntervalMask) == 0;
+	}
+
+	Cost getFilterCost(int filterId) {
+		return filterCosts.computeIfAbsent(filterId, ignore -> new Cost());
+	}
+
+	void retainFilters(Set<Integer> filterIds) {
+		filterCosts.keySet().retainAll(filterIds);
+	}
+
+	/**
+	 * Record the time taken by a matcher handling all filters of a type at once.
+	 */
+	void recordEngine(FilterType type, long timeNs) {
+		typeCosts.get(type).timeNs.add(timeNs);
+	}
+
+	/**
+	 * Record the evaluation of an individual filter.
+	 *
+	 * @param timeNs time spent on the filter alone, 0 if it was matched through a combined matcher
+	 */
+	void recordFilter(Cost cost, FilterType type, long timeNs, boolean matched) {
+		cost.record(timeNs, matched);
+		typeCosts.get(type).record(timeNs, matched);
+	}
+
+	void recordMessage(long timeNs) {
+		sampledMessages.increment();
+		histogram.incrementAndGet(Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(timeNs)));
+	}
+
+	/**
+	 * @param filterIds ids of the filters to include
+	 */
+	Profile getProfile(Set<Integer> filterIds) {
+		Map<FilterType, CostSnapshot> types = new EnumMap<>(FilterType.class);
+
+		for (Map.Entry<FilterType, Cost> entry : typeCosts.entrySet()) {
+			types.put(entry.getKey(), entry.getValue().snapshot());
+		}
+
+		Map<Integer, CostSnapshot> filters = new HashMap<>();
+
+		for (Map.Entry<Integer, Cost> entry : filterCosts.entrySet()) {
+			if (filterIds.contains(entry.getKey())) filters.put(entry.getKey(), entry.getValue().snapshot());
+		}
+
+		long[] histogram = new long[HISTOGRAM_BUCKETS];
+
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] = this.histogram.get(i);
+		}
+
+		return new Profile(sampledMessages.sum(), Collections.unmodifiableMap(types), filters, histogram);
+	}
+
+	/**
+	 * @param sampledMessages number of profiled messages
+	 * @param types costs per filter type, including the time taken by combined matchers
+	 * @param filters filter id -> cost
+	 * @param histogram profiled messages per evaluation time bucket, see {@link #HISTOGRAM_BUCKETS}
+	 */
+	record Profile(long sampledMessages, Map<FilterType, CostSnapshot> types, Map<Integer, CostSnapshot> filters, long[] histogram) { }
+
+	/**
+	 * @param timeNs total evaluation time
+	 * @param evaluations number of evaluations
+	 * @param matches number of evaluations matching
+	 */
+	public record CostSnapshot(long timeNs, long evaluations, long matches) { }
+
+	static final class Cost {
+		final LongAdder timeNs = new LongAdder();
+		final LongAdder evaluations = new LongAdder();
+		final LongAdder matches = new LongAdder();
+
+		void record(long timeNs, boolean matched) {
+			if (timeNs > 0) this.timeNs.add(timeNs);
+			evaluations.increment();
+			if (matched) matches.increment();
+		}
+
+		CostSnapshot snapshot() {
+			return new CostSnapshot(timeNs.sum(), evaluations.sum(), matches.sum());
+		}
+	}
+}
@@ -17,25 +17,23 @@
 package net.fabricmc.discord.bot.filter;
 
 import java.util.Locale;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import net.fabricmc.discord.bot.util.DiscordUtil;
-import net.fabricmc.discord.io.Message;
+import net.fabricmc.discord.bot.MessageAnalysis;
 
 public enum FilterType {
 	CONTENT("content") {
 		@Override
 		public MessageMatcher compile(String pattern) {
 			String s = pattern.toLowerCase(Locale.ENGLISH);
-			return (msg, lcContent) -> lcContent.contains(s);
+			return message -> message.getLowerCaseContent().contains(s);
 		}
 	},
 	REGEX("regex") {
 		@Override
 		public MessageMatcher compile(String pattern) {
 			Pattern p = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
-			return (msg, lcContent) -> p.matcher(lcContent).find();
+			return message -> p.matcher(message.getLowerCaseContent()).find();
 		}
 	},
 	DOMAIN("domain") {
@@ -76,7 +74,8 @@ public enum FilterType {
 		public MessageMatcher compile(String pattern) {
 			String domain = pattern.toLowerCase(Locale.ENGLISH);
 
-			return (msg, lcContent) -> {
+			return message -> {
+				String lcContent = message.getDeobfuscatedLowerCaseContent();
 				int start = 0;
 				int pos;
 
@@ -103,11 +102,7 @@ public enum FilterType {
 	DISCORD("discord") {
 		@Override
 		public MessageMatcher compile(String pattern) {
-			return (msg, lcContent) -> {
-				Matcher matcher = DiscordUtil.INVITE_PATTERN.matcher(msg.getContent());
-
-				return matcher.matches() && matcher.group(1).equals(pattern);
-			};
+			return message -> message.getInviteCodes().contains(pattern);
 		}
 	};
 
@@ -133,12 +128,12 @@ public enum FilterType {
 
 	public abstract MessageMatcher compile(String pattern);
 
-	static boolean isPotentialDomainContinuation(char c) {
+	public static boolean isPotentialDomainContinuation(char c) {
 		// not full ucschar coverage as per http://www.faqs.org/rfcs/rfc3987.html - but probably good enough..
 		return Character.isLetterOrDigit(c) || "-_~%!$&'()*+,;=".indexOf(c) >= 0;
 	}
 
 	public interface MessageMatcher {
-		boolean matches(Message message, String lowerCaseContent);
+		boolean matches(MessageAnalysis message);
 	}
 }
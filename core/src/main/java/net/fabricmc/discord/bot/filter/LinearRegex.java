@@ -0,0 +1,1095 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Combined matcher for many regular expressions with run time linear in the input length.
+ *
+ * <p>All patterns are compiled into a single Thompson NFA that gets simulated over the input once, so there is no
+ * backtracking. Only the subset of {@link Pattern} syntax without backtracking-dependent semantics is
+ * supported, with the same results as a case insensitive {@code Pattern.find()} on lower case input. Patterns using
+ * anything else get rejected by {@link Builder#add}.
+ */
+final class LinearRegex {
+	private static final int MAX_PATTERN_NODES = 4096; // after expanding counted repetitions
+
+	private static final int KIND_CONSUME = 0;
+	private static final int KIND_SPLIT = 1;
+	private static final int KIND_ASSERT = 2;
+	private static final int KIND_MATCH = 3;
+
+	private static final int ASSERT_BEGIN = 0;
+	private static final int ASSERT_END = 1;
+	private static final int ASSERT_DOLLAR = 2;
+	private static final int ASSERT_BOUNDARY = 3;
+	private static final int ASSERT_NON_BOUNDARY = 4;
+
+	private static final int CTX_BEGIN = 1;
+	private static final int CTX_END = 2;
+	private static final int CTX_DOLLAR = 4;
+	private static final int CTX_BOUNDARY = 8;
+	private static final int CTX_COUNT = 16;
+
+	private static final int[] NO_NODES = new int[0];
+
+	/**
+	 * Whether Pattern's \b treats all letters and digits as word characters, which changed to just ASCII in Java 19.
+	 */
+	private static final boolean UNICODE_WORD_CHARS = Pattern.compile("\\b", Pattern.CASE_INSENSITIVE).matcher("\u00e9").find();
+	/**
+	 * Whether the word boundary emulation agrees with Pattern on this JVM, \b and \B get rejected otherwise.
+	 */
+	private static final boolean BOUNDARY_SUPPORTED = checkBoundaries("\u00e9\u0301a1 _\u0301\u0301x \u0301y\u00e9 \u00e9\u0301\u0301b");
+
+	private final int nodeCount;
+	private final int[] kinds;
+	private final int[] out1;
+	private final int[] out2; // only for KIND_SPLIT, -1 if absent
+	private final int[] aux; // assert type for KIND_ASSERT, pattern id for KIND_MATCH
+	private final int[] nodePatterns; // node -> pattern id
+	private final CharPredicate[] predicates; // only for KIND_CONSUME
+	private final int[] starts; // pattern id -> start node
+	private final StartClosure[] startClosures = new StartClosure[CTX_COUNT]; // lazily computed, racy but immutable
+	private final ThreadLocal<Scratch> scratch;
+
+	private LinearRegex(Builder builder) {
+		this.nodeCount = builder.size;
+		this.kinds = Arrays.copyOf(builder.kinds, nodeCount);
+		this.out1 = Arrays.copyOf(builder.out1, nodeCount);
+		this.out2 = Arrays.copyOf(builder.out2, nodeCount);
+		this.aux = Arrays.copyOf(builder.aux, nodeCount);
+		this.nodePatterns = Arrays.copyOf(builder.nodePatterns, nodeCount);
+		this.predicates = builder.predicates.toArray(new CharPredicate[0]);
+		this.starts = Arrays.copyOf(builder.starts, builder.patternCount);
+		this.scratch = ThreadLocal.withInitial(() -> new Scratch(nodeCount));
+	}
+
+	int getPatternCount() {
+		return starts.length;
+	}
+
+	/**
+	 * @return ids of all patterns with a match in the lower case input
+	 */
+	BitSet match(String lcContent) {
+		BitSet ret = new BitSet(starts.length);
+		if (starts.length == 0) return ret;
+
+		Scratch scratch = this.scratch.get();
+		int[] consuming = scratch.consuming;
+		int[] pending = scratch.pending;
+		int pendingSize = 0;
+		int len = lcContent.length();
+		boolean prevWord = false;
+		boolean baseLetterOrDigit = false;
+
+		for (int pos = 0; ; ) {
+			int cp = pos < len ? lcContent.codePointAt(pos) : -1;
+			boolean curWord;
+
+			// word boundary rules as in Pattern's Bound, non-spacing marks inherit from their base character
+			if (cp < 0) {
+				curWord = false;
+			} else if (Character.getType(cp) == Character.NON_SPACING_MARK) {
+				curWord = baseLetterOrDigit;
+			} else {
+				baseLetterOrDigit = Character.isLetterOrDigit(cp);
+				curWord = isWordChar(cp);
+			}
+
+			int ctx = 0;
+			if (pos == 0) ctx |= CTX_BEGIN;
+			if (cp < 0) ctx |= CTX_END;
+			if (isDollar(lcContent, pos)) ctx |= CTX_DOLLAR;
+			if (prevWord != curWord) ctx |= CTX_BOUNDARY;
+
+			int gen = scratch.nextGeneration();
+			int consumingSize = 0;
+
+			for (int i = 0; i < pendingSize; i++) {
+				consumingSize = addClosure(pending[i], ctx, scratch, gen, consumingSize, ret);
+			}
+
+			StartClosure start = getStartClosure(ctx);
+
+			for (int id : start.matches) {
+				ret.set(id);
+			}
+
+			if (cp < 0) break;
+
+			pendingSize = 0;
+
+			for (int i = 0; i < consumingSize; i++) {
+				int node = consuming[i];
+
+				if (!ret.get(nodePatterns[node]) && predicates[node].test(cp)) {
+					pending[pendingSize++] = out1[node];
+				}
+			}
+
+			if (cp < 128) {
+				for (int node : start.ascii[cp]) { // already known to match
+					if (!ret.get(nodePatterns[node])) pending[pendingSize++] = out1[node];
+				}
+			} else {
+				int[] nodes = start.nonAsciiLiterals.get(cp);
+
+				if (nodes != null) {
+					for (int node : nodes) {
+						if (!ret.get(nodePatterns[node])) pending[pendingSize++] = out1[node];
+					}
+				}
+
+				for (int node : start.nonAsciiOther) {
+					if (!ret.get(nodePatterns[node]) && predicates[node].test(cp)) {
+						pending[pendingSize++] = out1[node];
+					}
+				}
+			}
+
+			pos += Character.charCount(cp);
+			prevWord = curWord;
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Add all consuming nodes reachable from node through epsilon transitions valid in ctx, recording reached matches.
+	 */
+	private int addClosure(int node, int ctx, Scratch scratch, int gen, int consumingSize, BitSet matches) {
+		int[] marks = scratch.marks;
+		if (marks[node] == gen) return consumingSize;
+
+		int[] stack = scratch.stack;
+		int sp = 0;
+		marks[node] = gen;
+		stack[sp++] = node;
+
+		while (sp > 0) {
+			int n = stack[--sp];
+
+			switch (kinds[n]) {
+			case KIND_CONSUME -> {
+				if (!matches.get(nodePatterns[n])) scratch.consuming[consumingSize++] = n;
+			}
+			case KIND_SPLIT -> {
+				int next = out2[n];
+
+				if (next >= 0 && marks[next] != gen) {
+					marks[next] = gen;
+					stack[sp++] = next;
+				}
+
+				next = out1[n];
+
+				if (marks[next] != gen) {
+					marks[next] = gen;
+					stack[sp++] = next;
+				}
+			}
+			case KIND_ASSERT -> {
+				int next = out1[n];
+
+				if (checkAssert(aux[n], ctx) && marks[next] != gen) {
+					marks[next] = gen;
+					stack[sp++] = next;
+				}
+			}
+			case KIND_MATCH -> matches.set(aux[n]);
+			}
+		}
+
+		return consumingSize;
+	}
+
+	private StartClosure getStartClosure(int ctx) {
+		StartClosure ret = startClosures[ctx];
+
+		if (ret == null) {
+			ret = computeStartClosure(ctx);
+			startClosures[ctx] = ret;
+		}
+
+		return ret;
+	}
+
+	private StartClosure computeStartClosure(int ctx) {
+		boolean[] visited = new boolean[nodeCount];
+		int[] stack = new int[nodeCount];
+		List<Integer> consumingNodes = new ArrayList<>();
+		BitSet matches = new BitSet();
+
+		for (int start : starts) {
+			if (visited[start]) continue;
+
+			int sp = 0;
+			visited[start] = true;
+			stack[sp++] = start;
+
+			while (sp > 0) {
+				int n = stack[--sp];
+				int next1 = -1;
+				int next2 = -1;
+
+				switch (kinds[n]) {
+				case KIND_CONSUME -> consumingNodes.add(n);
+				case KIND_SPLIT -> {
+					next1 = out1[n];
+					next2 = out2[n];
+				}
+				case KIND_ASSERT -> {
+					if (checkAssert(aux[n], ctx)) next1 = out1[n];
+				}
+				case KIND_MATCH -> matches.set(aux[n]);
+				}
+
+				if (next1 >= 0 && !visited[next1]) {
+					visited[next1] = true;
+					stack[sp++] = next1;
+				}
+
+				if (next2 >= 0 && !visited[next2]) {
+					visited[next2] = true;
+					stack[sp++] = next2;
+				}
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		List<Integer>[] ascii = new List[128];
+		Map<Integer, List<Integer>> nonAsciiLiterals = new HashMap<>();
+		List<Integer> nonAsciiOther = new ArrayList<>();
+
+		for (int node : consumingNodes) {
+			CharPredicate predicate = predicates[node];
+
+			for (int cp = 0; cp < 128; cp++) {
+				if (predicate.test(cp)) {
+					if (ascii[cp] == null) ascii[cp] = new ArrayList<>();
+					ascii[cp].add(node);
+				}
+			}
+
+			if (predicate.mayMatchNonAscii()) {
+				if (predicate instanceof SingleChar c) {
+					nonAsciiLiterals.computeIfAbsent(c.cp(), ignore -> new ArrayList<>()).add(node);
+				} else {
+					nonAsciiOther.add(node);
+				}
+			}
+		}
+
+		int[][] asciiNodes = new int[128][];
+
+		for (int cp = 0; cp < 128; cp++) {
+			asciiNodes[cp] = toArray(ascii[cp]);
+		}
+
+		Int2ObjectMap<int[]> nonAsciiLiteralNodes = new Int2ObjectOpenHashMap<>(nonAsciiLiterals.size());
+
+		for (Map.Entry<Integer, List<Integer>> entry : nonAsciiLiterals.entrySet()) {
+			nonAsciiLiteralNodes.put((int) entry.getKey(), toArray(entry.getValue()));
+		}
+
+		return new StartClosure(matches.stream().toArray(), asciiNodes, nonAsciiLiteralNodes, toArray(nonAsciiOther));
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		if (list == null || list.isEmpty()) return NO_NODES;
+
+		return list.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static boolean checkAssert(int type, int ctx) {
+		return switch (type) {
+		case ASSERT_BEGIN -> (ctx & CTX_BEGIN) != 0;
+		case ASSERT_END -> (ctx & CTX_END) != 0;
+		case ASSERT_DOLLAR -> (ctx & CTX_DOLLAR) != 0;
+		case ASSERT_BOUNDARY -> (ctx & CTX_BOUNDARY) != 0;
+		case ASSERT_NON_BOUNDARY -> (ctx & CTX_BOUNDARY) == 0;
+		default -> throw new IllegalStateException();
+		};
+	}
+
+	/**
+	 * Word character outside non-spacing marks as seen by Pattern's \b on this JVM, see {@link #UNICODE_WORD_CHARS}.
+	 */
+	private static boolean isWordChar(int cp) {
+		if (UNICODE_WORD_CHARS) {
+			return cp == '_' || Character.isLetterOrDigit(cp);
+		} else {
+			return cp == '_' || cp >= '0' && cp <= '9' || isAsciiLetter(cp);
+		}
+	}
+
+	/**
+	 * Compare Pattern's \b matches in the probe input with the boundaries computed like {@link #match}.
+	 */
+	private static boolean checkBoundaries(String probe) {
+		BitSet expected = new BitSet();
+		Matcher matcher = Pattern.compile("\\b", Pattern.CASE_INSENSITIVE).matcher(probe);
+
+		while (matcher.find()) {
+			expected.set(matcher.start());
+		}
+
+		boolean prevWord = false;
+		boolean baseLetterOrDigit = false;
+
+		for (int pos = 0; ; ) {
+			int cp = pos < probe.length() ? probe.codePointAt(pos) : -1;
+			boolean curWord;
+
+			if (cp < 0) {
+				curWord = false;
+			} else if (Character.getType(cp) == Character.NON_SPACING_MARK) {
+				curWord = baseLetterOrDigit;
+			} else {
+				baseLetterOrDigit = Character.isLetterOrDigit(cp);
+				curWord = isWordChar(cp);
+			}
+
+			if ((prevWord != curWord) != expected.get(pos)) return false;
+			if (cp < 0) return true;
+
+			prevWord = curWord;
+			pos += Character.charCount(cp);
+		}
+	}
+
+	/**
+	 * Non-multiline $ as implemented by Pattern: end of input or before a line terminator ending the input.
+	 */
+	private static boolean isDollar(String s, int pos) {
+		int len = s.length();
+
+		if (pos == len) {
+			return true;
+		} else if (pos == len - 2) {
+			return s.charAt(pos) == '\r' && s.charAt(pos + 1) == '\n';
+		} else if (pos == len - 1) {
+			char c = s.charAt(pos);
+
+			return isLineTerminator(c) && (c != '\n' || pos == 0 || s.charAt(pos - 1) != '\r');
+		} else {
+			return false;
+		}
+	}
+
+	private static boolean isLineTerminator(int c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	private static boolean isAsciiLetter(int c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+	}
+
+	static final class Builder {
+		private int[] kinds = new int[64];
+		private int[] out1 = new int[64];
+		private int[] out2 = new int[64];
+		private int[] aux = new int[64];
+		private int[] nodePatterns = new int[64];
+		private final List<CharPredicate> predicates = new ArrayList<>();
+		private int size;
+		private int[] starts = new int[16];
+		private int patternCount;
+
+		/**
+		 * Add a pattern that has already been validated with Pattern.compile.
+		 *
+		 * @return pattern id, assigned sequentially starting at 0
+		 * @throws UnsupportedPatternException if the pattern can't be matched in linear time or isn't supported otherwise
+		 */
+		int add(String pattern) throws UnsupportedPatternException {
+			Node ast = new Parser(pattern).parse();
+			if (ast.size() > MAX_PATTERN_NODES) throw new UnsupportedPatternException("too large");
+
+			int id = patternCount++;
+			int start = emit(ast, addNode(KIND_MATCH, -1, -1, id, null, id), id);
+
+			if (id == starts.length) starts = Arrays.copyOf(starts, id * 2);
+			starts[id] = start;
+
+			return id;
+		}
+
+		LinearRegex build() {
+			return new LinearRegex(this);
+		}
+
+		/**
+		 * Emit the nodes for ast, back to front.
+		 *
+		 * @param next node following ast
+		 * @return first node of ast
+		 */
+		private int emit(Node ast, int next, int pattern) {
+			if (ast instanceof CharNode c) {
+				return addNode(KIND_CONSUME, next, -1, 0, c.predicate(), pattern);
+			} else if (ast instanceof AssertNode a) {
+				return addNode(KIND_ASSERT, next, -1, a.type(), null, pattern);
+			} else if (ast instanceof ConcatNode c) {
+				for (int i = c.nodes().size() - 1; i >= 0; i--) {
+					next = emit(c.nodes().get(i), next, pattern);
+				}
+
+				return next;
+			} else if (ast instanceof AltNode a) {
+				int ret = emit(a.nodes().get(a.nodes().size() - 1), next, pattern);
+
+				for (int i = a.nodes().size() - 2; i >= 0; i--) {
+					ret = addNode(KIND_SPLIT, emit(a.nodes().get(i), next, pattern), ret, 0, null, pattern);
+				}
+
+				return ret;
+			} else if (ast instanceof RepeatNode r) {
+				int ret;
+
+				if (r.max() < 0) { // loop
+					ret = addNode(KIND_SPLIT, -1, next, 0, null, pattern);
+					int body = emit(r.node(), ret, pattern); // may reallocate out1
+					out1[ret] = body;
+				} else {
+					ret = next;
+
+					for (int i = r.min(); i < r.max(); i++) {
+						ret = addNode(KIND_SPLIT, emit(r.node(), ret, pattern), next, 0, null, pattern);
+					}
+				}
+
+				for (int i = 0; i < r.min(); i++) {
+					ret = emit(r.node(), ret, pattern);
+				}
+
+				return ret;
+			} else {
+				throw new IllegalStateException();
+			}
+		}
+
+		private int addNode(int kind, int out1, int out2, int aux, CharPredicate predicate, int pattern) {
+			if (size == kinds.length) {
+				int newSize = size * 2;
+				kinds = Arrays.copyOf(kinds, newSize);
+				this.out1 = Arrays.copyOf(this.out1, newSize);
+				this.out2 = Arrays.copyOf(this.out2, newSize);
+				this.aux = Arrays.copyOf(this.aux, newSize);
+				nodePatterns = Arrays.copyOf(nodePatterns, newSize);
+			}
+
+			int ret = size++;
+			kinds[ret] = kind;
+			this.out1[ret] = out1;
+			this.out2[ret] = out2;
+			this.aux[ret] = aux;
+			nodePatterns[ret] = pattern;
+			predicates.add(predicate);
+
+			return ret;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class UnsupportedPatternException extends Exception {
+		UnsupportedPatternException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Recursive descent parser for the supported Pattern syntax subset.
+	 */
+	private static final class Parser {
+		private static final CharPredicate DIGIT = new CharClass(new int[] { '0', '9' }, false);
+		private static final CharPredicate WORD = new CharClass(new int[] { 'a', 'z', 'A', 'Z', '0', '9', '_', '_' }, false);
+		private static final CharPredicate SPACE = new CharClass(new int[] { '\t', '\r', ' ', ' ' }, false); // \t \n \x0B \f \r and space
+		private static final CharPredicate NON_DIGIT = new CharClass(new int[] { '0', '9' }, true);
+		private static final CharPredicate NON_WORD = new CharClass(new int[] { 'a', 'z', 'A', 'Z', '0', '9', '_', '_' }, true);
+		private static final CharPredicate NON_SPACE = new CharClass(new int[] { '\t', '\r', ' ', ' ' }, true);
+		private static final CharPredicate ANY = new CharPredicate() {
+			@Override
+			public boolean test(int cp) {
+				return !isLineTerminator(cp);
+			}
+
+			@Override
+			public boolean mayMatchNonAscii() {
+				return true;
+			}
+		};
+
+		private final String pattern;
+		private int pos;
+
+		Parser(String pattern) {
+			this.pattern = pattern;
+		}
+
+		Node parse() throws UnsupportedPatternException {
+			Node ret = parseAlt();
+			if (pos < pattern.length()) throw new UnsupportedPatternException("unbalanced )");
+
+			return ret;
+		}
+
+		private Node parseAlt() throws UnsupportedPatternException {
+			List<Node> nodes = new ArrayList<>();
+			nodes.add(parseConcat());
+
+			while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+				pos++;
+				nodes.add(parseConcat());
+			}
+
+			return nodes.size() == 1 ? nodes.get(0) : new AltNode(nodes);
+		}
+
+		private Node parseConcat() throws UnsupportedPatternException {
+			List<Node> nodes = new ArrayList<>();
+
+			while (pos < pattern.length()) {
+				char c = pattern.charAt(pos);
+				if (c == '|' || c == ')') break;
+
+				Node node = parseAtom();
+
+				if (pos < pattern.length() && isQuantifierStart(pattern.charAt(pos))) {
+					if (node == null || node instanceof AssertNode || node instanceof QuoteNode) throw new UnsupportedPatternException("quantified assertion or quote");
+
+					node = parseQuantifier(node);
+
+					if (pos < pattern.length()) {
+						c = pattern.charAt(pos);
+
+						if (c == '?') { // lazy, irrelevant for finding whether there's a match at all
+							pos++;
+						} else if (c == '+') {
+							throw new UnsupportedPatternException("possessive quantifier");
+						}
+
+						if (pos < pattern.length() && isQuantifierStart(pattern.charAt(pos))) throw new UnsupportedPatternException("repeated quantifier");
+					}
+				}
+
+				if (node instanceof QuoteNode q) {
+					nodes.addAll(q.nodes());
+				} else if (node != null) {
+					nodes.add(node);
+				}
+			}
+
+			return nodes.size() == 1 ? nodes.get(0) : new ConcatNode(nodes);
+		}
+
+		private static boolean isQuantifierStart(char c) {
+			return c == '*' || c == '+' || c == '?' || c == '{';
+		}
+
+		private Node parseQuantifier(Node node) throws UnsupportedPatternException {
+			char c = pattern.charAt(pos++);
+
+			return switch (c) {
+			case '*' -> new RepeatNode(node, 0, -1);
+			case '+' -> new RepeatNode(node, 1, -1);
+			case '?' -> new RepeatNode(node, 0, 1);
+			default -> {
+				int min = parseNumber();
+				int max;
+
+				if (pos < pattern.length() && pattern.charAt(pos) == ',') {
+					pos++;
+					max = pos < pattern.length() && pattern.charAt(pos) == '}' ? -1 : parseNumber();
+				} else {
+					max = min;
+				}
+
+				if (pos >= pattern.length() || pattern.charAt(pos) != '}') throw new UnsupportedPatternException("invalid repetition");
+				pos++;
+
+				if (max >= 0 && max < min) throw new UnsupportedPatternException("invalid repetition range");
+				// Pattern's Loop stops at a zero length iteration even below the minimum count, the NFA keeps counting
+				if (min > 1 && node.nullable()) throw new UnsupportedPatternException("counted repetition of nullable node");
+
+				yield new RepeatNode(node, min, max);
+			}
+			};
+		}
+
+		private int parseNumber() throws UnsupportedPatternException {
+			int start = pos;
+
+			while (pos < pattern.length() && pattern.charAt(pos) >= '0' && pattern.charAt(pos) <= '9' && pos - start < 6) {
+				pos++;
+			}
+
+			if (pos == start || pos < pattern.length() && pattern.charAt(pos) >= '0' && pattern.charAt(pos) <= '9') {
+				throw new UnsupportedPatternException("invalid repetition count");
+			}
+
+			return Integer.parseInt(pattern, start, pos, 10);
+		}
+
+		/**
+		 * @return the atom or null if it doesn't match anything itself, like an inline flag
+		 */
+		private Node parseAtom() throws UnsupportedPatternException {
+			int cp = pattern.codePointAt(pos);
+			pos += Character.charCount(cp);
+
+			switch (cp) {
+			case '(': {
+				if (pattern.startsWith("?i)", pos)) { // already case insensitive
+					pos += 3;
+					return null;
+				} else if (pattern.startsWith("?:", pos) || pattern.startsWith("?i:", pos)) {
+					pos = pattern.indexOf(':', pos) + 1;
+				} else if (pattern.startsWith("?<", pos) && pos + 2 < pattern.length() && isAsciiLetter(pattern.charAt(pos + 2))) { // named group
+					int end = pattern.indexOf('>', pos);
+					if (end < 0) throw new UnsupportedPatternException("invalid group name");
+					pos = end + 1;
+				} else if (pattern.startsWith("?", pos)) {
+					throw new UnsupportedPatternException("special group");
+				}
+
+				Node ret = parseAlt();
+				if (pos >= pattern.length() || pattern.charAt(pos) != ')') throw new UnsupportedPatternException("unclosed group");
+				pos++;
+
+				return ret;
+			}
+			case '[':
+				return new CharNode(parseClass());
+			case '.':
+				return new CharNode(ANY);
+			case '^':
+				return new AssertNode(ASSERT_BEGIN);
+			case '$':
+				return new AssertNode(ASSERT_DOLLAR);
+			case '\\':
+				return parseEscape();
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				throw new UnsupportedPatternException("dangling quantifier");
+			default:
+				return new CharNode(new SingleChar(cp));
+			}
+		}
+
+		private Node parseEscape() throws UnsupportedPatternException {
+			if (pos >= pattern.length()) throw new UnsupportedPatternException("trailing \\");
+
+			switch (pattern.charAt(pos)) {
+			case 'b':
+				if (!BOUNDARY_SUPPORTED) throw new UnsupportedPatternException("word boundary");
+				pos++;
+				return new AssertNode(ASSERT_BOUNDARY);
+			case 'B':
+				if (!BOUNDARY_SUPPORTED) throw new UnsupportedPatternException("word boundary");
+				pos++;
+				return new AssertNode(ASSERT_NON_BOUNDARY);
+			case 'A':
+				pos++;
+				return new AssertNode(ASSERT_BEGIN);
+			case 'z':
+				pos++;
+				return new AssertNode(ASSERT_END);
+			case 'Z':
+				pos++;
+				return new AssertNode(ASSERT_DOLLAR);
+			case 'Q': {
+				int start = pos + 1;
+				int end = pattern.indexOf("\\E", start);
+				if (end < 0) end = pattern.length();
+
+				List<Node> nodes = new ArrayList<>();
+
+				for (int i = start; i < end; ) {
+					int cp = pattern.codePointAt(i);
+					nodes.add(new CharNode(new SingleChar(cp)));
+					i += Character.charCount(cp);
+				}
+
+				pos = Math.min(end + 2, pattern.length());
+
+				return new QuoteNode(nodes);
+			}
+			default: {
+				Object ret = parseClassEscape();
+
+				return new CharNode(ret instanceof CharPredicate p ? p : new SingleChar((Integer) ret));
+			}
+			}
+		}
+
+		/**
+		 * Parse an escape valid both inside and outside character classes.
+		 *
+		 * @return code point as Integer or CharPredicate
+		 */
+		private Object parseClassEscape() throws UnsupportedPatternException {
+			if (pos >= pattern.length()) throw new UnsupportedPatternException("trailing \\");
+
+			int cp = pattern.codePointAt(pos);
+			pos += Character.charCount(cp);
+
+			switch (cp) {
+			case 'd': return DIGIT;
+			case 'D': return NON_DIGIT;
+			case 'w': return WORD;
+			case 'W': return NON_WORD;
+			case 's': return SPACE;
+			case 'S': return NON_SPACE;
+			case 't': return (int) '\t';
+			case 'n': return (int) '\n';
+			case 'r': return (int) '\r';
+			case 'f': return (int) '\f';
+			case 'a': return 0x7;
+			case 'e': return 0x1b;
+			case 'x':
+				if (pos < pattern.length() && pattern.charAt(pos) == '{') {
+					int end = pattern.indexOf('}', pos);
+					if (end < 0) throw new UnsupportedPatternException("invalid hex escape");
+
+					int ret = parseHex(pos + 1, end);
+					pos = end + 1;
+
+					return ret;
+				} else {
+					pos += 2;
+
+					return parseHex(pos - 2, pos);
+				}
+			case 'u':
+				pos += 4;
+
+				return parseHex(pos - 4, pos);
+			default:
+				if (cp < 128 && Character.isLetterOrDigit(cp)) throw new UnsupportedPatternException("unsupported escape \\"+Character.toString(cp));
+
+				return cp;
+			}
+		}
+
+		private int parseHex(int start, int end) throws UnsupportedPatternException {
+			if (end > pattern.length() || end <= start) throw new UnsupportedPatternException("invalid hex escape");
+
+			try {
+				int ret = Integer.parseInt(pattern, start, end, 16);
+				if (ret > Character.MAX_CODE_POINT || Character.isSurrogate((char) ret) && ret <= 0xffff) throw new UnsupportedPatternException("invalid hex escape");
+
+				return ret;
+			} catch (NumberFormatException e) {
+				throw new UnsupportedPatternException("invalid hex escape");
+			}
+		}
+
+		private CharPredicate parseClass() throws UnsupportedPatternException {
+			boolean negated = false;
+
+			if (pos < pattern.length() && pattern.charAt(pos) == '^') {
+				negated = true;
+				pos++;
+			}
+
+			if (pos < pattern.length() && pattern.charAt(pos) == ']') throw new UnsupportedPatternException("leading ] in class");
+
+			List<Integer> ranges = new ArrayList<>();
+			List<CharPredicate> parts = new ArrayList<>();
+
+			for (;;) {
+				if (pos >= pattern.length()) throw new UnsupportedPatternException("unclosed class");
+
+				char c = pattern.charAt(pos);
+
+				if (c == ']') {
+					pos++;
+					break;
+				} else if (c == '[' || pattern.startsWith("&&", pos)) {
+					throw new UnsupportedPatternException("nested class");
+				}
+
+				Object start = parseClassItem();
+
+				if (start instanceof CharPredicate p) {
+					if (pos + 1 < pattern.length() && pattern.charAt(pos) == '-' && pattern.charAt(pos + 1) != ']') throw new UnsupportedPatternException("range from predefined class");
+
+					parts.add(p);
+				} else if (pos + 1 < pattern.length() && pattern.charAt(pos) == '-' && pattern.charAt(pos + 1) != ']') {
+					pos++;
+					if (pattern.charAt(pos) == '[') throw new UnsupportedPatternException("nested class");
+
+					Object end = parseClassItem();
+					if (!(end instanceof Integer) || (Integer) end < (Integer) start) throw new UnsupportedPatternException("invalid range");
+
+					ranges.add((Integer) start);
+					ranges.add((Integer) end);
+				} else {
+					ranges.add((Integer) start);
+					ranges.add((Integer) start);
+				}
+			}
+
+			int[] rangeArray = ranges.stream().mapToInt(Integer::intValue).toArray();
+
+			return new CharClass(rangeArray, parts.toArray(new CharPredicate[0]), negated);
+		}
+
+		private Object parseClassItem() throws UnsupportedPatternException {
+			int cp = pattern.codePointAt(pos);
+			pos += Character.charCount(cp);
+
+			if (cp == '\\') {
+				if (pos < pattern.length() && "bBAzZQ".indexOf(pattern.charAt(pos)) >= 0) throw new UnsupportedPatternException("escape in class");
+
+				return parseClassEscape();
+			} else {
+				return cp;
+			}
+		}
+	}
+
+	private interface Node {
+		/**
+		 * @return number of NFA nodes required, saturated at Integer.MAX_VALUE
+		 */
+		int size();
+
+		/**
+		 * @return whether the node can match the empty string
+		 */
+		boolean nullable();
+	}
+
+	private record CharNode(CharPredicate predicate) implements Node {
+		@Override
+		public int size() {
+			return 1;
+		}
+
+		@Override
+		public boolean nullable() {
+			return false;
+		}
+	}
+
+	private record AssertNode(int type) implements Node {
+		@Override
+		public int size() {
+			return 1;
+		}
+
+		@Override
+		public boolean nullable() {
+			return true;
+		}
+	}
+
+	private record ConcatNode(List<Node> nodes) implements Node {
+		@Override
+		public int size() {
+			long ret = 0;
+
+			for (Node node : nodes) {
+				ret += node.size();
+			}
+
+			return (int) Math.min(ret, Integer.MAX_VALUE);
+		}
+
+		@Override
+		public boolean nullable() {
+			for (Node node : nodes) {
+				if (!node.nullable()) return false;
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Quoted \Q..\E literal sequence, gets inlined into the surrounding concatenation.
+	 */
+	private record QuoteNode(List<Node> nodes) implements Node {
+		@Override
+		public int size() {
+			return nodes.size();
+		}
+
+		@Override
+		public boolean nullable() {
+			return nodes.isEmpty();
+		}
+	}
+
+	private record AltNode(List<Node> nodes) implements Node {
+		@Override
+		public int size() {
+			long ret = nodes.size() - 1;
+
+			for (Node node : nodes) {
+				ret += node.size();
+			}
+
+			return (int) Math.min(ret, Integer.MAX_VALUE);
+		}
+
+		@Override
+		public boolean nullable() {
+			for (Node node : nodes) {
+				if (node.nullable()) return true;
+			}
+
+			return false;
+		}
+	}
+
+	private record RepeatNode(Node node, int min, int max) implements Node {
+		@Override
+		public int size() {
+			long size = node.size() + 1L;
+			long ret = max < 0 ? (min + 1) * size : max * size;
+
+			return (int) Math.min(ret, Integer.MAX_VALUE);
+		}
+
+		@Override
+		public boolean nullable() {
+			return min == 0 || node.nullable();
+		}
+	}
+
+	private interface CharPredicate {
+		boolean test(int cp);
+
+		/**
+		 * @return whether any code point >= 128 may match
+		 */
+		boolean mayMatchNonAscii();
+	}
+
+	/**
+	 * Single character with Pattern.CASE_INSENSITIVE semantics, which only folds ASCII letters.
+	 */
+	private record SingleChar(int cp) implements CharPredicate {
+		@Override
+		public boolean test(int c) {
+			return c == cp || isAsciiLetter(cp) && c == (cp ^ 0x20);
+		}
+
+		@Override
+		public boolean mayMatchNonAscii() {
+			return cp >= 128;
+		}
+	}
+
+	/**
+	 * Character class with Pattern.CASE_INSENSITIVE semantics.
+	 *
+	 * @param ranges inclusive start/end pairs
+	 * @param parts nested predefined classes
+	 */
+	private record CharClass(int[] ranges, CharPredicate[] parts, boolean negated) implements CharPredicate {
+		CharClass(int[] ranges, boolean negated) {
+			this(ranges, new CharPredicate[0], negated);
+		}
+
+		@Override
+		public boolean test(int c) {
+			boolean ret = inRanges(c) || isAsciiLetter(c) && inRanges(c ^ 0x20);
+
+			for (int i = 0; i < parts.length && !ret; i++) {
+				ret = parts[i].test(c);
+			}
+
+			return ret != negated;
+		}
+
+		private boolean inRanges(int c) {
+			for (int i = 0; i < ranges.length; i += 2) {
+				if (c >= ranges[i] && c <= ranges[i + 1]) return true;
+			}
+
+			return false;
+		}
+
+		@Override
+		public boolean mayMatchNonAscii() {
+			if (negated) return true;
+
+			for (int i = 1; i < ranges.length; i += 2) {
+				if (ranges[i] >= 128) return true;
+			}
+
+			for (CharPredicate part : parts) {
+				if (part.mayMatchNonAscii()) return true;
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Start state for a specific context, with the consuming nodes indexed by the characters they accept.
+	 *
+	 * @param matches pattern ids matching the empty string in this context
+	 * @param ascii ascii code point -> nodes accepting it
+	 * @param nonAsciiLiterals non-ascii code point -> literal nodes for it
+	 * @param nonAsciiOther other nodes that may accept non-ascii code points
+	 */
+	private record StartClosure(int[] matches, int[][] ascii, Int2ObjectMap<int[]> nonAsciiLiterals, int[] nonAsciiOther) { }
+
+	private static final class Scratch {
+		final int[] marks;
+		final int[] stack;
+		final int[] consuming;
+		final int[] pending;
+		int generation;
+
+		Scratch(int nodeCount) {
+			marks = new int[nodeCount];
+			stack = new int[nodeCount];
+			consuming = new int[nodeCount];
+			pending = new int[nodeCount * 2];
+		}
+
+		int nextGeneration() {
+			if (++generation == Integer.MAX_VALUE) {
+				Arrays.fill(marks, 0);
+				generation = 1;
+			}
+
+			return generation;
+		}
+	}
+}
@@ -28,8 +28,17 @@ import net.fabricmc.discord.io.Permission;
 import net.fabricmc.discord.io.Server;
 
 public final class DiscordUtil {
+	private static final long DISCORD_EPOCH = 1420070400000L;
+
 	public static Instant getCreationTime(long entityId) {
-		return Instant.ofEpochMilli((entityId >>> 22) + 1420070400000L);
+		return Instant.ofEpochMilli((entityId >>> 22) + DISCORD_EPOCH);
+	}
+
+	/**
+	 * @return the lowest entity id that can have been created at or after the given time (ms since the unix epoch)
+	 */
+	public static long getMinEntityId(long time) {
+		return Math.max(time - DISCORD_EPOCH, 0) << 22;
 	}
 
 	public static List<? extends Channel> getTextChannels(Server server) {
@@ -66,5 +75,5 @@ public final class DiscordUtil {
 				messageId);
 	}
 
-	public static final Pattern INVITE_PATTERN = Pattern.compile("(?:https://)?(?:www\\.)?discord(?:\\.gg|(?:\\.com|app\\.com)/invite)/([A-Za-z0-9]){2,10}");
+	public static final Pattern INVITE_PATTERN = Pattern.compile("(?:https://)?(?:www\\.)?discord(?:\\.gg|(?:\\.com|app\\.com)/invite)/([A-Za-z0-9]{2,10})");
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Random;
+
+import net.fabricmc.discord.bot.MessageIndex.ContentStorageStats;
+import net.fabricmc.discord.io.Message;
+
+/**
+ * Compare the retained heap per cached message for plain String content, {@link MessageContentStore} slabs and
+ * compressed slabs.
+ *
+ * <p>Usage: MessageContentStoreBenchmark [message count, default 500000]
+ *
+ * <p>The heap is measured after full GCs, run with -XX:+UseSerialGC for stable numbers. The synthetic chat content is
+ * drawn from a small vocabulary, so its compression ratio is only indicative.
+ */
+public final class MessageContentStoreBenchmark {
+	private static final String[] WORDS = {
+			"the", "mod", "crash", "fabric", "loader", "version", "mixin", "minecraft", "server", "client",
+			"config", "please", "thanks", "update", "error", "log", "java", "gradle", "build", "api",
+			"does", "anyone", "know", "why", "this", "is", "not", "working", "with", "sodium",
+			"iris", "world", "launch", "mappings", "yarn", "intermediary", "dev", "env", "release", "snapshot",
+			"über", "¿qué", "日本語", "🙂", "👍"
+	};
+
+	private enum Mode {
+		STRING, SLABS, COMPRESSED
+	}
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+		System.out.printf("%d messages, 20%% edited once%n", count);
+
+		for (Mode mode : Mode.values()) {
+			measure(mode, count);
+		}
+	}
+
+	private static void measure(Mode mode, int count) {
+		long before = usedHeap();
+
+		MessageContentStore store = mode == Mode.STRING ? null : new MessageContentStore();
+		CachedMessage[] messages = new CachedMessage[count];
+		Random rnd = new Random(0x5eed_0006L);
+		long contentBytes = 0;
+
+		for (int i = 0; i < count; i++) {
+			String content = content(rnd);
+			contentBytes += content.getBytes(StandardCharsets.UTF_8).length;
+			CachedMessage message = new CachedMessage(i + 1, Message.Type.DEFAULT, 100 + rnd.nextInt(50), 1000 + rnd.nextInt(5000), content,
+					new CachedMessageAttachment[0], new long[0], new long[0], store);
+
+			if (rnd.nextInt(5) == 0) {
+				String edited = content+" "+content(rnd);
+				contentBytes += edited.getBytes(StandardCharsets.UTF_8).length;
+				message = message.edit(edited, Instant.now(), store, 10, 16384);
+			}
+
+			messages[i] = message;
+		}
+
+		if (mode == Mode.COMPRESSED) store.compressIdle(0);
+
+		long after = usedHeap();
+		ContentStorageStats stats = store != null ? store.getStats() : null;
+
+		System.out.printf("%-10s %6.1f bytes/message (utf-8 content %5.1f bytes/message)%s%n",
+				mode.name().toLowerCase(Locale.ENGLISH),
+				(double) (after - before) / count,
+				(double) contentBytes / count,
+				stats != null ? String.format(", %d slabs (%d compressed) holding %.1f bytes/message", stats.slabs(), stats.compressedSlabs(), (double) stats.bytes() / count) : "");
+
+		// keep the messages reachable until measured and check that they still decode
+		Random check = new Random(0x5eed_0006L);
+		String expected = content(check);
+		if (!messages[0].getContent().startsWith(expected)) throw new IllegalStateException("content mismatch");
+	}
+
+	private static String content(Random rnd) {
+		int words = rnd.nextInt(20) == 0 ? 50 + rnd.nextInt(250) : 1 + rnd.nextInt(15); // occasional long message
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < words; i++) {
+			if (i > 0) sb.append(' ');
+			sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+			if (rnd.nextInt(8) == 0) sb.append(rnd.nextInt(1000));
+		}
+
+		return sb.toString();
+	}
+
+	private static long usedHeap() {
+		MemoryMXBean bean = ManagementFactory.getMemoryMXBean();
+		long ret = Long.MAX_VALUE;
+
+		for (int i = 0; i < 5; i++) { // repeated to let weak references and finalization settle
+			System.gc();
+			ret = Math.min(ret, bean.getHeapMemoryUsage().getUsed());
+		}
+
+		return ret;
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.fabricmc.discord.bot.config.ConfigKey;
+import net.fabricmc.discord.bot.util.DaemonThreadFactory;
+import net.fabricmc.discord.bot.util.DiscordUtil;
+import net.fabricmc.discord.io.Channel;
+import net.fabricmc.discord.io.Message;
+import net.fabricmc.discord.io.Server;
+import net.fabricmc.discord.io.User;
+
+/**
+ * Concurrent message creation, edits and deletions across channels against concurrent readers of {@link MessageIndex}.
+ *
+ * <p>Every writer only edits and deletes its own messages, so the final state is deterministic apart from which of the
+ * oldest messages got evicted. Readers check the ordering and consistency of what they observe while the writers run.
+ *
+ * <p>{@link #main} runs longer with increasing writer counts to show the throughput scaling.
+ */
+class MessageIndexStressTest {
+	private static final int CHANNELS = 8;
+	private static final int AUTHORS = 32;
+	private static final int READERS = 2;
+
+	@Test
+	void concurrentWritesAndReads(@TempDir Path dir) throws Exception {
+		for (int writers : new int[] { 1, 4 }) {
+			Result result = run(dir, writers, READERS, 1000);
+			assertEquals(List.of(), result.errors);
+			assertTrue(result.writes > 0 && result.reads > 0);
+		}
+	}
+
+	/**
+	 * Usage: MessageIndexStressTest [duration ms per run, default 5000] [max writers, default 8]
+	 */
+	public static void main(String[] args) throws Exception {
+		long durationMs = args.length > 0 ? Long.parseLong(args[0]) : 5000;
+		int maxWriters = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		Path dir = Files.createTempDirectory("msgindexstress");
+
+		for (int writers = 1; writers <= maxWriters; writers *= 2) {
+			Result result = run(dir, writers, READERS, durationMs);
+
+			System.out.printf("%d writers, %d readers: %,.0f writes/s, %,.0f reads/s, %d errors%n",
+					writers, READERS, result.writes * 1e3 / durationMs, result.reads * 1e3 / durationMs, result.errors.size());
+
+			for (String error : result.errors.subList(0, Math.min(result.errors.size(), 10))) {
+				System.out.println("  "+error);
+			}
+		}
+	}
+
+	private static Result run(Path dir, int writerCount, int readerCount, long durationMs) throws Exception {
+		DiscordBot bot = createBot(dir);
+		MessageIndex index = new MessageIndex(bot);
+		applyDefaultConfig(bot);
+		// what init would set up for the messageIndex.compactContent and messageIndex.searchIndex config entries
+		set(index, "contentStore", new MessageContentStore());
+		set(index, "searchIndex", new MessageSearchIndex());
+
+		Server server = fake(Server.class, Map.of("getId", 1L));
+		List<Channel> channels = new ArrayList<>();
+
+		for (int i = 0; i < CHANNELS; i++) {
+			channels.add(fake(Channel.class, Map.of("getId", 100L + i, "getServer", server, "getType", Channel.Type.GUILD_TEXT, "getName", "channel"+i)));
+		}
+
+		List<User> authors = new ArrayList<>();
+
+		for (int i = 0; i < AUTHORS; i++) {
+			authors.add(fake(User.class, Map.of("getId", 1000L + i)));
+		}
+
+		AtomicLong nextId = new AtomicLong(DiscordUtil.getMinEntityId(System.currentTimeMillis()));
+		Collection<String> errors = new ConcurrentLinkedQueue<>();
+		LongAdder writes = new LongAdder();
+		LongAdder reads = new LongAdder();
+		long deadline = System.nanoTime() + durationMs * 1_000_000;
+		List<Writer> writers = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < writerCount; i++) {
+			Writer writer = new Writer(i, index, channels, authors, nextId, writes, deadline);
+			writers.add(writer);
+			threads.add(new Thread(() -> guard(writer::run, errors), "writer "+i));
+		}
+
+		for (int i = 0; i < readerCount; i++) {
+			long seed = i;
+			threads.add(new Thread(() -> guard(() -> read(index, channels, nextId, reads, deadline, seed, errors), errors), "reader "+i));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		verify(index, channels, writers, errors);
+		shutdown(bot);
+
+		return new Result(writes.sum(), reads.sum(), new ArrayList<>(errors));
+	}
+
+	private record Result(long writes, long reads, List<String> errors) { }
+
+	private static final class Writer {
+		final int writerId;
+		final MessageIndex index;
+		final List<Channel> channels;
+		final List<User> authors;
+		final AtomicLong nextId;
+		final LongAdder writes;
+		final long deadline;
+		final Random rnd;
+		final List<Written> messages = new ArrayList<>();
+
+		Writer(int writerId, MessageIndex index, List<Channel> channels, List<User> authors, AtomicLong nextId, LongAdder writes, long deadline) {
+			this.writerId = writerId;
+			this.index = index;
+			this.channels = channels;
+			this.authors = authors;
+			this.nextId = nextId;
+			this.writes = writes;
+			this.deadline = deadline;
+			this.rnd = new Random(writerId);
+		}
+
+		void run() {
+			while (System.nanoTime() < deadline) {
+				int op = rnd.nextInt(10);
+
+				if (op < 6 || messages.isEmpty()) { // create
+					Written msg = new Written(nextId.getAndIncrement(), channels.get(rnd.nextInt(channels.size())), authors.get(rnd.nextInt(authors.size())));
+					messages.add(msg);
+					index.onMessageCreate(msg.toMessage());
+				} else {
+					Written msg = messages.get(messages.size() - 1 - rnd.nextInt(Math.min(messages.size(), 200)));
+					if (msg.deleted) continue;
+
+					if (op < 9) { // edit
+						msg.version++;
+						index.onMessageEdit(msg.toMessage());
+					} else { // delete
+						msg.deleted = true;
+						index.onMessageDelete(msg.id, msg.channel);
+					}
+				}
+
+				writes.increment();
+			}
+		}
+	}
+
+	private static final class Written {
+		final long id;
+		final Channel channel;
+		final User author;
+		int version;
+		boolean deleted;
+
+		Written(long id, Channel channel, User author) {
+			this.id = id;
+			this.channel = channel;
+			this.author = author;
+		}
+
+		String content() {
+			return "message k"+id+"k version "+version;
+		}
+
+		Message toMessage() {
+			Map<String, Object> values = new HashMap<>();
+			values.put("getId", id);
+			values.put("getType", Message.Type.DEFAULT);
+			values.put("getChannel", channel);
+			values.put("getAuthor", author);
+			values.put("isFromWebhook", false);
+			values.put("getContent", content());
+			values.put("getAttachments", List.of());
+			values.put("getMentionedUsers", List.of());
+			values.put("getMentionedRoles", List.of());
+
+			return fake(Message.class, values);
+		}
+	}
+
+	private static void read(MessageIndex index, List<Channel> channels, AtomicLong nextId, LongAdder reads, long deadline, long seed, Collection<String> errors) {
+		Random rnd = new Random(seed);
+
+		while (System.nanoTime() < deadline) {
+			switch (rnd.nextInt(5)) {
+			case 0 -> {
+				long id = nextId.get() - 1 - rnd.nextInt(1000);
+				CachedMessage msg = index.get(id);
+				if (msg != null && msg.getId() != id) errors.add("get("+id+") returned "+msg.getId());
+			}
+			case 1 -> {
+				Channel channel = channels.get(rnd.nextInt(channels.size()));
+				List<CachedMessage> msgs = new ArrayList<>(index.getAll(channel, true));
+				checkNewestFirst("getAll", msgs, errors);
+
+				for (CachedMessage msg : msgs) {
+					if (msg.getChannelId() != channel.getId()) errors.add("getAll returned message "+msg.getId()+" from another channel");
+				}
+			}
+			case 2 -> {
+				long author = 1000 + rnd.nextInt(AUTHORS);
+
+				for (CachedMessage msg : index.getAllByAuthor(author, true)) {
+					if (msg.getAuthorDiscordId() != author) errors.add("getAllByAuthor returned message "+msg.getId()+" from another author");
+				}
+			}
+			case 3 -> checkNewestFirst("getRecent", index.getRecent(msg -> true, 100, true), errors);
+			case 4 -> checkNewestFirst("search", index.search("version "+rnd.nextInt(3), true, 50), errors);
+			}
+
+			reads.increment();
+		}
+	}
+
+	private static void checkNewestFirst(String method, List<CachedMessage> msgs, Collection<String> errors) {
+		for (int i = 1; i < msgs.size(); i++) {
+			if (msgs.get(i).getId() >= msgs.get(i - 1).getId()) {
+				errors.add(method+" returned "+msgs.get(i).getId()+" after "+msgs.get(i - 1).getId());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Compare the quiesced index against what the writers did.
+	 */
+	private static void verify(MessageIndex index, List<Channel> channels, List<Writer> writers, Collection<String> errors) {
+		Map<Long, Long> oldestIds = new HashMap<>(); // channel id -> oldest cached message id
+		int cached = 0;
+
+		for (Channel channel : channels) {
+			List<CachedMessage> msgs = new ArrayList<>(index.getAll(channel, true));
+			if (msgs.size() != index.getSize(channel)) errors.add("getAll/getSize mismatch for channel "+channel.getId());
+			cached += msgs.size();
+
+			for (CachedMessage msg : msgs) {
+				if (index.get(msg.getId()) != msg) errors.add("global index doesn't have channel message "+msg.getId());
+			}
+
+			if (!msgs.isEmpty()) oldestIds.put(channel.getId(), msgs.get(msgs.size() - 1).getId());
+		}
+
+		int[] global = new int[1];
+
+		index.accept(msg -> {
+			global[0]++;
+			return true;
+		}, true);
+
+		if (global[0] != cached) errors.add("global index has "+global[0]+" messages, the channels "+cached);
+
+		int byAuthor = 0;
+
+		for (int i = 0; i < AUTHORS; i++) {
+			byAuthor += index.getAllByAuthor(1000 + i, true).size();
+		}
+
+		if (byAuthor != cached) errors.add("author index has "+byAuthor+" messages, the channels "+cached);
+
+		for (Writer writer : writers) {
+			for (int i = 0; i < writer.messages.size(); i++) {
+				Written written = writer.messages.get(i);
+				CachedMessage msg = index.get(written.id);
+
+				if (msg == null) {
+					Long oldest = oldestIds.get(written.channel.getId());
+					if (oldest == null || written.id > oldest) errors.add("message "+written.id+" missing without having been evicted");
+				} else if (!msg.getContent().equals(written.content()) || msg.isDeleted() != written.deleted) {
+					errors.add("message "+written.id+" is '"+msg.getContent()+"' deleted="+msg.isDeleted()+", expected '"+written.content()+"' deleted="+written.deleted);
+				} else if (i % 64 == 0) { // spot check the search index
+					List<CachedMessage> found = index.search("k"+written.id+"k", true, 10);
+					if (found.size() != 1 || found.get(0) != msg) errors.add("search for message "+written.id+" returned "+found);
+				}
+			}
+		}
+	}
+
+	private static void guard(Runnable task, Collection<String> errors) {
+		try {
+			task.run();
+		} catch (Throwable t) {
+			errors.add(Thread.currentThread().getName()+" failed: "+t);
+		}
+	}
+
+	/**
+	 * Create a bot with just the state MessageIndex needs, without connecting to Discord.
+	 */
+	private static DiscordBot createBot(Path dataDir) throws ReflectiveOperationException {
+		Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+		Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+		unsafeField.setAccessible(true);
+		DiscordBot bot = (DiscordBot) unsafeClass.getMethod("allocateInstance", Class.class).invoke(unsafeField.get(null), DiscordBot.class);
+
+		set(bot, "configEntryByKey", new ConcurrentHashMap<>());
+		set(bot, "configEntryRegistry", new ConcurrentHashMap<>());
+		set(bot, "dataDir", dataDir);
+		set(bot, "executor", Executors.newCachedThreadPool(new DaemonThreadFactory("Stress test pool thread")));
+		set(bot, "scheduledExecutor", Executors.newScheduledThreadPool(1, new DaemonThreadFactory("Stress test scheduled thread")));
+		set(bot, "activeHandler", new ActiveHandler(bot));
+
+		return bot;
+	}
+
+	private static void applyDefaultConfig(DiscordBot bot) throws ReflectiveOperationException {
+		Map<ConfigKey<?>, Supplier<?>> registry = get(bot, "configEntryRegistry");
+		Map<ConfigKey<?>, Object> values = new HashMap<>();
+		registry.forEach((key, value) -> values.put(key, value.get()));
+		set(bot, "configValues", values);
+	}
+
+	private static void shutdown(DiscordBot bot) {
+		bot.getExecutor().shutdownNow();
+		bot.getScheduledExecutor().shutdownNow();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T get(Object obj, String name) throws ReflectiveOperationException {
+		Field field = obj.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+
+		return (T) field.get(obj);
+	}
+
+	private static void set(Object obj, String name, Object value) throws ReflectiveOperationException {
+		Field field = obj.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(obj, value);
+	}
+
+	/**
+	 * Implement an interface with fixed return values by method name.
+	 */
+	private static <T> T fake(Class<T> type, Map<String, Object> values) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "equals": return proxy == args[0];
+			case "hashCode": return System.identityHashCode(proxy);
+			case "toString": return type.getSimpleName()+values;
+			}
+
+			if (!values.containsKey(method.getName())) throw new UnsupportedOperationException(type.getSimpleName()+"."+method.getName());
+
+			return values.get(method.getName());
+		}));
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DatabaseTest {
+	@Test
+	void walStartup(@TempDir Path dir) throws SQLException {
+		Database db = new Database("jdbc:sqlite:"+dir.resolve("bot.db"), true);
+
+		try {
+			try (Connection conn = db.getConnection();
+					Statement st = conn.createStatement()) {
+				st.executeUpdate("CREATE TABLE `wal_test` (`value` INTEGER)");
+				st.executeUpdate("INSERT INTO `wal_test` VALUES (1)");
+			}
+
+			try (Connection conn = db.getReadConnection();
+					Statement st = conn.createStatement()) {
+				assertTrue(conn.isReadOnly());
+
+				try (ResultSet res = st.executeQuery("PRAGMA journal_mode")) {
+					assertTrue(res.next());
+					assertEquals("wal", res.getString(1));
+				}
+
+				try (ResultSet res = st.executeQuery("SELECT COUNT(*) FROM `wal_test`")) { // sees the committed write
+					assertTrue(res.next());
+					assertEquals(1, res.getInt(1));
+				}
+
+				assertThrows(SQLException.class, () -> st.executeUpdate("INSERT INTO `wal_test` VALUES (2)"));
+			}
+
+			Database.Stats stats = db.getStats();
+			assertTrue(stats.walMode());
+			assertEquals(1, stats.readAcquisitions());
+		} finally {
+			db.close();
+		}
+	}
+}
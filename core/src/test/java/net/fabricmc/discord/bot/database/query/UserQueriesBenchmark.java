@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot.database.query;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.fabricmc.discord.bot.database.Database;
+import net.fabricmc.discord.bot.database.query.UserQueries.SessionDiscordUserData;
+
+/**
+ * Compare the bulk and per-user member list updates on a synthetic guild.
+ *
+ * <p>Usage: UserQueriesBenchmark [member count, default 500000] [wal, default true]
+ *
+ * <p>Each variant gets its own db, first importing all members as new users (initial join), then applying a reconnect
+ * member list with 2% renames, 1% nick changes, 1% leaves and 1% new members.
+ */
+public final class UserQueriesBenchmark {
+	public static void main(String[] args) throws IOException, SQLException {
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+		boolean wal = args.length > 1 ? Boolean.parseBoolean(args[1]) : true;
+
+		List<SessionDiscordUserData> initial = new ArrayList<>(members);
+
+		for (int i = 0; i < members; i++) {
+			initial.add(new SessionDiscordUserData(discordId(i), "user"+i, "0001", i % 3 == 0 ? "nick"+i : null, true));
+		}
+
+		Random rnd = new Random(0x5eed_0023L);
+		Collections.shuffle(initial, rnd);
+
+		List<SessionDiscordUserData> reconnect = new ArrayList<>(members);
+
+		for (SessionDiscordUserData user : initial) {
+			int r = rnd.nextInt(100);
+
+			if (r < 2) {
+				reconnect.add(new SessionDiscordUserData(user.id(), user.username()+"x", user.discriminator(), user.nickname(), true));
+			} else if (r < 3) {
+				reconnect.add(new SessionDiscordUserData(user.id(), user.username(), user.discriminator(), "renick"+user.id(), true));
+			} else if (r >= 4) { // r == 3 left
+				reconnect.add(user);
+			}
+		}
+
+		for (int i = 0; i < members / 100; i++) {
+			int idx = members + i;
+			reconnect.add(new SessionDiscordUserData(discordId(idx), "user"+idx, "0001", null, true));
+		}
+
+		Collections.shuffle(reconnect, rnd);
+
+		System.out.printf("%d members, reconnect list %d, wal %b%n", members, reconnect.size(), wal);
+
+		for (boolean bulk : new boolean[] { true, false }) {
+			Path dir = Files.createTempDirectory("userbench");
+			Database db = new Database("jdbc:sqlite:"+dir.resolve("bot.db"), wal);
+
+			try {
+				long initialNs = run(db, initial, bulk, 1_000_000);
+				long reconnectNs = run(db, reconnect, bulk, 2_000_000);
+
+				System.out.printf("%-8s initial %6d ms, reconnect %6d ms%n",
+						bulk ? "bulk" : "per-user",
+						TimeUnit.NANOSECONDS.toMillis(initialNs),
+						TimeUnit.NANOSECONDS.toMillis(reconnectNs));
+			} finally {
+				db.close();
+
+				try (var files = Files.list(dir)) {
+					for (Path file : (Iterable<Path>) files::iterator) {
+						Files.delete(file);
+					}
+				}
+
+				Files.delete(dir);
+			}
+		}
+	}
+
+	private static long run(Database db, List<SessionDiscordUserData> users, boolean bulk, long time) throws SQLException {
+		long start = System.nanoTime();
+		UserQueries.updateNewUsers(db, users, true, time - 1, time, bulk);
+
+		return System.nanoTime() - start;
+	}
+
+	private static long discordId(int idx) {
+		return 80_000_000_000_000_000L + idx;
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot.database.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.fabricmc.discord.bot.database.Database;
+import net.fabricmc.discord.bot.database.query.UserQueries.SessionDiscordUserData;
+
+class UserQueriesTest {
+	private static final String[] TABLES = { "user", "discorduser", "discorduser_namelog", "discorduser_nicklog", "sqlite_sequence" };
+	private static final int EXISTING_USERS = 1500;
+
+	@Test
+	void bulkMatchesPerUser(@TempDir Path dir) throws SQLException {
+		Database bulkDb = new Database("jdbc:sqlite:"+dir.resolve("bulk.db"), true);
+		Database perUserDb = new Database("jdbc:sqlite:"+dir.resolve("peruser.db"), true);
+
+		try {
+			seed(bulkDb);
+			seed(perUserDb);
+			assertEquals(dump(perUserDb), dump(bulkDb));
+
+			// left over by an aborted run on the single writer connection, with an incompatible schema
+			try (Connection conn = bulkDb.getConnection();
+					Statement st = conn.createStatement()) {
+				st.executeUpdate("CREATE TEMP TABLE `session_discorduser` (`stale` TEXT)");
+				st.executeUpdate("CREATE TEMP TABLE `new_discorduser` (`stale` TEXT)");
+			}
+
+			Random rnd = new Random(0x5eed_0023L);
+			List<SessionDiscordUserData> users = session(rnd, EXISTING_USERS);
+			UserQueries.updateNewUsers(bulkDb, users, true, 2_000_000, 3_000_000, true);
+			UserQueries.updateNewUsers(perUserDb, users, true, 2_000_000, 3_000_000, false);
+			List<List<List<Object>>> state = dump(bulkDb);
+			assertEquals(dump(perUserDb), state);
+			assertTrue(state.get(0).size() > EXISTING_USERS, "no users created");
+
+			// again without a complete list, including the users created above
+			users = session(rnd, EXISTING_USERS + 500);
+			UserQueries.updateNewUsers(bulkDb, users, false, 0, 4_000_000, true);
+			UserQueries.updateNewUsers(perUserDb, users, false, 0, 4_000_000, false);
+			assertEquals(dump(perUserDb), dump(bulkDb));
+
+			try (Connection conn = bulkDb.getConnection();
+					Statement st = conn.createStatement();
+					ResultSet res = st.executeQuery("SELECT COUNT(*) FROM `temp`.`sqlite_schema`")) {
+				assertTrue(res.next());
+				assertEquals(0, res.getInt(1), "temp tables left behind");
+			}
+		} finally {
+			bulkDb.close();
+			perUserDb.close();
+		}
+	}
+
+	/**
+	 * Create discord users with some name history, with the user autoincrement sequence ahead of the highest user id.
+	 */
+	private static void seed(Database db) throws SQLException {
+		Random rnd = new Random(0x5eed_5eedL);
+
+		try (Connection conn = db.getConnection();
+				Statement st = conn.createStatement();
+				PreparedStatement psUser = conn.prepareStatement("INSERT INTO user (stickyname) VALUES (?)");
+				PreparedStatement psDU = conn.prepareStatement("INSERT INTO discorduser (id, user_id, username, discriminator, nickname, firstseen, lastseen, lastnickchange, present) VALUES (?, last_insert_rowid(), ?, ?, ?, ?, ?, ?, ?)");
+				PreparedStatement psName = conn.prepareStatement("INSERT INTO discorduser_namelog (discorduser_id, username, discriminator, firstused, lastused, duration) VALUES (?, ?, ?, ?, ?, ?)")) {
+			conn.setAutoCommit(false);
+
+			for (int i = 0; i < EXISTING_USERS; i++) {
+				long firstSeen = 1000 + rnd.nextInt(1000);
+				long lastSeen = firstSeen + rnd.nextInt(100_000);
+
+				psUser.setString(1, name(i, 0));
+				psUser.executeUpdate();
+
+				psDU.setLong(1, discordId(i));
+				psDU.setString(2, name(i, 0));
+				psDU.setString(3, "0001");
+				psDU.setString(4, rnd.nextBoolean() ? nick(i, 0) : null);
+				psDU.setLong(5, firstSeen);
+				psDU.setLong(6, lastSeen);
+				psDU.setLong(7, firstSeen + rnd.nextInt(1000));
+				psDU.setBoolean(8, rnd.nextBoolean());
+				psDU.executeUpdate();
+
+				if (rnd.nextInt(4) == 0) {
+					psName.setLong(1, discordId(i));
+					psName.setString(2, name(i, -1));
+					psName.setString(3, "0001");
+					psName.setLong(4, firstSeen - 500);
+					psName.setLong(5, firstSeen - 100);
+					psName.setLong(6, 400);
+					psName.executeUpdate();
+				}
+			}
+
+			// AUTOINCREMENT doesn't reuse these ids, new users have to be numbered after them
+			st.executeUpdate("INSERT INTO user (stickyname) VALUES ('deleted1'), ('deleted2'), ('deleted3')");
+			st.executeUpdate("DELETE FROM user WHERE stickyname LIKE 'deleted%'");
+
+			conn.commit();
+		}
+	}
+
+	/**
+	 * Create a shuffled member list for the discord users with indices below userCount, omitting some and adding new ones.
+	 */
+	private static List<SessionDiscordUserData> session(Random rnd, int userCount) {
+		List<SessionDiscordUserData> ret = new ArrayList<>();
+
+		for (int i = 0; i < userCount; i++) {
+			if (rnd.nextInt(10) == 0) continue; // not a member anymore
+
+			int nameVersion = rnd.nextInt(8) == 0 ? 1 + rnd.nextInt(2) : 0;
+			String discriminator = rnd.nextInt(16) == 0 ? "0002" : "0001";
+			String nick = switch (rnd.nextInt(4)) {
+			case 0 -> null;
+			case 1 -> nick(i, 1);
+			default -> nick(i, 0);
+			};
+
+			ret.add(new SessionDiscordUserData(discordId(i), name(i, nameVersion), discriminator, nick, rnd.nextInt(3) != 0));
+		}
+
+		for (int i = 0; i < 500; i++) { // new discord users, some of which may map to existing indices in the next session
+			int idx = userCount + i;
+			ret.add(new SessionDiscordUserData(discordId(idx), name(idx, 0), "0001", null, true));
+		}
+
+		Collections.shuffle(ret, rnd);
+
+		return ret;
+	}
+
+	private static long discordId(int idx) {
+		return 80_000_000_000_000_000L + idx * 7919L % 100_003 * 1_000_000 + idx;
+	}
+
+	private static String name(int idx, int version) {
+		return "user"+idx+(version != 0 ? "v"+version : "");
+	}
+
+	private static String nick(int idx, int version) {
+		return "nick"+idx+"v"+version;
+	}
+
+	private static List<List<List<Object>>> dump(Database db) throws SQLException {
+		List<List<List<Object>>> ret = new ArrayList<>(TABLES.length);
+
+		try (Connection conn = db.getReadConnection();
+				Statement st = conn.createStatement()) {
+			for (String table : TABLES) {
+				List<List<Object>> rows = new ArrayList<>();
+
+				try (ResultSet res = st.executeQuery("SELECT * FROM `"+table+"`")) {
+					int columns = res.getMetaData().getColumnCount();
+
+					while (res.next()) {
+						List<Object> row = new ArrayList<>(columns + 1);
+						row.add(table);
+
+						for (int i = 1; i <= columns; i++) {
+							row.add(res.getObject(i));
+						}
+
+						rows.add(row);
+					}
+				}
+
+				rows.sort((a, b) -> a.toString().compareTo(b.toString())); // the log tables have no defined order
+				ret.add(rows);
+			}
+		}
+
+		return ret;
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2021, 2022 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.discord.bot.filter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.discord.bot.filter.LinearRegex.UnsupportedPatternException;
+
+/**
+ * Differential test of {@link LinearRegex} against case insensitive {@link Pattern#matcher}.find() on lower case input.
+ */
+class LinearRegexTest {
+	private static final long SEED = 0x5eed_1e6eL;
+	private static final int PATTERN_COUNT = 20_000;
+	private static final int PATTERNS_PER_MATCHER = 16;
+	private static final int INPUTS_PER_MATCHER = 64;
+	private static final String INPUT_CHARS = "aAbB1_ .-\n\r\t\u00e9\u0301x";
+	private static final String[] ATOMS = { "a", "B", "1", "_", " ", ".", "\\.", "-", "\\w", "\\W", "\\d", "\\D", "\\s", "\\S",
+			"[a-c]", "[^b]", "[\\w.]", "[A-B1]", "\u00e9", "\\u00e9", "\\x61", "\\Q.a\\E", "\\n", "\\r" };
+	private static final String[] ASSERTIONS = { "^", "$", "\\b", "\\B", "\\A", "\\z", "\\Z" };
+	private static final String[] QUANTIFIERS = { "*", "+", "?", "{2}", "{0,2}", "{1,}", "{2,3}", "*?", "+?", "??" };
+
+	@Test
+	void matchesPattern() {
+		Random random = new Random(SEED);
+		List<String> failures = new ArrayList<>();
+		int supported = 0;
+		int cases = 0;
+
+		for (int done = 0; done < PATTERN_COUNT; ) {
+			List<String> patterns = new ArrayList<>(PATTERNS_PER_MATCHER);
+			List<Pattern> references = new ArrayList<>(PATTERNS_PER_MATCHER);
+			LinearRegex.Builder builder = new LinearRegex.Builder();
+
+			while (patterns.size() < PATTERNS_PER_MATCHER && done < PATTERN_COUNT) {
+				String pattern = genAlt(random, 3);
+				done++;
+
+				Pattern reference;
+
+				try {
+					reference = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
+				} catch (PatternSyntaxException e) {
+					continue;
+				}
+
+				try {
+					assertEquals(patterns.size(), builder.add(pattern));
+				} catch (UnsupportedPatternException e) {
+					continue;
+				}
+
+				patterns.add(pattern);
+				references.add(reference);
+			}
+
+			supported += patterns.size();
+			LinearRegex regex = builder.build();
+
+			for (int i = 0; i < INPUTS_PER_MATCHER; i++) {
+				String input = genInput(random);
+				BitSet matches = regex.match(input);
+
+				for (int j = 0; j < patterns.size(); j++) {
+					cases++;
+					boolean expected = references.get(j).matcher(input).find();
+
+					if (matches.get(j) != expected && failures.size() < 20) {
+						failures.add("%s on \"%s\": expected %s".formatted(patterns.get(j), escape(input), expected));
+					}
+				}
+			}
+		}
+
+		if (!failures.isEmpty()) fail("mismatches: "+String.join("\n", failures));
+		assertTrue(supported > PATTERN_COUNT / 2, "too few supported patterns: "+supported);
+		assertTrue(cases > 500_000, "too few cases: "+cases);
+	}
+
+	@Test
+	void rejectsNullableCountedRepetition() {
+		assertThrows(UnsupportedPatternException.class, () -> new LinearRegex.Builder().add("(?:\\w+|^){2,}[.-]"));
+		assertThrows(UnsupportedPatternException.class, () -> new LinearRegex.Builder().add("(?:a?){2}b"));
+	}
+
+	@Test
+	void wordBoundaryMatchesPattern() throws UnsupportedPatternException {
+		String[] patterns = { "\\bfoo\\b", "\\b\u00e9", "a\\b", "\u00e9\\b", "x\\B\u0301", "\\B" };
+		String[] inputs = { "\u00e9 foo", "x\u00e9", "a\u00e9", "\u00e9 ", "x\u0301", "\u00e9\u0301a", " \u0301a", "" };
+		LinearRegex.Builder builder = new LinearRegex.Builder();
+
+		for (String pattern : patterns) {
+			builder.add(pattern);
+		}
+
+		LinearRegex regex = builder.build();
+
+		for (String input : inputs) {
+			BitSet matches = regex.match(input);
+
+			for (int i = 0; i < patterns.length; i++) {
+				boolean expected = Pattern.compile(patterns[i], Pattern.CASE_INSENSITIVE).matcher(input).find();
+				assertEquals(expected, matches.get(i), patterns[i]+" on "+escape(input));
+			}
+		}
+	}
+
+	private static String genAlt(Random random, int depth) {
+		int count = random.nextInt(8) == 0 ? 2 : 1;
+		StringBuilder ret = new StringBuilder();
+
+		for (int i = 0; i < count; i++) {
+			if (i > 0) ret.append('|');
+			ret.append(genConcat(random, depth));
+		}
+
+		return ret.toString();
+	}
+
+	private static String genConcat(Random random, int depth) {
+		int count = random.nextInt(4);
+		StringBuilder ret = new StringBuilder();
+
+		for (int i = 0; i < count; i++) {
+			int kind = random.nextInt(10);
+
+			if (kind == 0) {
+				ret.append(ASSERTIONS[random.nextInt(ASSERTIONS.length)]);
+				continue;
+			}
+
+			if (kind <= 2 && depth > 0) {
+				ret.append(random.nextBoolean() ? "(?:" : "(").append(genAlt(random, depth - 1)).append(')');
+			} else {
+				ret.append(ATOMS[random.nextInt(ATOMS.length)]);
+			}
+
+			if (random.nextInt(3) == 0) ret.append(QUANTIFIERS[random.nextInt(QUANTIFIERS.length)]);
+		}
+
+		return ret.toString();
+	}
+
+	private static String genInput(Random random) {
+		int len = random.nextInt(9);
+		StringBuilder ret = new StringBuilder(len);
+
+		for (int i = 0; i < len; i++) {
+			ret.append(INPUT_CHARS.charAt(random.nextInt(INPUT_CHARS.length())));
+		}
+
+		return ret.toString().toLowerCase(Locale.ENGLISH);
+	}
+
+	private static String escape(String s) {
+		StringBuilder ret = new StringBuilder();
+
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+
+			if (c < ' ' || c > '~') {
+				ret.append(String.format("\\u%04x", (int) c));
+			} else {
+				ret.append(c);
+			}
+		}
+
+		return ret.toString();
+	}
+}
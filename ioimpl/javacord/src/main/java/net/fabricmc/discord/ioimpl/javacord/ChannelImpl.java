@@ -18,6 +18,7 @@ package net.fabricmc.discord.ioimpl.javacord;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 
@@ -174,18 +175,31 @@ public class ChannelImpl implements Channel {
 			if (limit < 0) limit = Integer.MAX_VALUE;
 			List<Message> ret = new ArrayList<>();
 
-			retrieveLoop: while (limit > 0) {
-				MessageSet res = channel.getMessagesAfter(Math.min(100, limit), firstId).join();
+			long afterId = firstId;
+
+			while (limit > 0) {
+				int count = Math.min(100, limit);
+				MessageSet res = channel.getMessagesAfter(count, afterId).join();
+				if (res.isEmpty()) break;
+
+				boolean reachedLast = false;
 
 				for (org.javacord.api.entity.message.Message msg : res) {
-					if (msg.getId() >= lastId) break retrieveLoop;
+					if (Long.compareUnsigned(msg.getId(), lastId) >= 0) {
+						reachedLast = true;
+					} else {
+						ret.add(MessageImpl.wrap(msg, this));
+					}
 
-					ret.add(MessageImpl.wrap(msg, this));
+					if (Long.compareUnsigned(msg.getId(), afterId) > 0) afterId = msg.getId();
 				}
 
+				if (reachedLast || res.size() < count) break;
 				limit -= res.size();
 			}
 
+			ret.sort(Comparator.comparingLong(Message::getId));
+
 			return ret;
 		} else {
 			return Collections.emptyList();
@@ -19,6 +19,7 @@ package net.fabricmc.discord.ioimpl.jda;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 
@@ -143,18 +144,31 @@ public class ChannelImpl implements Channel {
 			if (limit < 0) limit = Integer.MAX_VALUE;
 			List<Message> ret = new ArrayList<>();
 
-			retrieveLoop: while (limit > 0) {
-				List<net.dv8tion.jda.api.entities.Message> res = channel.getHistoryAfter(firstId, Math.min(100, limit)).complete().getRetrievedHistory();
+			long afterId = firstId;
+
+			while (limit > 0) {
+				int count = Math.min(100, limit);
+				List<net.dv8tion.jda.api.entities.Message> res = channel.getHistoryAfter(afterId, count).complete().getRetrievedHistory();
+				if (res.isEmpty()) break;
+
+				boolean reachedLast = false;
 
 				for (net.dv8tion.jda.api.entities.Message msg : res) {
-					if (msg.getIdLong() >= lastId) break retrieveLoop;
+					if (Long.compareUnsigned(msg.getIdLong(), lastId) >= 0) {
+						reachedLast = true;
+					} else {
+						ret.add(MessageImpl.wrap(msg, this));
+					}
 
-					ret.add(MessageImpl.wrap(msg, this));
+					if (Long.compareUnsigned(msg.getIdLong(), afterId) > 0) afterId = msg.getIdLong();
 				}
 
+				if (reachedLast || res.size() < count) break;
 				limit -= res.size();
 			}
 
+			ret.sort(Comparator.comparingLong(Message::getId));
+
 			return ret;
 		} else {
 			return Collections.emptyList();
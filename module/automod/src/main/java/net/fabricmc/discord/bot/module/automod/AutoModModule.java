@@ -26,6 +26,7 @@ import org.apache.logging.log4j.Logger;
 
 import net.fabricmc.discord.bot.CachedMessage;
 import net.fabricmc.discord.bot.DiscordBot;
+import net.fabricmc.discord.bot.MessageAnalysis;
 import net.fabricmc.discord.bot.MessageIndex.MessageCreateHandler;
 import net.fabricmc.discord.bot.Module;
 import net.fabricmc.discord.bot.command.mod.ActionUtil;
@@ -114,19 +115,19 @@ public final class AutoModModule implements Module, MessageCreateHandler {
 	}
 
 	@Override
-	public void onMessageCreated(CachedMessage message, Server server) {
+	public void onMessageCreated(CachedMessage message, MessageAnalysis analysis, Server server) {
 		if (message.getType() != Message.Type.REPLY) return;
 
 		if (bot.getUserHandler().hasImmunity(message.getAuthorDiscordId(), bot.getUserHandler().getBotUserId(), false)) {
 			return;
 		}
 
-		if (!checkReply(message, server, requestsChannels, REQUESTS_ACTION_REASON)) {
-			checkReply(message, server, showcaseChannels, SHOWCASE_ACTION_REASON);
+		if (!checkReply(message, analysis, server, requestsChannels, REQUESTS_ACTION_REASON)) {
+			checkReply(message, analysis, server, showcaseChannels, SHOWCASE_ACTION_REASON);
 		}
 	}
 
-	private boolean checkReply(CachedMessage message, Server server, List<Channel> channels, ConfigKey<String> reasonKey) {
+	private boolean checkReply(CachedMessage message, MessageAnalysis analysis, Server server, List<Channel> channels, ConfigKey<String> reasonKey) {
 		if (channels == null) return false;
 
 		Channel channel = null;
@@ -141,7 +142,7 @@ public final class AutoModModule implements Module, MessageCreateHandler {
 		if (channel == null) return false;
 
 		try {
-			Message refMsg = message.toMessage(server).getReferencedMessage();
+			Message refMsg = analysis.getReferencedMessage();
 
 			if (refMsg == null
 					|| refMsg.getAuthor().getId() == message.getAuthorDiscordId() // self-reply